@@ -24,7 +24,10 @@ import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
 import org.apache.commons.io.IOUtils;
 import org.kse.crypto.CryptoException;
 import org.kse.utilities.io.HexUtil;
@@ -36,6 +39,13 @@ public final class DigestUtil {
   private static ResourceBundle res =
       ResourceBundle.getBundle("org/kse/crypto/digest/resources");
 
+  private static final int BUFFER_SIZE = 8192;
+
+  // Message digesters are reused per thread instead of being looked up for
+  // every digest
+  private static final ThreadLocal<Map<DigestType, MessageDigest>> DIGESTERS =
+      ThreadLocal.withInitial(() -> new EnumMap<>(DigestType.class));
+
   private DigestUtil() {}
 
   /**
@@ -49,10 +59,10 @@ public final class DigestUtil {
   public static byte[] getMessageDigest(InputStream istream,
                                         DigestType digestType)
       throws CryptoException {
-    MessageDigest messageDigester = getMessageDigester(digestType);
+    MessageDigest messageDigester = getPooledMessageDigester(digestType);
 
     try {
-      byte[] buffer = new byte[2048];
+      byte[] buffer = new byte[BUFFER_SIZE];
       int read = 0;
 
       while ((read = istream.read(buffer)) != -1) {
@@ -78,11 +88,44 @@ public final class DigestUtil {
    */
   public static byte[] getMessageDigest(byte[] message, DigestType digestType)
       throws CryptoException {
-    MessageDigest messageDigester = getMessageDigester(digestType);
+    MessageDigest messageDigester = getPooledMessageDigester(digestType);
 
     return messageDigester.digest(message);
   }
 
+  /**
+   * Get digests of the supplied message for several algorithms at once.
+   *
+   * @param message     The message to digest
+   * @param digestTypes The message digest algorithms
+   * @return The message digests by algorithm
+   * @throws CryptoException If a message digester could not be created
+   */
+  public static Map<DigestType, byte[]>
+  getMessageDigests(byte[] message, Set<DigestType> digestTypes)
+      throws CryptoException {
+    Map<DigestType, MessageDigest> messageDigesters =
+        getPooledMessageDigesters(digestTypes);
+
+    for (MessageDigest messageDigester : messageDigesters.values()) {
+      messageDigester.update(message);
+    }
+
+    return digestAll(messageDigesters);
+  }
+
+  private static Map<DigestType, byte[]>
+  digestAll(Map<DigestType, MessageDigest> messageDigesters) {
+    Map<DigestType, byte[]> digests = new EnumMap<>(DigestType.class);
+
+    for (Map.Entry<DigestType, MessageDigest> entry :
+         messageDigesters.entrySet()) {
+      digests.put(entry.getKey(), entry.getValue().digest());
+    }
+
+    return digests;
+  }
+
   /**
    * Get the digest of a message as a formatted String. Returned in base-16
    * with ':' separators every two characters padded with a leading 0 if
@@ -101,8 +144,42 @@ public final class DigestUtil {
     return HexUtil.getHexStringWithSep(messageDigest, ':');
   }
 
+  /*
+   * Get this thread's message digester of the supplied type in its initial
+   * state. It must not be handed out, the next call on the same thread resets
+   * it.
+   */
+  private static MessageDigest getPooledMessageDigester(DigestType digestType)
+      throws CryptoException {
+    Map<DigestType, MessageDigest> digesters = DIGESTERS.get();
+    MessageDigest messageDigester = digesters.get(digestType);
+
+    if (messageDigester == null) {
+      messageDigester = getMessageDigester(digestType);
+      digesters.put(digestType, messageDigester);
+    } else {
+      messageDigester.reset();
+    }
+
+    return messageDigester;
+  }
+
+  private static Map<DigestType, MessageDigest>
+  getPooledMessageDigesters(Set<DigestType> digestTypes)
+      throws CryptoException {
+    Map<DigestType, MessageDigest> messageDigesters =
+        new EnumMap<>(DigestType.class);
+
+    for (DigestType digestType : digestTypes) {
+      messageDigesters.put(digestType, getPooledMessageDigester(digestType));
+    }
+
+    return messageDigesters;
+  }
+
   /**
-   * Create message digester of supplied type.
+   * Create message digester of supplied type. The digester is not shared and
+   * may be kept by the caller.
    *
    * @param digestType Digest type
    * @return Message digester
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.digest;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.publickey.OpenSslPubUtil;
+
+/**
+ * Memoized certificate and public key fingerprints. Fingerprints are keyed by
+ * the encoding of the certificate or public key, so the keystore table and
+ * the certificate and public key viewers share the values computed by any of
+ * them.
+ */
+public final class FingerprintCache {
+
+  private static final int MAX_ENTRIES = 4096;
+
+  // Computed together in one pass when a certificate is first seen
+  private static final Set<DigestType> CERTIFICATE_DIGESTS =
+      EnumSet.of(DigestType.SHA1, DigestType.SHA256);
+
+  private static final Map<Key, Map<DigestType, byte[]>> certificateDigests =
+      new Lru<>();
+  private static final Map<Key, PublicKeyFingerprints> publicKeyFingerprints =
+      new Lru<>();
+
+  private FingerprintCache() {}
+
+  /**
+   * Get the fingerprint of an encoded certificate.
+   *
+   * @param encodedCertificate DER-encoded certificate
+   * @param digestType         The message digest algorithm
+   * @return The fingerprint
+   * @throws CryptoException If the fingerprint could not be calculated
+   */
+  public static byte[] getCertificateFingerprint(byte[] encodedCertificate,
+                                                 DigestType digestType)
+      throws CryptoException {
+    Key key = new Key(encodedCertificate);
+    byte[] fingerprint;
+
+    synchronized (certificateDigests) {
+      Map<DigestType, byte[]> digests = certificateDigests.get(key);
+      fingerprint = digests == null ? null : digests.get(digestType);
+    }
+
+    if (fingerprint != null) {
+      return fingerprint.clone();
+    }
+
+    Map<DigestType, byte[]> digests;
+
+    if (CERTIFICATE_DIGESTS.contains(digestType)) {
+      digests = DigestUtil.getMessageDigests(encodedCertificate,
+                                             CERTIFICATE_DIGESTS);
+    } else {
+      digests = new EnumMap<>(DigestType.class);
+      digests.put(digestType,
+                  DigestUtil.getMessageDigest(encodedCertificate, digestType));
+    }
+
+    synchronized (certificateDigests) {
+      Map<DigestType, byte[]> cached = certificateDigests.get(key);
+
+      if (cached == null) {
+        // keep a copy, the caller's encoding may be modified later
+        certificateDigests.put(new Key(encodedCertificate.clone()), digests);
+      } else {
+        cached.putAll(digests);
+      }
+    }
+
+    return digests.get(digestType).clone();
+  }
+
+  /**
+   * Get the fingerprint of a public key.
+   *
+   * @param publicKey Public key
+   * @param algorithm How to calculate the fingerprint value
+   * @return The fingerprint
+   * @throws CryptoException If the fingerprint could not be calculated
+   */
+  public static byte[]
+  getPublicKeyFingerprint(PublicKey publicKey,
+                          PublicKeyFingerprintAlgorithm algorithm)
+      throws CryptoException {
+    Key key = new Key(publicKey.getEncoded());
+    PublicKeyFingerprints fingerprints;
+
+    synchronized (publicKeyFingerprints) {
+      fingerprints = publicKeyFingerprints.get(key);
+    }
+
+    if (fingerprints == null) {
+      // workaround for encoding bug in older Java versions, only needed once
+      // per key
+      fingerprints =
+          new PublicKeyFingerprints(OpenSslPubUtil.load(key.encoded));
+
+      synchronized (publicKeyFingerprints) {
+        PublicKeyFingerprints cached = publicKeyFingerprints.get(key);
+
+        if (cached == null) {
+          publicKeyFingerprints.put(key, fingerprints);
+        } else {
+          fingerprints = cached;
+        }
+      }
+    }
+
+    return fingerprints.get(algorithm).clone();
+  }
+
+  /**
+   * Get the SPKI pin of a public key, the base64 encoded SHA-256 hash of its
+   * SubjectPublicKeyInfo as used by HTTP public key pinning.
+   *
+   * @param publicKey Public key
+   * @return The SPKI pin
+   * @throws CryptoException If the pin could not be calculated
+   */
+  public static String getSpkiPin(PublicKey publicKey) throws CryptoException {
+    return Base64.getEncoder().encodeToString(getPublicKeyFingerprint(
+        publicKey, PublicKeyFingerprintAlgorithm.SHA256_OVER_SPKI));
+  }
+
+  /**
+   * Drop all cached fingerprints.
+   */
+  public static void clear() {
+    synchronized (certificateDigests) {
+      certificateDigests.clear();
+    }
+
+    synchronized (publicKeyFingerprints) {
+      publicKeyFingerprints.clear();
+    }
+  }
+
+  private static final class PublicKeyFingerprints {
+    private final PublicKey convertedPublicKey;
+    private final Map<PublicKeyFingerprintAlgorithm, byte[]> fingerprints =
+        new EnumMap<>(PublicKeyFingerprintAlgorithm.class);
+
+    PublicKeyFingerprints(PublicKey convertedPublicKey) {
+      this.convertedPublicKey = convertedPublicKey;
+    }
+
+    synchronized byte[] get(PublicKeyFingerprintAlgorithm algorithm)
+        throws CryptoException {
+      byte[] fingerprint = fingerprints.get(algorithm);
+
+      if (fingerprint == null) {
+        fingerprint = PublicKeyFingerprintUtil.calculateFingerprintOfConverted(
+            convertedPublicKey, algorithm);
+        fingerprints.put(algorithm, fingerprint);
+      }
+
+      return fingerprint;
+    }
+  }
+
+  private static final class Lru<V> extends LinkedHashMap<Key, V> {
+    private static final long serialVersionUID = 1L;
+
+    Lru() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  }
+
+  private static final class Key {
+    private final byte[] encoded;
+    private final int hash;
+
+    Key(byte[] encoded) {
+      this.encoded = encoded;
+      this.hash = Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (object == this) {
+        return true;
+      }
+
+      if (!(object instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key)object;
+
+      return hash == other.hash && Arrays.equals(encoded, other.encoded);
+    }
+  }
+}
@@ -23,7 +23,6 @@ package org.kse.crypto.digest;
 import java.security.PublicKey;
 import org.kse.crypto.CryptoException;
 import org.kse.crypto.publickey.KeyIdentifierGenerator;
-import org.kse.crypto.publickey.OpenSslPubUtil;
 
 /**
  * Helper class for calculating different fingerprint algorithms for public
@@ -35,7 +34,7 @@ public class PublicKeyFingerprintUtil {
 
   /**
    * Calculates the fingerprint of the given public key with the given
-   * algorithm.
+   * algorithm. Fingerprints are memoized in the {@link FingerprintCache}.
    *
    * @param publicKey Public key for fingerprint calculation
    * @param algorithm How to calculate the fingerprint value
@@ -45,9 +44,13 @@ public class PublicKeyFingerprintUtil {
   calculateFingerprint(PublicKey publicKey,
                        PublicKeyFingerprintAlgorithm algorithm)
       throws CryptoException {
+    return FingerprintCache.getPublicKeyFingerprint(publicKey, algorithm);
+  }
 
-    // workaround for encoding bug in older Java versions
-    PublicKey convertedPublicKey = OpenSslPubUtil.load(publicKey.getEncoded());
+  static byte[]
+  calculateFingerprintOfConverted(PublicKey convertedPublicKey,
+                                  PublicKeyFingerprintAlgorithm algorithm)
+      throws CryptoException {
 
     KeyIdentifierGenerator keyIdentifierGenerator =
         new KeyIdentifierGenerator(convertedPublicKey);
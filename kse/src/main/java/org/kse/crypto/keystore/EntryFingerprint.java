@@ -0,0 +1,131 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Date;
+import java.util.ResourceBundle;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.digest.DigestType;
+import org.kse.crypto.digest.DigestUtil;
+
+/**
+ * Fingerprints of KeyStore entries. Entries have the same fingerprint if they
+ * are of the same type and hold the same certificates. Key entries without
+ * certificates are told apart by their creation date only, as their keys may
+ * be protected. Neither the alias nor any password is part of the
+ * fingerprint.
+ */
+public final class EntryFingerprint {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/keystore/resources");
+
+  private static final int TRUSTED_CERTIFICATE_ENTRY = 1;
+  private static final int KEY_PAIR_ENTRY = 2;
+  private static final int KEY_ENTRY = 3;
+
+  private EntryFingerprint() {}
+
+  /**
+   * Get the fingerprint of an entry. Certificates are not decoded if the
+   * KeyStore is a {@link KeyStoreIndex} that knows their encodings.
+   *
+   * @param keyStore KeyStore
+   * @param alias    Alias of the entry
+   * @return SHA-256 fingerprint
+   * @throws CryptoException If the entry could not be read
+   */
+  public static byte[] get(KeyStore keyStore, String alias)
+      throws CryptoException {
+    try {
+      byte[][] encodings = getEncodedCertificates(keyStore, alias);
+      MessageDigest digester =
+          DigestUtil.getMessageDigester(DigestType.SHA256);
+
+      if (keyStore.isCertificateEntry(alias)) {
+        digester.update(intBytes(TRUSTED_CERTIFICATE_ENTRY));
+      } else if (encodings.length > 0) {
+        digester.update(intBytes(KEY_PAIR_ENTRY));
+      } else {
+        Date creationDate = keyStore.getCreationDate(alias);
+        digester.update(intBytes(KEY_ENTRY));
+        digester.update(ByteBuffer.allocate(Long.BYTES)
+                            .putLong(creationDate == null
+                                         ? 0
+                                         : creationDate.getTime())
+                            .array());
+      }
+
+      // length prefixed, so a chain never digests like another one
+      for (byte[] encoding : encodings) {
+        digester.update(intBytes(encoding.length));
+        digester.update(encoding);
+      }
+
+      return digester.digest();
+    } catch (KeyStoreException | CertificateEncodingException ex) {
+      throw new CryptoException(
+          res.getString("NoGetEntryFingerprint.exception.message"), ex);
+    }
+  }
+
+  private static byte[][] getEncodedCertificates(KeyStore keyStore,
+                                                 String alias)
+      throws KeyStoreException, CertificateEncodingException {
+    if (keyStore instanceof KeyStoreIndex) {
+      byte[][] encodings =
+          ((KeyStoreIndex)keyStore).getEncodedCertificates(alias);
+
+      if (encodings != null) {
+        return encodings;
+      }
+    }
+
+    Certificate[] certificates;
+
+    if (keyStore.isCertificateEntry(alias)) {
+      certificates = new Certificate[] {keyStore.getCertificate(alias)};
+    } else {
+      certificates = keyStore.getCertificateChain(alias);
+    }
+
+    if (certificates == null) {
+      return new byte[0][];
+    }
+
+    byte[][] encodings = new byte[certificates.length][];
+
+    for (int i = 0; i < certificates.length; i++) {
+      encodings[i] = certificates[i].getEncoded();
+    }
+
+    return encodings;
+  }
+
+  private static byte[] intBytes(int value) {
+    return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+  }
+}
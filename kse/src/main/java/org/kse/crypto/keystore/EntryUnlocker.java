@@ -0,0 +1,123 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import org.kse.crypto.Password;
+
+/**
+ * Tries a password on many key entries of a KeyStore. Recovering a key is
+ * dominated by the key derivation of its protection, so the attempts run
+ * concurrently on a bounded number of threads.
+ */
+public final class EntryUnlocker {
+  private EntryUnlocker() {}
+
+  /**
+   * Try a password on key entries.
+   *
+   * @param keyStore    KeyStore holding the entries
+   * @param aliases     Aliases of the key entries
+   * @param password    Password to try
+   * @param parallelism Maximum number of entries tried at the same time
+   * @param listener    Called with the alias and whether the password is
+   *                    correct as soon as an entry has been tried, on the
+   *                    thread that tried it. May be null. A runtime
+   *                    exception it throws cancels the entries not tried yet
+   *                    and is rethrown, which allows stopping early.
+   * @return Aliases of the entries the password is correct for, in the order
+   *     supplied
+   */
+  public static List<String> unlock(KeyStore keyStore, List<String> aliases,
+                                    Password password, int parallelism,
+                                    BiConsumer<String, Boolean> listener) {
+    List<String> unlocked = new ArrayList<>();
+
+    if (aliases.isEmpty()) {
+      return unlocked;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(parallelism, aliases.size())));
+
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+
+      for (String alias : aliases) {
+        futures.add(
+            executor.submit(() -> tryPassword(keyStore, alias, password,
+                                              listener)));
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        if (getResult(futures.get(i))) {
+          unlocked.add(aliases.get(i));
+        }
+      }
+
+      return unlocked;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean tryPassword(KeyStore keyStore, String alias,
+                                     Password password,
+                                     BiConsumer<String, Boolean> listener) {
+    boolean correct;
+
+    try {
+      correct = keyStore.getKey(alias, password.toCharArray()) != null;
+    } catch (GeneralSecurityException | RuntimeException ex) {
+      // incorrect password or unsupported protection, the entry stays locked
+      correct = false;
+    }
+
+    if (listener != null) {
+      listener.accept(alias, correct);
+    }
+
+    return correct;
+  }
+
+  private static boolean getResult(Future<Boolean> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException ex) {
+      // tryPassword only lets exceptions of the listener through
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)ex.getCause();
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,757 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.crypto.SealedObject;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.Password;
+
+/**
+ * Read-only reader for JKS and JCEKS KeyStores. The file is scanned once to
+ * record the alias, type and creation date of each entry along with the
+ * offsets of its protected key and certificates, while the integrity hash is
+ * checked. Certificates are only decoded when they are asked for and keys only
+ * recovered when they are asked for, so opening a large trust store costs
+ * little more than reading the file.
+ */
+public final class JavaKeyStoreReader {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/keystore/resources");
+
+  private static final int JKS_MAGIC = 0xfeedfeed;
+  private static final int JCEKS_MAGIC = 0xcececece;
+  private static final int VERSION_1 = 1;
+  private static final int VERSION_2 = 2;
+
+  private static final int PRIVATE_KEY_TAG = 1;
+  private static final int TRUSTED_CERT_TAG = 2;
+  private static final int SECRET_KEY_TAG = 3;
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int HASH_LENGTH = 20;
+
+  // What a sealed JCEKS secret key may consist of when skipping over it
+  private static final ObjectInputFilter SEALED_KEY_FILTER =
+      ObjectInputFilter.Config.createFilter(
+          "maxdepth=5;maxrefs=100;javax.crypto.SealedObject;"
+          + "com.sun.crypto.provider.SealedObjectForKeyProtector;!*");
+
+  private final KeyStoreType type;
+  private final int magic;
+  private final int version;
+  private final byte[] encoded;
+  private final int contentLength;
+  private final Map<String, IndexEntry> entries;
+
+  private JavaKeyStoreReader(KeyStoreType type, int magic, int version,
+                             byte[] encoded, int contentLength,
+                             Map<String, IndexEntry> entries) {
+    this.type = type;
+    this.magic = magic;
+    this.version = version;
+    this.encoded = encoded;
+    this.contentLength = contentLength;
+    this.entries = entries;
+  }
+
+  /**
+   * Read a JKS or JCEKS KeyStore from a file.
+   *
+   * @param keyStoreFile KeyStore file
+   * @param password     KeyStore password, the integrity of the KeyStore is
+   *     not checked if it is empty
+   * @return The reader
+   * @throws KeyStoreLoadException If the file is not a JKS or JCEKS KeyStore,
+   *     is corrupt or the password is incorrect
+   * @throws FileNotFoundException If the file does not exist, is a directory
+   *     or cannot be opened for reading
+   * @throws IOException           If an I/O error occurred
+   */
+  public static JavaKeyStoreReader read(File keyStoreFile, Password password)
+      throws KeyStoreLoadException, IOException {
+    try (FileInputStream fis = new FileInputStream(keyStoreFile)) {
+      return read(fis.readAllBytes(), password);
+    }
+  }
+
+  /**
+   * Read a JKS or JCEKS KeyStore.
+   *
+   * @param encoded  KeyStore encoding
+   * @param password KeyStore password, the integrity of the KeyStore is not
+   *     checked if it is empty
+   * @return The reader
+   * @throws KeyStoreLoadException If the encoding is not a JKS or JCEKS
+   *     KeyStore, is corrupt or the password is incorrect
+   */
+  public static JavaKeyStoreReader read(byte[] encoded, Password password)
+      throws KeyStoreLoadException {
+    KeyStoreType type = null;
+
+    try {
+      // the integrity hash is computed while the entries are read
+      MessageDigest digest = password.isEmpty()
+                                 ? null
+                                 : createIntegrityDigest(password.toCharArray());
+
+      InputStream is = new ByteArrayInputStream(encoded);
+      if (digest != null) {
+        is = new DigestInputStream(is, digest);
+      }
+      DataInputStream dis = new DataInputStream(is);
+
+      int magic = dis.readInt();
+
+      if (magic == JKS_MAGIC) {
+        type = KeyStoreType.JKS;
+      } else if (magic == JCEKS_MAGIC) {
+        type = KeyStoreType.JCEKS;
+      } else {
+        throw new KeyStoreLoadException(
+            res.getString("NoReadJavaKeyStoreFormat.exception.message"), null);
+      }
+
+      int version = dis.readInt();
+
+      if (version != VERSION_1 && version != VERSION_2) {
+        throw new KeyStoreLoadException(
+            res.getString("NoReadJavaKeyStoreFormat.exception.message"), type);
+      }
+
+      int count = dis.readInt();
+      Map<String, IndexEntry> entries = new LinkedHashMap<>();
+
+      for (int i = 0; i < count; i++) {
+        IndexEntry entry = readEntry(encoded, dis, digest, type, version);
+        entries.put(entry.alias.toLowerCase(Locale.ENGLISH), entry);
+      }
+
+      int contentLength = encoded.length - dis.available();
+
+      if (dis.available() < HASH_LENGTH) {
+        throw new KeyStoreLoadException(
+            res.getString("NoReadJavaKeyStoreFormat.exception.message"), type);
+      }
+
+      if (digest != null) {
+        checkIntegrity(encoded, contentLength, digest.digest(), type);
+      }
+
+      return new JavaKeyStoreReader(type, magic, version, encoded,
+                                    contentLength, entries);
+    } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+      throw new KeyStoreLoadException(
+          MessageFormat.format(
+              res.getString("NoLoadKeyStoreType.exception.message"), type),
+          ex, type);
+    }
+  }
+
+  private static IndexEntry readEntry(byte[] encoded, DataInputStream dis,
+                                      MessageDigest digest, KeyStoreType type,
+                                      int version)
+      throws IOException, ClassNotFoundException, KeyStoreLoadException {
+    int start = encoded.length - dis.available();
+    int tag = dis.readInt();
+    String alias = dis.readUTF();
+    long creationDate = dis.readLong();
+
+    IndexEntry entry = new IndexEntry(tag, alias, creationDate, start);
+
+    if (tag == PRIVATE_KEY_TAG) {
+      int keyLength = dis.readInt();
+      skipBytes(encoded, dis, digest, keyLength);
+
+      int certificates = dis.readInt();
+      entry.certificateTypes = new String[certificates];
+      entry.certificateOffsets = new int[certificates];
+      entry.certificateLengths = new int[certificates];
+
+      for (int i = 0; i < certificates; i++) {
+        readCertificate(encoded, dis, digest, version, entry, i);
+      }
+    } else if (tag == TRUSTED_CERT_TAG) {
+      entry.certificateTypes = new String[1];
+      entry.certificateOffsets = new int[1];
+      entry.certificateLengths = new int[1];
+
+      readCertificate(encoded, dis, digest, version, entry, 0);
+    } else if (tag == SECRET_KEY_TAG && type == KeyStoreType.JCEKS) {
+      // the sealed key is serialized, reading it is the only way to find its
+      // end
+      ObjectInputStream ois = new ObjectInputStream(dis);
+      ois.setObjectInputFilter(SEALED_KEY_FILTER);
+
+      if (!(ois.readObject() instanceof SealedObject)) {
+        throw new KeyStoreLoadException(
+            res.getString("NoReadJavaKeyStoreFormat.exception.message"), type);
+      }
+    } else {
+      throw new KeyStoreLoadException(
+          res.getString("NoReadJavaKeyStoreFormat.exception.message"), type);
+    }
+
+    entry.end = encoded.length - dis.available();
+
+    return entry;
+  }
+
+  private static void readCertificate(byte[] encoded, DataInputStream dis,
+                                      MessageDigest digest, int version,
+                                      IndexEntry entry, int index)
+      throws IOException {
+    entry.certificateTypes[index] =
+        version == VERSION_2 ? dis.readUTF() : "X.509";
+
+    int length = dis.readInt();
+
+    entry.certificateOffsets[index] = encoded.length - dis.available();
+    entry.certificateLengths[index] = length;
+
+    skipBytes(encoded, dis, digest, length);
+  }
+
+  /*
+   * Skip over bytes that are only read when asked for. Skipping bypasses the
+   * digest of the stream, so the skipped bytes are digested from the encoding
+   */
+  private static void skipBytes(byte[] encoded, DataInputStream dis,
+                                MessageDigest digest, int length)
+      throws IOException {
+    int offset = encoded.length - dis.available();
+
+    if (length < 0 || dis.skipBytes(length) != length) {
+      throw new IOException(
+          res.getString("NoReadJavaKeyStoreFormat.exception.message"));
+    }
+
+    if (digest != null) {
+      digest.update(encoded, offset, length);
+    }
+  }
+
+  private static void checkIntegrity(byte[] encoded, int contentLength,
+                                     byte[] hash, KeyStoreType type)
+      throws KeyStoreLoadException {
+    byte[] expected = Arrays.copyOfRange(encoded, contentLength,
+                                         contentLength + HASH_LENGTH);
+
+    if (!MessageDigest.isEqual(hash, expected)) {
+      throw new KeyStoreLoadException(
+          res.getString("JavaKeyStoreIntegrityCheckFailed.exception.message"),
+          type);
+    }
+  }
+
+  /*
+   * Integrity hash of the JDK's KeyStores: SHA-1 over the password, a fixed
+   * phrase and the content. The digest returned is ready for the content.
+   */
+  private static MessageDigest createIntegrityDigest(char[] password) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+      for (char c : password) {
+        sha1.update((byte)(c >> 8));
+        sha1.update((byte)c);
+      }
+
+      sha1.update("Mighty Aphrodite".getBytes(StandardCharsets.UTF_8));
+
+      return sha1;
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Get the KeyStore type.
+   *
+   * @return JKS or JCEKS
+   */
+  public KeyStoreType getType() { return type; }
+
+  /**
+   * Get the aliases of all entries in the order of the file.
+   *
+   * @return Aliases
+   */
+  public List<String> getAliases() {
+    List<String> aliases = new ArrayList<>(entries.size());
+
+    for (IndexEntry entry : entries.values()) {
+      aliases.add(entry.alias);
+    }
+
+    return aliases;
+  }
+
+  /**
+   * Does the KeyStore contain an entry?
+   *
+   * @param alias Alias
+   * @return True if it does
+   */
+  public boolean containsAlias(String alias) {
+    return getEntry(alias) != null;
+  }
+
+  /**
+   * Is an entry a key entry?
+   *
+   * @param alias Alias
+   * @return True if it is a private or secret key entry
+   */
+  public boolean isKeyEntry(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry != null && entry.tag != TRUSTED_CERT_TAG;
+  }
+
+  /**
+   * Is an entry a trusted certificate entry?
+   *
+   * @param alias Alias
+   * @return True if it is
+   */
+  public boolean isCertificateEntry(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry != null && entry.tag == TRUSTED_CERT_TAG;
+  }
+
+  /**
+   * Get the type of the first certificate of an entry without decoding it.
+   *
+   * @param alias Alias
+   * @return Certificate type, e.g. X.509, or null if the entry has no
+   *     certificate
+   */
+  public String getCertificateType(String alias) {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.certificateTypes == null ||
+        entry.certificateTypes.length == 0) {
+      return null;
+    }
+
+    return entry.certificateTypes[0];
+  }
+
+  /**
+   * Get the encodings of the certificate of a trusted certificate entry or
+   * of the certificate chain of a private key entry as stored, without
+   * decoding them.
+   *
+   * @param alias Alias
+   * @return Encoded certificates, empty if the entry has none, or null if
+   *     there is no such entry
+   */
+  public byte[][] getEncodedCertificates(String alias) {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.certificateTypes == null) {
+      return new byte[0][];
+    }
+
+    byte[][] encodings = new byte[entry.certificateOffsets.length][];
+
+    for (int i = 0; i < encodings.length; i++) {
+      encodings[i] = Arrays.copyOfRange(
+          encoded, entry.certificateOffsets[i],
+          entry.certificateOffsets[i] + entry.certificateLengths[i]);
+    }
+
+    return encodings;
+  }
+
+  /**
+   * Get the creation date of an entry.
+   *
+   * @param alias Alias
+   * @return Creation date or null if there is no such entry
+   */
+  public Date getCreationDate(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry == null ? null : new Date(entry.creationDate);
+  }
+
+  /**
+   * Get the certificate of a trusted certificate entry or the first
+   * certificate of the chain of a private key entry. The certificate is
+   * decoded on first use.
+   *
+   * @param alias Alias
+   * @return Certificate or null if the entry has none
+   * @throws CryptoException If the certificate could not be decoded
+   */
+  public Certificate getCertificate(String alias) throws CryptoException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.certificateTypes == null ||
+        entry.certificateTypes.length == 0) {
+      return null;
+    }
+
+    return decodeCertificates(entry)[0];
+  }
+
+  /**
+   * Get the certificate chain of a private key entry. The certificates are
+   * decoded on first use.
+   *
+   * @param alias Alias
+   * @return Certificate chain or null if the entry is not a private key
+   *     entry
+   * @throws CryptoException If a certificate could not be decoded
+   */
+  public Certificate[] getCertificateChain(String alias)
+      throws CryptoException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.tag != PRIVATE_KEY_TAG) {
+      return null;
+    }
+
+    return decodeCertificates(entry).clone();
+  }
+
+  /**
+   * Recover the key of a key entry.
+   *
+   * @param alias    Alias
+   * @param password Password of the entry
+   * @return Key or null if the entry is not a key entry
+   * @throws UnrecoverableKeyException If the password is incorrect
+   * @throws NoSuchAlgorithmException  If the protection algorithm is not
+   *     supported
+   */
+  public Key getKey(String alias, char[] password)
+      throws UnrecoverableKeyException, NoSuchAlgorithmException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.tag == TRUSTED_CERT_TAG) {
+      return null;
+    }
+
+    try {
+      // the JDK's KeyStore recovers the key from a copy of just this entry,
+      // loaded without checking its integrity
+      KeyStore keyStore = KeyStore.getInstance(type.jce());
+      keyStore.load(new ByteArrayInputStream(encodeEntries(entry)), null);
+      return keyStore.getKey(entry.alias, password);
+    } catch (KeyStoreException | IOException | CertificateException ex) {
+      UnrecoverableKeyException uke = new UnrecoverableKeyException(
+          res.getString("NoRecoverJavaKeyStoreKey.exception.message"));
+      uke.initCause(ex);
+      throw uke;
+    }
+  }
+
+  /**
+   * Get a read-only KeyStore backed by this reader. Storing it writes the
+   * entries as they are, only the integrity hash is computed with the new
+   * password.
+   *
+   * @return KeyStore of type JKS or JCEKS
+   */
+  public KeyStore toKeyStore() {
+    KeyStore keyStore = new ReadOnlyKeyStore(new Spi(this), type);
+
+    try {
+      keyStore.load(null, null);
+    } catch (GeneralSecurityException | IOException ex) {
+      // loading without a stream only marks the KeyStore as initialized
+      throw new IllegalStateException(ex);
+    }
+
+    return keyStore;
+  }
+
+  private IndexEntry getEntry(String alias) {
+    return entries.get(alias.toLowerCase(Locale.ENGLISH));
+  }
+
+  private Certificate[] decodeCertificates(IndexEntry entry)
+      throws CryptoException {
+    Certificate[] certificates = entry.certificates;
+
+    if (certificates != null) {
+      return certificates;
+    }
+
+    certificates = new Certificate[entry.certificateTypes.length];
+
+    try {
+      for (int i = 0; i < certificates.length; i++) {
+        CertificateFactory cf =
+            CertificateFactory.getInstance(entry.certificateTypes[i]);
+        certificates[i] = cf.generateCertificate(
+            new ByteArrayInputStream(encoded, entry.certificateOffsets[i],
+                                     entry.certificateLengths[i]));
+      }
+    } catch (CertificateException ex) {
+      throw new CryptoException(
+          MessageFormat.format(
+              res.getString("NoDecodeJavaKeyStoreCertificate.exception.message"),
+              entry.alias),
+          ex);
+    }
+
+    entry.certificates = certificates;
+    return certificates;
+  }
+
+  /*
+   * Encode a KeyStore of the same type and version with some of the entries,
+   * without integrity hash
+   */
+  private byte[] encodeEntries(IndexEntry... selected) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+
+    dos.writeInt(magic);
+    dos.writeInt(version);
+    dos.writeInt(selected.length);
+
+    for (IndexEntry entry : selected) {
+      dos.write(encoded, entry.start, entry.end - entry.start);
+    }
+
+    dos.write(new byte[HASH_LENGTH]);
+    dos.flush();
+
+    return baos.toByteArray();
+  }
+
+  private void store(OutputStream os, char[] password) throws IOException {
+    if (password == null) {
+      throw new IllegalArgumentException(
+          res.getString("NoStoreJavaKeyStoreNoPassword.exception.message"));
+    }
+
+    // the entries are stored as read, with a new integrity hash
+    MessageDigest digest = createIntegrityDigest(password);
+    digest.update(encoded, 0, contentLength);
+
+    os.write(encoded, 0, contentLength);
+    os.write(digest.digest());
+    os.flush();
+  }
+
+  private static final class IndexEntry {
+    private final int tag;
+    private final String alias;
+    private final long creationDate;
+    private final int start;
+    private int end;
+    private String[] certificateTypes;
+    private int[] certificateOffsets;
+    private int[] certificateLengths;
+    private volatile Certificate[] certificates;
+
+    IndexEntry(int tag, String alias, long creationDate, int start) {
+      this.tag = tag;
+      this.alias = alias;
+      this.creationDate = creationDate;
+      this.start = start;
+    }
+  }
+
+  private static final class ReadOnlyKeyStore
+      extends KeyStore implements KeyStoreIndex {
+    private final JavaKeyStoreReader reader;
+
+    ReadOnlyKeyStore(Spi spi, KeyStoreType type) {
+      super(spi,
+            Security.getProvider(type == KeyStoreType.JKS ? "SUN" : "SunJCE"),
+            type.jce());
+      this.reader = spi.reader;
+    }
+
+    @Override
+    public String getCertificateType(String alias) {
+      return reader.getCertificateType(alias);
+    }
+
+    @Override
+    public byte[][] getEncodedCertificates(String alias) {
+      return reader.getEncodedCertificates(alias);
+    }
+  }
+
+  private static final class Spi extends KeyStoreSpi {
+    private final JavaKeyStoreReader reader;
+
+    Spi(JavaKeyStoreReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password)
+        throws NoSuchAlgorithmException, UnrecoverableKeyException {
+      return reader.getKey(alias, password);
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+      try {
+        return reader.getCertificateChain(alias);
+      } catch (CryptoException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+      try {
+        return reader.getCertificate(alias);
+      } catch (CryptoException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+      return reader.getCreationDate(alias);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) throws KeyStoreException {
+      throw readOnly();
+    }
+
+    private static KeyStoreException readOnly() {
+      return new KeyStoreException(
+          res.getString("NoModifyJavaKeyStoreReader.exception.message"));
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+      return Collections.enumeration(reader.getAliases());
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+      return reader.containsAlias(alias);
+    }
+
+    @Override
+    public int engineSize() {
+      return reader.entries.size();
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+      return reader.isKeyEntry(alias);
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+      return reader.isCertificateEntry(alias);
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+      for (String alias : reader.getAliases()) {
+        if (cert.equals(engineGetCertificate(alias))) {
+          return alias;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password)
+        throws IOException {
+      reader.store(stream, password);
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password)
+        throws IOException {
+      if (stream != null) {
+        throw new IOException(
+            res.getString("NoModifyJavaKeyStoreReader.exception.message"));
+      }
+    }
+  }
+}
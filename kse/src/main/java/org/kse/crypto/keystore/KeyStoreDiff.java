@@ -0,0 +1,319 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.kse.crypto.CryptoException;
+
+/**
+ * Differences between two KeyStores. Entries are matched by alias, ignoring
+ * case if either KeyStore type does, and compared by their {@link
+ * EntryFingerprint}. An entry only found in one KeyStore that has the
+ * fingerprint of an entry only found in the other one was renamed.
+ */
+public final class KeyStoreDiff {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/keystore/resources");
+
+  // Fewer entries per task cost more in scheduling than they gain
+  private static final int MIN_CHUNK_SIZE = 256;
+
+  private final List<String> added;
+  private final List<String> removed;
+  private final List<String> changed;
+  private final Map<String, String> renamed;
+  private final int unchanged;
+  private final Map<String, byte[]> fromFingerprints;
+  private final Map<String, byte[]> toFingerprints;
+
+  private KeyStoreDiff(List<String> added, List<String> removed,
+                       List<String> changed, Map<String, String> renamed,
+                       int unchanged, Map<String, byte[]> fromFingerprints,
+                       Map<String, byte[]> toFingerprints) {
+    this.added = Collections.unmodifiableList(added);
+    this.removed = Collections.unmodifiableList(removed);
+    this.changed = Collections.unmodifiableList(changed);
+    this.renamed = Collections.unmodifiableMap(renamed);
+    this.unchanged = unchanged;
+    this.fromFingerprints = Collections.unmodifiableMap(fromFingerprints);
+    this.toFingerprints = Collections.unmodifiableMap(toFingerprints);
+  }
+
+  /**
+   * Compare two KeyStores. The fingerprints of the entries are computed
+   * concurrently on a bounded number of threads, then the sorted aliases of
+   * both KeyStores are merged in one pass.
+   *
+   * @param from        KeyStore compared from
+   * @param to          KeyStore compared to
+   * @param parallelism Maximum number of threads computing fingerprints
+   * @return Differences
+   * @throws CryptoException If an entry could not be read
+   */
+  public static KeyStoreDiff compare(KeyStore from, KeyStore to,
+                                     int parallelism) throws CryptoException {
+    // an alias read back from a KeyStore that lower cases them still names
+    // the entry of the other KeyStore
+    Comparator<String> order =
+        hasCaseInsensitiveAliases(from) || hasCaseInsensitiveAliases(to)
+            ? String.CASE_INSENSITIVE_ORDER
+            : Comparator.naturalOrder();
+    String[] fromAliases = sortedAliases(from, order);
+    String[] toAliases = sortedAliases(to, order);
+    byte[][] fromPrints = new byte[fromAliases.length][];
+    byte[][] toPrints = new byte[toAliases.length][];
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.max(1, parallelism));
+
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      int chunks = Math.max(1, parallelism) * 4;
+
+      submitFingerprints(executor, from, fromAliases, fromPrints, chunks,
+                         futures);
+      submitFingerprints(executor, to, toAliases, toPrints, chunks, futures);
+
+      for (Future<Void> future : futures) {
+        await(future);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    List<Integer> removedIndexes = new ArrayList<>();
+    List<Integer> addedIndexes = new ArrayList<>();
+    List<String> changed = new ArrayList<>();
+    int unchanged = 0;
+
+    // merge join of the sorted aliases
+    int i = 0;
+    int j = 0;
+
+    while (i < fromAliases.length || j < toAliases.length) {
+      int cmp;
+
+      if (i == fromAliases.length) {
+        cmp = 1;
+      } else if (j == toAliases.length) {
+        cmp = -1;
+      } else {
+        cmp = order.compare(fromAliases[i], toAliases[j]);
+      }
+
+      if (cmp < 0) {
+        removedIndexes.add(i++);
+      } else if (cmp > 0) {
+        addedIndexes.add(j++);
+      } else {
+        if (Arrays.equals(fromPrints[i], toPrints[j])) {
+          unchanged++;
+        } else {
+          changed.add(toAliases[j]);
+        }
+        i++;
+        j++;
+      }
+    }
+
+    // entries only found in one KeyStore are paired up by fingerprint
+    Map<ByteBuffer, Deque<Integer>> removedByPrint = new HashMap<>();
+
+    for (int index : removedIndexes) {
+      removedByPrint
+          .computeIfAbsent(ByteBuffer.wrap(fromPrints[index]),
+                           k -> new ArrayDeque<>())
+          .add(index);
+    }
+
+    List<String> added = new ArrayList<>();
+    Map<String, String> renamed = new LinkedHashMap<>();
+
+    for (int index : addedIndexes) {
+      Deque<Integer> sameIndexes =
+          removedByPrint.get(ByteBuffer.wrap(toPrints[index]));
+
+      if (sameIndexes == null || sameIndexes.isEmpty()) {
+        added.add(toAliases[index]);
+      } else {
+        renamed.put(fromAliases[sameIndexes.poll()], toAliases[index]);
+      }
+    }
+
+    List<String> removed = new ArrayList<>();
+
+    for (int index : removedIndexes) {
+      if (!renamed.containsKey(fromAliases[index])) {
+        removed.add(fromAliases[index]);
+      }
+    }
+
+    return new KeyStoreDiff(added, removed, changed, renamed, unchanged,
+                            toMap(fromAliases, fromPrints),
+                            toMap(toAliases, toPrints));
+  }
+
+  private static boolean hasCaseInsensitiveAliases(KeyStore keyStore) {
+    return KeyStoreType.resolveJce(keyStore.getType())
+        .hasCaseInsensitiveAliases();
+  }
+
+  private static String[] sortedAliases(KeyStore keyStore,
+                                        Comparator<String> order)
+      throws CryptoException {
+    try {
+      String[] aliases =
+          Collections.list(keyStore.aliases()).toArray(new String[0]);
+      Arrays.sort(aliases, order);
+      return aliases;
+    } catch (KeyStoreException ex) {
+      throw new CryptoException(
+          res.getString("NoCompareKeyStores.exception.message"), ex);
+    }
+  }
+
+  private static void submitFingerprints(ExecutorService executor,
+                                         KeyStore keyStore, String[] aliases,
+                                         byte[][] fingerprints, int chunks,
+                                         List<Future<Void>> futures) {
+    int chunkSize =
+        Math.max(MIN_CHUNK_SIZE, (aliases.length + chunks - 1) / chunks);
+
+    for (int start = 0; start < aliases.length; start += chunkSize) {
+      int first = start;
+      int last = Math.min(aliases.length, start + chunkSize);
+
+      futures.add(executor.submit(() -> {
+        for (int i = first; i < last; i++) {
+          fingerprints[i] = EntryFingerprint.get(keyStore, aliases[i]);
+        }
+        return null;
+      }));
+    }
+  }
+
+  private static void await(Future<Void> future) throws CryptoException {
+    try {
+      future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new CryptoException(
+          res.getString("NoCompareKeyStores.exception.message"), ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof CryptoException) {
+        throw (CryptoException)ex.getCause();
+      }
+      throw new CryptoException(
+          res.getString("NoCompareKeyStores.exception.message"),
+          ex.getCause());
+    }
+  }
+
+  private static Map<String, byte[]> toMap(String[] aliases,
+                                           byte[][] fingerprints) {
+    Map<String, byte[]> map = new HashMap<>(aliases.length * 4 / 3 + 1);
+
+    for (int i = 0; i < aliases.length; i++) {
+      map.put(aliases[i], fingerprints[i]);
+    }
+
+    return map;
+  }
+
+  /**
+   * Get the aliases of the entries only found in the KeyStore compared to.
+   *
+   * @return Aliases in order
+   */
+  public List<String> getAdded() { return added; }
+
+  /**
+   * Get the aliases of the entries only found in the KeyStore compared from.
+   *
+   * @return Aliases in order
+   */
+  public List<String> getRemoved() { return removed; }
+
+  /**
+   * Get the aliases of the entries found in both KeyStores with another
+   * fingerprint.
+   *
+   * @return Aliases in order
+   */
+  public List<String> getChanged() { return changed; }
+
+  /**
+   * Get the renamed entries.
+   *
+   * @return Aliases in the KeyStore compared to by alias in the KeyStore
+   *     compared from, in order
+   */
+  public Map<String, String> getRenamed() { return renamed; }
+
+  /**
+   * Get the number of entries found in both KeyStores with the same
+   * fingerprint.
+   *
+   * @return Number of entries
+   */
+  public int getUnchanged() { return unchanged; }
+
+  /**
+   * Get the fingerprints of the entries of the KeyStore compared from.
+   *
+   * @return Fingerprints by alias
+   */
+  public Map<String, byte[]> getFromFingerprints() { return fromFingerprints; }
+
+  /**
+   * Get the fingerprints of the entries of the KeyStore compared to.
+   *
+   * @return Fingerprints by alias
+   */
+  public Map<String, byte[]> getToFingerprints() { return toFingerprints; }
+
+  /**
+   * Are the KeyStores the same?
+   *
+   * @return True if all entries are unchanged
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty() &&
+        renamed.isEmpty();
+  }
+}
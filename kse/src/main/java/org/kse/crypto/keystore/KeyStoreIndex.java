@@ -0,0 +1,49 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+/**
+ * KeyStore that can tell about its entries without decoding them, e.g.
+ * because it only indexed the KeyStore file when loading it.
+ */
+public interface KeyStoreIndex {
+  /**
+   * Get the type of the certificate of a trusted certificate entry or of the
+   * first certificate of the chain of a key entry, without decoding the
+   * certificate.
+   *
+   * @param alias Alias
+   * @return Certificate type, e.g. X.509, or null if the entry has no
+   *     certificate
+   */
+  String getCertificateType(String alias);
+
+  /**
+   * Get the DER encodings of the certificate of a trusted certificate entry
+   * or of the certificate chain of a key entry, without decoding the
+   * certificates.
+   *
+   * @param alias Alias
+   * @return Encoded certificates, empty if the entry has none, or null if
+   *     they are not known without decoding certificates
+   */
+  byte[][] getEncodedCertificates(String alias);
+}
@@ -112,6 +112,16 @@ public enum KeyStoreType {
         this == PKCS12;
   }
 
+  /**
+   * Does this KeyStore type store aliases in lower case, so that aliases only
+   * differing in case name the same entry?
+   *
+   * @return True, if aliases are case-insensitive
+   */
+  public boolean hasCaseInsensitiveAliases() {
+    return this == JKS || this == JCEKS || this == PKCS12;
+  }
+
   /**
    * Does this KeyStore type support ECC key pair entries?
    *
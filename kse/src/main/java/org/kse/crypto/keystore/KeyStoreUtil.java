@@ -33,7 +33,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -51,6 +50,7 @@ import org.kse.KSE;
 import org.kse.crypto.CryptoException;
 import org.kse.crypto.Password;
 import org.kse.crypto.filetype.CryptoFileUtil;
+import org.kse.utilities.io.AtomicFileOutputStream;
 
 /**
  * Provides utility methods for loading/saving KeyStores. The BouncyCastle
@@ -186,6 +186,72 @@ public final class KeyStoreUtil {
     return keyStore;
   }
 
+  /**
+   * Load a KeyStore, auto-detecting the type, from a file accessed by a
+   * password for viewing. JKS, JCEKS and PKCS #12 KeyStores are only indexed,
+   * their certificates are decoded and their keys recovered on first use, and
+   * the returned KeyStore cannot be modified. KeyStores of other types are
+   * loaded as usual.
+   *
+   * @param keyStoreFile File to load KeyStore from
+   * @param password     Password of the KeyStore
+   * @return The KeyStore or null if file did not contain a KeyStore of a
+   *         recognised type
+   * @throws KeyStoreLoadException Problem encountered loading the KeyStore as
+   *     the auto-detected type
+   * @throws CryptoException       Problem encountered loading the KeyStore
+   * @throws FileNotFoundException If the KeyStore file does not exist, is a
+   *     directory rather than a regular file, or for some other reason cannot
+   *     be opened for reading
+   */
+  public static KeyStore loadReadOnly(File keyStoreFile, Password password)
+      throws CryptoException, FileNotFoundException {
+    KeyStoreType keyStoreType = null;
+
+    try {
+      keyStoreType = CryptoFileUtil.detectKeyStoreType(keyStoreFile);
+    } catch (FileNotFoundException ex) {
+      throw ex;
+    } catch (IOException ex) {
+      throw new CryptoException(
+          res.getString("NoLoadKeyStore.exception.message"), ex);
+    }
+
+    if (keyStoreType == null) {
+      return null;
+    }
+
+    if (keyStoreType != KeyStoreType.JKS &&
+        keyStoreType != KeyStoreType.JCEKS &&
+        keyStoreType != KeyStoreType.PKCS12) {
+      return load(keyStoreFile, password, keyStoreType);
+    }
+
+    try {
+      if (keyStoreType == KeyStoreType.PKCS12) {
+        return Pkcs12Inspector.read(keyStoreFile, password).toKeyStore();
+      }
+
+      JavaKeyStoreReader reader =
+          JavaKeyStoreReader.read(keyStoreFile, password);
+
+      if (password.isEmpty()) {
+        // allow JKS and JCEKS files to be opened without providing a password
+        password.nullPassword();
+      }
+
+      return reader.toKeyStore();
+    } catch (FileNotFoundException ex) {
+      throw ex;
+    } catch (IOException ex) {
+      throw new KeyStoreLoadException(
+          MessageFormat.format(
+              res.getString("NoLoadKeyStoreType.exception.message"),
+              keyStoreType),
+          ex, keyStoreType);
+    }
+  }
+
   /**
    * Is Apple Keychain supported?
    *
@@ -308,8 +374,11 @@ public final class KeyStoreUtil {
           keyStoreType.jce()));
     }
 
-    try (FileOutputStream fos = new FileOutputStream(keyStoreFile)) {
-      keyStore.store(fos, password.toCharArray());
+    // the file is only replaced once the KeyStore is completely on disk
+    try (AtomicFileOutputStream afos =
+             new AtomicFileOutputStream(keyStoreFile)) {
+      keyStore.store(afos, password.toCharArray());
+      afos.commit();
     } catch (KeyStoreException | CertificateException |
              NoSuchAlgorithmException | IOException ex) {
       throw new CryptoException(
@@ -470,6 +539,11 @@ public final class KeyStoreUtil {
    */
   public static boolean isSupportedEntryType(String alias, KeyStore keyStore)
       throws KeyStoreException {
+    if (keyStore instanceof KeyStoreIndex) {
+      String type = ((KeyStoreIndex)keyStore).getCertificateType(alias);
+      return (type == null) || type.equals("X.509");
+    }
+
     Certificate certificate = keyStore.getCertificate(alias);
     return (certificate == null) || (certificate instanceof X509Certificate);
   }
@@ -0,0 +1,847 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import javax.security.auth.x500.X500Principal;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.AuthenticatedSafe;
+import org.bouncycastle.asn1.pkcs.CertBag;
+import org.bouncycastle.asn1.pkcs.ContentInfo;
+import org.bouncycastle.asn1.pkcs.EncryptedData;
+import org.bouncycastle.asn1.pkcs.MacData;
+import org.bouncycastle.asn1.pkcs.PKCS12PBEParams;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.Pfx;
+import org.bouncycastle.asn1.pkcs.SafeBag;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.Password;
+
+/**
+ * Read-only inspector for PKCS #12 KeyStores. Each content of the KeyStore is
+ * decrypted once and its bags are indexed by friendly name and local key id.
+ * The certificates are kept as DER encodings and only decoded when they are
+ * asked for, keys are only recovered when they are asked for, so listing the
+ * entries of a large KeyStore does not decode any certificate. Entries are
+ * found the way the JDK's PKCS #12 KeyStore finds them.
+ */
+public final class Pkcs12Inspector {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/keystore/resources");
+
+  private static final String X509_CERT_TYPE = "X.509";
+
+  // MACs by digest algorithm of the MAC data
+  private static final Map<ASN1ObjectIdentifier, String> MAC_ALGORITHMS =
+      new HashMap<>();
+
+  static {
+    MAC_ALGORITHMS.put(OIWObjectIdentifiers.idSHA1, "HmacPBESHA1");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha224, "HmacPBESHA224");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha256, "HmacPBESHA256");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha384, "HmacPBESHA384");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha512, "HmacPBESHA512");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha512_224,
+                       "HmacPBESHA512/224");
+    MAC_ALGORITHMS.put(NISTObjectIdentifiers.id_sha512_256,
+                       "HmacPBESHA512/256");
+  }
+
+  private final Map<String, IndexEntry> entries = new LinkedHashMap<>();
+  private final List<CertBagEntry> certBags = new ArrayList<>();
+  private Map<X500Principal, CertBagEntry> certBagsBySubject;
+  private int unfriendlyNames;
+
+  private Pkcs12Inspector() {}
+
+  /**
+   * Inspect a PKCS #12 KeyStore file.
+   *
+   * @param keyStoreFile KeyStore file
+   * @param password     KeyStore password
+   * @return The inspector
+   * @throws KeyStoreLoadException If the file is not a PKCS #12 KeyStore, is
+   *     corrupt or the password is incorrect
+   * @throws FileNotFoundException If the file does not exist, is a directory
+   *     or cannot be opened for reading
+   * @throws IOException           If an I/O error occurred
+   */
+  public static Pkcs12Inspector read(File keyStoreFile, Password password)
+      throws KeyStoreLoadException, IOException {
+    try (FileInputStream fis = new FileInputStream(keyStoreFile)) {
+      return read(fis.readAllBytes(), password);
+    }
+  }
+
+  /**
+   * Inspect a PKCS #12 KeyStore.
+   *
+   * @param encoded  KeyStore encoding
+   * @param password KeyStore password
+   * @return The inspector
+   * @throws KeyStoreLoadException If the encoding is not a PKCS #12 KeyStore,
+   *     is corrupt or the password is incorrect
+   */
+  public static Pkcs12Inspector read(byte[] encoded, Password password)
+      throws KeyStoreLoadException {
+    Pkcs12Inspector inspector = new Pkcs12Inspector();
+
+    try {
+      Pfx pfx = Pfx.getInstance(ASN1Primitive.fromByteArray(encoded));
+
+      if (!PKCSObjectIdentifiers.data.equals(
+              pfx.getAuthSafe().getContentType())) {
+        throw new KeyStoreLoadException(
+            res.getString("NoReadPkcs12Bags.exception.message"),
+            KeyStoreType.PKCS12);
+      }
+
+      byte[] authSafe =
+          ASN1OctetString.getInstance(pfx.getAuthSafe().getContent())
+              .getOctets();
+
+      // like the JDK, an empty password may also have been a single zero
+      // character when the KeyStore was written
+      char[] passwordChars = password.toCharArray();
+
+      if (pfx.getMacData() != null &&
+          !checkMac(pfx.getMacData(), authSafe, passwordChars)) {
+        if (passwordChars.length > 0 ||
+            !checkMac(pfx.getMacData(), authSafe, new char[1])) {
+          throw new KeyStoreLoadException(
+              res.getString("Pkcs12IntegrityCheckFailed.exception.message"),
+              KeyStoreType.PKCS12);
+        }
+
+        passwordChars = new char[1];
+      }
+
+      for (ContentInfo contentInfo :
+           AuthenticatedSafe.getInstance(authSafe).getContentInfo()) {
+        inspector.readContent(contentInfo, passwordChars);
+      }
+
+      inspector.linkCertificates();
+    } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+      throw new KeyStoreLoadException(
+          MessageFormat.format(
+              res.getString("NoLoadKeyStoreType.exception.message"),
+              KeyStoreType.PKCS12),
+          ex, KeyStoreType.PKCS12);
+    }
+
+    return inspector;
+  }
+
+  private static boolean checkMac(MacData macData, byte[] authSafe,
+                                  char[] password)
+      throws GeneralSecurityException {
+    DigestInfo digestInfo = macData.getMac();
+    String algorithm =
+        MAC_ALGORITHMS.get(digestInfo.getAlgorithmId().getAlgorithm());
+
+    if (algorithm == null) {
+      throw new NoSuchAlgorithmException(
+          digestInfo.getAlgorithmId().getAlgorithm().getId());
+    }
+
+    SecretKey key = SecretKeyFactory.getInstance("PBE").generateSecret(
+        new PBEKeySpec(password));
+
+    Mac mac = Mac.getInstance(algorithm);
+    mac.init(key, new PBEParameterSpec(macData.getSalt(),
+                                       macData.getIterationCount().intValue()));
+
+    return MessageDigest.isEqual(mac.doFinal(authSafe),
+                                 digestInfo.getDigest());
+  }
+
+  private void readContent(ContentInfo contentInfo, char[] password)
+      throws IOException, GeneralSecurityException, KeyStoreLoadException {
+    byte[] safeContents;
+
+    if (PKCSObjectIdentifiers.data.equals(contentInfo.getContentType())) {
+      safeContents =
+          ASN1OctetString.getInstance(contentInfo.getContent()).getOctets();
+    } else if (PKCSObjectIdentifiers.encryptedData.equals(
+                   contentInfo.getContentType())) {
+      safeContents = decrypt(EncryptedData.getInstance(contentInfo.getContent()),
+                             password);
+    } else {
+      throw new KeyStoreLoadException(
+          res.getString("NoReadPkcs12Bags.exception.message"),
+          KeyStoreType.PKCS12);
+    }
+
+    for (ASN1Encodable safeContent : ASN1Sequence.getInstance(safeContents)) {
+      indexBag(SafeBag.getInstance(safeContent));
+    }
+  }
+
+  private static byte[] decrypt(EncryptedData encryptedData, char[] password)
+      throws IOException, GeneralSecurityException {
+    AlgorithmIdentifier algorithm = encryptedData.getEncryptionAlgorithm();
+    ASN1ObjectIdentifier oid = algorithm.getAlgorithm();
+
+    Cipher cipher;
+    SecretKey key;
+
+    if (PKCSObjectIdentifiers.id_PBES2.equals(oid)) {
+      AlgorithmParameters parameters = AlgorithmParameters.getInstance("PBES2");
+      parameters.init(
+          algorithm.getParameters().toASN1Primitive().getEncoded());
+
+      // names the combination of key derivation and cipher
+      String name = parameters.toString();
+
+      key = SecretKeyFactory.getInstance(name).generateSecret(
+          new PBEKeySpec(password));
+      cipher = Cipher.getInstance(name);
+      cipher.init(Cipher.DECRYPT_MODE, key, parameters);
+    } else {
+      PKCS12PBEParams parameters =
+          PKCS12PBEParams.getInstance(algorithm.getParameters());
+
+      key = SecretKeyFactory.getInstance(oid.getId()).generateSecret(
+          new PBEKeySpec(password));
+      cipher = Cipher.getInstance(oid.getId());
+      cipher.init(Cipher.DECRYPT_MODE, key,
+                  new PBEParameterSpec(parameters.getIV(),
+                                       parameters.getIterations().intValue()));
+    }
+
+    return cipher.doFinal(encryptedData.getContent().getOctets());
+  }
+
+  private void indexBag(SafeBag bag) {
+    ASN1ObjectIdentifier bagId = bag.getBagId();
+
+    ASN1Encodable friendlyName = Pkcs12Writer.getAttribute(
+        bag.getBagAttributes(), PKCSObjectIdentifiers.pkcs_9_at_friendlyName);
+    ASN1Encodable localKeyId = Pkcs12Writer.getAttribute(
+        bag.getBagAttributes(), PKCSObjectIdentifiers.pkcs_9_at_localKeyId);
+
+    String alias = friendlyName == null
+                       ? null
+                       : DERBMPString.getInstance(friendlyName).getString();
+    ASN1OctetString keyId =
+        localKeyId == null ? null : ASN1OctetString.getInstance(localKeyId);
+
+    if (PKCSObjectIdentifiers.pkcs8ShroudedKeyBag.equals(bagId) ||
+        PKCSObjectIdentifiers.keyBag.equals(bagId) ||
+        PKCSObjectIdentifiers.secretBag.equals(bagId)) {
+      if (alias == null) {
+        alias = String.valueOf(++unfriendlyNames);
+      }
+
+      IndexEntry entry =
+          new IndexEntry(alias, bag, keyId, getCreationDate(keyId));
+      entries.put(alias.toLowerCase(Locale.ENGLISH), entry);
+    } else if (PKCSObjectIdentifiers.certBag.equals(bagId)) {
+      CertBag certBag = CertBag.getInstance(bag.getBagValue());
+
+      // only X.509 certificates are supported by the JDK
+      if (!PKCSObjectIdentifiers.x509Certificate.equals(certBag.getCertId())) {
+        return;
+      }
+
+      boolean trusted =
+          Pkcs12Writer.getAttribute(bag.getBagAttributes(),
+                                    Pkcs12Writer.TRUSTED_KEY_USAGE) != null;
+
+      certBags.add(new CertBagEntry(
+          ASN1OctetString.getInstance(certBag.getCertValue()).getOctets(), alias,
+          keyId, trusted));
+    }
+  }
+
+  /*
+   * The JDK writes the creation date into the local key id
+   */
+  private static Date getCreationDate(ASN1OctetString localKeyId) {
+    if (localKeyId != null) {
+      String keyId =
+          new String(localKeyId.getOctets(), StandardCharsets.UTF_8);
+
+      if (keyId.startsWith("Time ")) {
+        try {
+          return new Date(Long.parseLong(keyId.substring(5)));
+        } catch (NumberFormatException ex) {
+          // not a date after all
+        }
+      }
+    }
+
+    return new Date();
+  }
+
+  private void linkCertificates() {
+    Map<ASN1OctetString, IndexEntry> keyEntries = new HashMap<>();
+    IndexEntry withoutKeyId = null;
+
+    for (IndexEntry entry : entries.values()) {
+      if (entry.localKeyId != null) {
+        keyEntries.put(entry.localKeyId, entry);
+      } else {
+        withoutKeyId = entry;
+      }
+    }
+
+    // a key and certificate without local key id belong together if the key
+    // is the only one
+    if (entries.size() != 1) {
+      withoutKeyId = null;
+    }
+
+    for (CertBagEntry certBag : certBags) {
+      if (certBag.trusted) {
+        String alias = certBag.friendlyName == null
+                           ? String.valueOf(++unfriendlyNames)
+                           : certBag.friendlyName;
+        IndexEntry entry =
+            new IndexEntry(alias, null, certBag.localKeyId,
+                           getCreationDate(certBag.localKeyId));
+        entry.certificate = certBag;
+        entries.putIfAbsent(alias.toLowerCase(Locale.ENGLISH), entry);
+        continue;
+      }
+
+      IndexEntry keyEntry = certBag.localKeyId == null
+                                ? withoutKeyId
+                                : keyEntries.get(certBag.localKeyId);
+
+      if (keyEntry != null && keyEntry.certificate == null) {
+        keyEntry.certificate = certBag;
+      }
+    }
+  }
+
+  /**
+   * Get the aliases of all entries in the order of the KeyStore, key entries
+   * first.
+   *
+   * @return Aliases, lower case like in the JDK's PKCS #12 KeyStore
+   */
+  public List<String> getAliases() {
+    return new ArrayList<>(entries.keySet());
+  }
+
+  /**
+   * Does the KeyStore contain an entry?
+   *
+   * @param alias Alias
+   * @return True if it does
+   */
+  public boolean containsAlias(String alias) {
+    return getEntry(alias) != null;
+  }
+
+  /**
+   * Is an entry a key entry?
+   *
+   * @param alias Alias
+   * @return True if it is a private or secret key entry
+   */
+  public boolean isKeyEntry(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry != null && entry.keyBag != null;
+  }
+
+  /**
+   * Is an entry a trusted certificate entry?
+   *
+   * @param alias Alias
+   * @return True if it is
+   */
+  public boolean isCertificateEntry(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry != null && entry.keyBag == null;
+  }
+
+  /**
+   * Get the type of the certificate of an entry without decoding it.
+   *
+   * @param alias Alias
+   * @return X.509, or null if the entry has no certificate
+   */
+  public String getCertificateType(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry == null || entry.certificate == null ? null : X509_CERT_TYPE;
+  }
+
+  /**
+   * Get the encoding of the certificate of a trusted certificate entry
+   * without decoding it. The chain of a private key entry is only known once
+   * it is built from the decoded certificates.
+   *
+   * @param alias Alias
+   * @return Encoded certificate, empty if the entry has none, or null if
+   *     there is no such entry or it is a private key entry with a
+   *     certificate
+   */
+  public byte[][] getEncodedCertificates(String alias) {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || (entry.keyBag != null && entry.certificate != null)) {
+      return null;
+    }
+
+    if (entry.certificate == null) {
+      return new byte[0][];
+    }
+
+    return new byte[][] {entry.certificate.der.clone()};
+  }
+
+  /**
+   * Get the creation date of an entry.
+   *
+   * @param alias Alias
+   * @return Creation date or null if there is no such entry
+   */
+  public Date getCreationDate(String alias) {
+    IndexEntry entry = getEntry(alias);
+    return entry == null ? null : new Date(entry.creationDate.getTime());
+  }
+
+  /**
+   * Get the certificate of a trusted certificate entry or the first
+   * certificate of the chain of a key entry. The certificate is decoded on
+   * first use.
+   *
+   * @param alias Alias
+   * @return Certificate or null if the entry has none
+   * @throws CryptoException If the certificate could not be decoded
+   */
+  public Certificate getCertificate(String alias) throws CryptoException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.certificate == null) {
+      return null;
+    }
+
+    return decode(entry.certificate, entry.alias);
+  }
+
+  /**
+   * Get the certificate chain of a private key entry. The chain is built from
+   * the certificates of the KeyStore by issuer like in the JDK, only the
+   * certificates of the chain are decoded.
+   *
+   * @param alias Alias
+   * @return Certificate chain or null if the entry is not a private key entry
+   *     with a certificate
+   * @throws CryptoException If a certificate could not be decoded
+   */
+  public Certificate[] getCertificateChain(String alias)
+      throws CryptoException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.keyBag == null || entry.certificate == null) {
+      return null;
+    }
+
+    Certificate[] chain = entry.chain;
+
+    if (chain == null) {
+      chain = buildChain(entry);
+      entry.chain = chain;
+    }
+
+    return chain.clone();
+  }
+
+  private Certificate[] buildChain(IndexEntry entry) throws CryptoException {
+    List<Certificate> chain = new ArrayList<>();
+    CertBagEntry certBag = entry.certificate;
+
+    while (certBag != null && chain.size() <= certBags.size()) {
+      X509Certificate certificate = decode(certBag, entry.alias);
+      chain.add(certificate);
+
+      X500Principal issuer = certificate.getIssuerX500Principal();
+
+      if (issuer.equals(certificate.getSubjectX500Principal())) {
+        break;
+      }
+
+      certBag = getCertBagsBySubject(entry.alias).get(issuer);
+    }
+
+    return chain.toArray(new Certificate[0]);
+  }
+
+  /*
+   * Only the subjects of the certificates are read for the index, not the
+   * whole certificates
+   */
+  private synchronized Map<X500Principal, CertBagEntry>
+  getCertBagsBySubject(String alias) throws CryptoException {
+    if (certBagsBySubject == null) {
+      Map<X500Principal, CertBagEntry> bySubject = new HashMap<>();
+
+      try {
+        for (CertBagEntry certBag : certBags) {
+          org.bouncycastle.asn1.x509.Certificate certificate =
+              org.bouncycastle.asn1.x509.Certificate.getInstance(certBag.der);
+          bySubject.putIfAbsent(
+              new X500Principal(
+                  certificate.getSubject().getEncoded(ASN1Encoding.DER)),
+              certBag);
+        }
+      } catch (IOException | RuntimeException ex) {
+        throw new CryptoException(
+            MessageFormat.format(
+                res.getString("NoDecodePkcs12Certificate.exception.message"),
+                alias),
+            ex);
+      }
+
+      certBagsBySubject = bySubject;
+    }
+
+    return certBagsBySubject;
+  }
+
+  private static X509Certificate decode(CertBagEntry certBag, String alias)
+      throws CryptoException {
+    X509Certificate certificate = certBag.certificate;
+
+    if (certificate == null) {
+      try {
+        certificate = (X509Certificate)CertificateFactory
+                          .getInstance(X509_CERT_TYPE)
+                          .generateCertificate(
+                              new ByteArrayInputStream(certBag.der));
+      } catch (CertificateException ex) {
+        throw new CryptoException(
+            MessageFormat.format(
+                res.getString("NoDecodePkcs12Certificate.exception.message"),
+                alias),
+            ex);
+      }
+
+      certBag.certificate = certificate;
+    }
+
+    return certificate;
+  }
+
+  /**
+   * Recover the key of a key entry.
+   *
+   * @param alias    Alias
+   * @param password Password of the entry
+   * @return Key or null if the entry is not a key entry
+   * @throws UnrecoverableKeyException If the password is incorrect
+   * @throws NoSuchAlgorithmException  If the protection algorithm is not
+   *     supported
+   */
+  public Key getKey(String alias, char[] password)
+      throws UnrecoverableKeyException, NoSuchAlgorithmException {
+    IndexEntry entry = getEntry(alias);
+
+    if (entry == null || entry.keyBag == null) {
+      return null;
+    }
+
+    try {
+      // the JDK's KeyStore recovers the key from a KeyStore with just its key
+      // bag, loaded without checking its integrity
+      Pkcs12Writer writer = new Pkcs12Writer();
+      writer.addEntry(entry.alias, entry.keyBag, null);
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      writer.write(baos, null);
+
+      KeyStore keyStore = KeyStore.getInstance(KeyStoreType.PKCS12.jce());
+      keyStore.load(new ByteArrayInputStream(baos.toByteArray()), null);
+      return keyStore.getKey(entry.alias, password);
+    } catch (CryptoException | KeyStoreException | IOException |
+             CertificateException ex) {
+      UnrecoverableKeyException uke = new UnrecoverableKeyException(
+          res.getString("NoRecoverPkcs12Key.exception.message"));
+      uke.initCause(ex);
+      throw uke;
+    }
+  }
+
+  /**
+   * Get a read-only KeyStore backed by this inspector. Storing it copies the
+   * encrypted keys as they are.
+   *
+   * @return KeyStore of type PKCS12
+   */
+  public KeyStore toKeyStore() {
+    KeyStore keyStore = new ReadOnlyKeyStore(new Spi(this));
+
+    try {
+      keyStore.load(null, null);
+    } catch (GeneralSecurityException | IOException ex) {
+      // loading without a stream only marks the KeyStore as initialized
+      throw new IllegalStateException(ex);
+    }
+
+    return keyStore;
+  }
+
+  private IndexEntry getEntry(String alias) {
+    return entries.get(alias.toLowerCase(Locale.ENGLISH));
+  }
+
+  private void store(OutputStream os, char[] password)
+      throws IOException, CryptoException {
+    Pkcs12Writer writer = new Pkcs12Writer();
+
+    for (IndexEntry entry : entries.values()) {
+      Certificate[] chain = entry.keyBag == null
+                                ? new Certificate[] {getCertificate(entry.alias)}
+                                : getCertificateChain(entry.alias);
+      writer.addEntry(entry.alias, entry.keyBag, chain);
+    }
+
+    writer.write(os, password == null ? null : new Password(password));
+  }
+
+  private static final class IndexEntry {
+    private final String alias;
+    private final SafeBag keyBag;
+    private final ASN1OctetString localKeyId;
+    private final Date creationDate;
+    private CertBagEntry certificate;
+    private volatile Certificate[] chain;
+
+    IndexEntry(String alias, SafeBag keyBag, ASN1OctetString localKeyId,
+               Date creationDate) {
+      this.alias = alias;
+      this.keyBag = keyBag;
+      this.localKeyId = localKeyId;
+      this.creationDate = creationDate;
+    }
+  }
+
+  private static final class CertBagEntry {
+    private final byte[] der;
+    private final String friendlyName;
+    private final ASN1OctetString localKeyId;
+    private final boolean trusted;
+    private volatile X509Certificate certificate;
+
+    CertBagEntry(byte[] der, String friendlyName, ASN1OctetString localKeyId,
+                 boolean trusted) {
+      this.der = der;
+      this.friendlyName = friendlyName;
+      this.localKeyId = localKeyId;
+      this.trusted = trusted;
+    }
+  }
+
+  private static final class ReadOnlyKeyStore
+      extends KeyStore implements KeyStoreIndex {
+    private final Pkcs12Inspector inspector;
+
+    ReadOnlyKeyStore(Spi spi) {
+      super(spi, Security.getProvider("SUN"), KeyStoreType.PKCS12.jce());
+      this.inspector = spi.inspector;
+    }
+
+    @Override
+    public String getCertificateType(String alias) {
+      return inspector.getCertificateType(alias);
+    }
+
+    @Override
+    public byte[][] getEncodedCertificates(String alias) {
+      return inspector.getEncodedCertificates(alias);
+    }
+  }
+
+  private static final class Spi extends KeyStoreSpi {
+    private final Pkcs12Inspector inspector;
+
+    Spi(Pkcs12Inspector inspector) {
+      this.inspector = inspector;
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password)
+        throws NoSuchAlgorithmException, UnrecoverableKeyException {
+      return inspector.getKey(alias, password);
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+      try {
+        return inspector.getCertificateChain(alias);
+      } catch (CryptoException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+      try {
+        return inspector.getCertificate(alias);
+      } catch (CryptoException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+      return inspector.getCreationDate(alias);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert)
+        throws KeyStoreException {
+      throw readOnly();
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) throws KeyStoreException {
+      throw readOnly();
+    }
+
+    private static KeyStoreException readOnly() {
+      return new KeyStoreException(
+          res.getString("NoModifyPkcs12Inspector.exception.message"));
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+      return Collections.enumeration(inspector.getAliases());
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+      return inspector.containsAlias(alias);
+    }
+
+    @Override
+    public int engineSize() {
+      return inspector.entries.size();
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+      return inspector.isKeyEntry(alias);
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+      return inspector.isCertificateEntry(alias);
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+      for (String alias : inspector.getAliases()) {
+        if (cert.equals(engineGetCertificate(alias))) {
+          return alias;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password)
+        throws IOException {
+      try {
+        inspector.store(stream, password);
+      } catch (CryptoException ex) {
+        throw new IOException(ex);
+      }
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password)
+        throws IOException {
+      if (stream != null) {
+        throw new IOException(
+            res.getString("NoModifyPkcs12Inspector.exception.message"));
+      }
+    }
+  }
+}
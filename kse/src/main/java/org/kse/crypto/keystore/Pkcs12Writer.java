@@ -0,0 +1,456 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.crypto.keystore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.BEROctetString;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.AuthenticatedSafe;
+import org.bouncycastle.asn1.pkcs.CertBag;
+import org.bouncycastle.asn1.pkcs.ContentInfo;
+import org.bouncycastle.asn1.pkcs.EncryptedData;
+import org.bouncycastle.asn1.pkcs.MacData;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.Pfx;
+import org.bouncycastle.asn1.pkcs.SafeBag;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.Password;
+
+/**
+ * Writes a PKCS #12 KeyStore from the encodings of other PKCS #12 KeyStores.
+ * The encrypted key bags of the entries are copied as they are, so however
+ * many keys the KeyStore holds, only the certificates are encrypted again and
+ * the MAC is computed again. The same algorithms as in the JDK's PKCS #12
+ * KeyStore are used: PBES2 with HmacSHA256 and AES-256 for the certificates
+ * and HmacPBESHA256 for the MAC.
+ */
+public final class Pkcs12Writer {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/keystore/resources");
+
+  private static final String CERT_PROTECTION_ALGORITHM =
+      "PBEWithHmacSHA256AndAES_256";
+  private static final String MAC_ALGORITHM = "HmacPBESHA256";
+  private static final int ITERATION_COUNT = 10000;
+  private static final int SALT_LENGTH = 20;
+  private static final int IV_LENGTH = 16;
+
+  // Attribute the JDK marks trusted certificate entries with
+  static final ASN1ObjectIdentifier TRUSTED_KEY_USAGE =
+      new ASN1ObjectIdentifier("2.16.840.1.113894.746875.1.1");
+
+  private final SecureRandom random = new SecureRandom();
+  private final Map<String, Pkcs12Entry> entries = new LinkedHashMap<>();
+
+  /**
+   * Add entries of a PKCS #12 KeyStore. Entries added before under the same
+   * alias are replaced.
+   *
+   * @param keyStore The KeyStore
+   * @param encoded  The KeyStore's encoding, as written by its store method
+   * @param aliases  Aliases of the entries to add
+   * @throws CryptoException If the encoding could not be read or does not
+   *     hold the key of an entry
+   */
+  public void addEntries(KeyStore keyStore, byte[] encoded,
+                         Collection<String> aliases) throws CryptoException {
+    Map<String, SafeBag> keyBags = readKeyBags(encoded);
+
+    try {
+      for (String alias : aliases) {
+        String key = alias.toLowerCase(Locale.ENGLISH);
+
+        if (keyStore.isCertificateEntry(alias)) {
+          Certificate[] certificate = {keyStore.getCertificate(alias)};
+          entries.put(key, new Pkcs12Entry(alias, null, certificate));
+          continue;
+        }
+
+        SafeBag keyBag = keyBags.get(key);
+
+        if (keyBag == null) {
+          throw new CryptoException(MessageFormat.format(
+              res.getString("NoFindPkcs12KeyBag.exception.message"), alias));
+        }
+
+        entries.put(key, new Pkcs12Entry(alias, keyBag,
+                                         keyStore.getCertificateChain(alias)));
+      }
+    } catch (KeyStoreException ex) {
+      throw new CryptoException(
+          res.getString("NoReadPkcs12Bags.exception.message"), ex);
+    }
+  }
+
+  /**
+   * Add an entry from its key bag. An entry added before under the same alias
+   * is replaced.
+   *
+   * @param alias  Alias
+   * @param keyBag Key bag, null for a trusted certificate entry
+   * @param chain  Certificate chain or the trusted certificate
+   */
+  void addEntry(String alias, SafeBag keyBag, Certificate[] chain) {
+    if (keyBag != null &&
+        getAttribute(keyBag.getBagAttributes(),
+                     PKCSObjectIdentifiers.pkcs_9_at_friendlyName) == null) {
+      Attribute friendlyName =
+          new Attribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName,
+                        new DERSet(new DERBMPString(alias)));
+      keyBag = new SafeBag(
+          keyBag.getBagId(), keyBag.getBagValue(),
+          replaceAttribute(keyBag.getBagAttributes(), friendlyName));
+    }
+
+    entries.put(alias.toLowerCase(Locale.ENGLISH),
+                new Pkcs12Entry(alias, keyBag, chain));
+  }
+
+  /**
+   * Write the PKCS #12 KeyStore with all added entries.
+   *
+   * @param os       Stream to write to
+   * @param password KeyStore password, protects the certificates and the
+   *     integrity of the KeyStore. If null, the certificates are not
+   *     encrypted and no MAC is written.
+   * @throws CryptoException If the KeyStore could not be encoded
+   * @throws IOException     If an I/O error occurred
+   */
+  public void write(OutputStream os, Password password)
+      throws CryptoException, IOException {
+    byte[] encoded;
+
+    try {
+      encoded = encode(password == null ? null : password.toCharArray());
+    } catch (GeneralSecurityException | IOException ex) {
+      throw new CryptoException(
+          res.getString("NoWritePkcs12.exception.message"), ex);
+    }
+
+    os.write(encoded);
+  }
+
+  private byte[] encode(char[] password)
+      throws GeneralSecurityException, IOException {
+    ASN1EncodableVector keyBags = new ASN1EncodableVector();
+    ASN1EncodableVector certBags = new ASN1EncodableVector();
+    Set<ASN1OctetString> localKeyIds = new HashSet<>();
+    Set<Certificate> caCertificates = new HashSet<>();
+
+    for (Pkcs12Entry entry : entries.values()) {
+      if (entry.keyBag == null) {
+        Attribute friendlyName =
+            new Attribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName,
+                          new DERSet(new DERBMPString(entry.alias)));
+        Attribute trusted = new Attribute(
+            TRUSTED_KEY_USAGE,
+            new DERSet(KeyPurposeId.anyExtendedKeyUsage.toOID()));
+        certBags.add(createCertBag(entry.chain[0], friendlyName, trusted));
+        continue;
+      }
+
+      // the certificate is named like its key
+      ASN1Encodable keyName =
+          getAttribute(entry.keyBag.getBagAttributes(),
+                       PKCSObjectIdentifiers.pkcs_9_at_friendlyName);
+      Attribute friendlyName = new Attribute(
+          PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERSet(keyName));
+
+      ASN1OctetString localKeyId = getLocalKeyId(entry.keyBag, localKeyIds);
+      Attribute localKeyIdAttribute =
+          new Attribute(PKCSObjectIdentifiers.pkcs_9_at_localKeyId,
+                        new DERSet(localKeyId));
+
+      keyBags.add(new SafeBag(
+          entry.keyBag.getBagId(), entry.keyBag.getBagValue(),
+          replaceAttribute(entry.keyBag.getBagAttributes(),
+                           localKeyIdAttribute)));
+
+      if (entry.chain != null && entry.chain.length > 0) {
+        certBags.add(
+            createCertBag(entry.chain[0], friendlyName, localKeyIdAttribute));
+
+        for (int i = 1; i < entry.chain.length; i++) {
+          if (caCertificates.add(entry.chain[i])) {
+            certBags.add(createCertBag(entry.chain[i]));
+          }
+        }
+      }
+    }
+
+    ASN1EncodableVector contentInfos = new ASN1EncodableVector();
+
+    if (keyBags.size() > 0) {
+      contentInfos.add(new ContentInfo(
+          PKCSObjectIdentifiers.data,
+          new DEROctetString(
+              new DERSequence(keyBags).getEncoded(ASN1Encoding.DER))));
+    }
+
+    if (certBags.size() > 0 && password == null) {
+      contentInfos.add(new ContentInfo(
+          PKCSObjectIdentifiers.data,
+          new DEROctetString(
+              new DERSequence(certBags).getEncoded(ASN1Encoding.DER))));
+    } else if (certBags.size() > 0) {
+      contentInfos.add(encryptCertBags(certBags, password));
+    }
+
+    byte[] authSafe =
+        new DERSequence(contentInfos).getEncoded(ASN1Encoding.DER);
+
+    Pfx pfx = new Pfx(new ContentInfo(PKCSObjectIdentifiers.data,
+                                      new DEROctetString(authSafe)),
+                      password == null ? null
+                                       : createMacData(authSafe, password));
+
+    return pfx.getEncoded(ASN1Encoding.DER);
+  }
+
+  private static Map<String, SafeBag> readKeyBags(byte[] encoded)
+      throws CryptoException {
+    Map<String, SafeBag> keyBags = new HashMap<>();
+
+    try {
+      Pfx pfx = Pfx.getInstance(ASN1Primitive.fromByteArray(encoded));
+      AuthenticatedSafe authSafe = AuthenticatedSafe.getInstance(
+          ASN1OctetString.getInstance(pfx.getAuthSafe().getContent())
+              .getOctets());
+
+      for (ContentInfo contentInfo : authSafe.getContentInfo()) {
+        // the JDK only encrypts certificates as a whole, keys are encrypted
+        // one by one in plain data
+        if (!PKCSObjectIdentifiers.data.equals(contentInfo.getContentType())) {
+          continue;
+        }
+
+        ASN1Sequence safeContents = ASN1Sequence.getInstance(
+            ASN1OctetString.getInstance(contentInfo.getContent()).getOctets());
+
+        for (ASN1Encodable safeContent : safeContents) {
+          SafeBag bag = SafeBag.getInstance(safeContent);
+          ASN1ObjectIdentifier bagId = bag.getBagId();
+
+          if (!PKCSObjectIdentifiers.pkcs8ShroudedKeyBag.equals(bagId) &&
+              !PKCSObjectIdentifiers.keyBag.equals(bagId) &&
+              !PKCSObjectIdentifiers.secretBag.equals(bagId)) {
+            continue;
+          }
+
+          ASN1Encodable friendlyName =
+              getAttribute(bag.getBagAttributes(),
+                           PKCSObjectIdentifiers.pkcs_9_at_friendlyName);
+
+          if (friendlyName != null) {
+            keyBags.put(DERBMPString.getInstance(friendlyName)
+                            .getString()
+                            .toLowerCase(Locale.ENGLISH),
+                        bag);
+          }
+        }
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      throw new CryptoException(
+          res.getString("NoReadPkcs12Bags.exception.message"), ex);
+    }
+
+    return keyBags;
+  }
+
+  /*
+   * The local key id links a key to its certificate. The one the key was
+   * written with is kept, as the JDK reads the creation date from it, unless
+   * another entry already uses it.
+   */
+  private static ASN1OctetString getLocalKeyId(SafeBag keyBag,
+                                               Set<ASN1OctetString> used) {
+    ASN1Encodable localKeyId = getAttribute(
+        keyBag.getBagAttributes(), PKCSObjectIdentifiers.pkcs_9_at_localKeyId);
+
+    if (localKeyId != null &&
+        used.add(ASN1OctetString.getInstance(localKeyId))) {
+      return ASN1OctetString.getInstance(localKeyId);
+    }
+
+    for (long time = System.currentTimeMillis();; time++) {
+      ASN1OctetString generated = new DEROctetString(
+          ("Time " + time).getBytes(StandardCharsets.UTF_8));
+
+      if (used.add(generated)) {
+        return generated;
+      }
+    }
+  }
+
+  static ASN1Encodable getAttribute(ASN1Set attributes,
+                                    ASN1ObjectIdentifier type) {
+    if (attributes == null) {
+      return null;
+    }
+
+    for (ASN1Encodable encodable : attributes) {
+      Attribute attribute = Attribute.getInstance(encodable);
+
+      if (type.equals(attribute.getAttrType()) &&
+          attribute.getAttrValues().size() > 0) {
+        return attribute.getAttrValues().getObjectAt(0);
+      }
+    }
+
+    return null;
+  }
+
+  private static ASN1Set replaceAttribute(ASN1Set attributes,
+                                          Attribute replacement) {
+    ASN1EncodableVector replaced = new ASN1EncodableVector();
+
+    if (attributes != null) {
+      for (ASN1Encodable encodable : attributes) {
+        Attribute attribute = Attribute.getInstance(encodable);
+
+        if (!replacement.getAttrType().equals(attribute.getAttrType())) {
+          replaced.add(attribute);
+        }
+      }
+    }
+
+    replaced.add(replacement);
+
+    return new DERSet(replaced);
+  }
+
+  private static SafeBag createCertBag(Certificate certificate,
+                                       Attribute... attributes)
+      throws GeneralSecurityException {
+    CertBag certBag =
+        new CertBag(PKCSObjectIdentifiers.x509Certificate,
+                    new DEROctetString(certificate.getEncoded()));
+
+    if (attributes.length == 0) {
+      return new SafeBag(PKCSObjectIdentifiers.certBag, certBag);
+    }
+
+    return new SafeBag(PKCSObjectIdentifiers.certBag, certBag,
+                       new DERSet(attributes));
+  }
+
+  private ContentInfo encryptCertBags(ASN1EncodableVector certBags,
+                                      char[] password)
+      throws GeneralSecurityException, IOException {
+    SecretKey key = SecretKeyFactory.getInstance(CERT_PROTECTION_ALGORITHM)
+                        .generateSecret(new PBEKeySpec(password));
+
+    Cipher cipher = Cipher.getInstance(CERT_PROTECTION_ALGORITHM);
+    IvParameterSpec iv = new IvParameterSpec(randomBytes(IV_LENGTH));
+    cipher.init(Cipher.ENCRYPT_MODE, key,
+                new PBEParameterSpec(randomBytes(SALT_LENGTH), ITERATION_COUNT,
+                                     iv),
+                random);
+
+    byte[] encrypted =
+        cipher.doFinal(new DERSequence(certBags).getEncoded(ASN1Encoding.DER));
+
+    AlgorithmIdentifier algorithm = new AlgorithmIdentifier(
+        PKCSObjectIdentifiers.id_PBES2,
+        ASN1Primitive.fromByteArray(cipher.getParameters().getEncoded()));
+
+    return new ContentInfo(PKCSObjectIdentifiers.encryptedData,
+                           new EncryptedData(PKCSObjectIdentifiers.data,
+                                             algorithm,
+                                             new BEROctetString(encrypted)));
+  }
+
+  private MacData createMacData(byte[] authSafe, char[] password)
+      throws GeneralSecurityException {
+    byte[] salt = randomBytes(SALT_LENGTH);
+
+    SecretKey key = SecretKeyFactory.getInstance("PBE").generateSecret(
+        new PBEKeySpec(password));
+
+    Mac mac = Mac.getInstance(MAC_ALGORITHM);
+    mac.init(key, new PBEParameterSpec(salt, ITERATION_COUNT));
+
+    DigestInfo digestInfo = new DigestInfo(
+        new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256,
+                                DERNull.INSTANCE),
+        mac.doFinal(authSafe));
+
+    return new MacData(digestInfo, salt, ITERATION_COUNT);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static final class Pkcs12Entry {
+    private final String alias;
+    private final SafeBag keyBag;
+    private final Certificate[] chain;
+
+    Pkcs12Entry(String alias, SafeBag keyBag, Certificate[] chain) {
+      this.alias = alias;
+      this.keyBag = keyBag;
+      this.chain = chain;
+    }
+  }
+}
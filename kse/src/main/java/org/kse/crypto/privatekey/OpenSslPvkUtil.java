@@ -61,6 +61,7 @@ import org.kse.crypto.Password;
 import org.kse.crypto.digest.DigestType;
 import org.kse.crypto.digest.DigestUtil;
 import org.kse.crypto.ecc.EccUtil;
+import org.kse.utilities.io.HexUtil;
 import org.kse.utilities.pem.PemAttribute;
 import org.kse.utilities.pem.PemAttributes;
 import org.kse.utilities.pem.PemInfo;
@@ -636,18 +637,7 @@ public class OpenSslPvkUtil {
   }
 
   private static String bytesToHex(byte[] bytes) {
-    int expectedHexLength = (bytes.length * 2);
-
-    String hex = new BigInteger(1, bytes).toString(16).toUpperCase();
-
-    int leadingZeros = expectedHexLength - hex.length();
-
-    for (int i = 0; i < leadingZeros; i++) {
-      hex = "0" + hex; // Use leading zeros to ensure correct string
-                       // length
-    }
-
-    return hex;
+    return HexUtil.toHexString(bytes);
   }
 
   private static Cipher createCipher(String transformation, byte[] key,
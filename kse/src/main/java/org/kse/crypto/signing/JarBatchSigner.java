@@ -0,0 +1,196 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kse.crypto.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.digest.DigestType;
+
+/**
+ * Signs many JAR files with the same key. The signer is set up once and
+ * shared, the JAR files are signed concurrently by a bounded number of
+ * threads and time-stamp requests reuse the connections to the TSA. The JARs
+ * signed at the same time share one budget for the entry content buffered
+ * for digesting, so memory use does not grow with the parallelism.
+ */
+public class JarBatchSigner {
+  private static final String JAR_EXT = ".jar";
+
+  private final JarSigner.SignatureBlockGenerator generator;
+  private final String signatureName;
+  private final String signer;
+  private final DigestType digestType;
+
+  /**
+   * Construct a batch signer.
+   *
+   * @param privateKey       Private key to sign with
+   * @param certificateChain Certificate chain for private key
+   * @param signatureType    Signature type
+   * @param signatureName    Signature name
+   * @param signer           Signer
+   * @param digestType       Digest type
+   * @param tsaUrl           TSA URL or null for no time-stamp
+   * @param provider         Provider for the signature or null for default
+   * @throws CryptoException If the signer could not be set up
+   */
+  public JarBatchSigner(PrivateKey privateKey,
+                        X509Certificate[] certificateChain,
+                        SignatureType signatureType, String signatureName,
+                        String signer, DigestType digestType, String tsaUrl,
+                        Provider provider) throws CryptoException {
+    this.generator = new JarSigner.SignatureBlockGenerator(
+        privateKey, certificateChain, signatureType, tsaUrl, provider);
+    this.signatureName = signatureName;
+    this.signer = signer;
+    this.digestType = digestType;
+  }
+
+  /**
+   * Sign JAR files overwriting them with the signed JARs.
+   *
+   * @param jarFiles    JAR files to sign
+   * @param parallelism Maximum number of JAR files signed at the same time
+   * @return Result for each JAR file in the order supplied
+   */
+  public List<JarSigningResult> sign(List<File> jarFiles, int parallelism) {
+    return sign(jarFiles, null, parallelism);
+  }
+
+  /**
+   * Sign JAR files outputting the signed JARs to a directory. The signed JARs
+   * keep the names of the originals.
+   *
+   * @param jarFiles        JAR files to sign
+   * @param outputDirectory Directory for the signed JARs or null to overwrite
+   *                        the originals
+   * @param parallelism     Maximum number of JAR files signed at the same
+   *                        time
+   * @return Result for each JAR file in the order supplied
+   */
+  public List<JarSigningResult> sign(List<File> jarFiles, File outputDirectory,
+                                     int parallelism) {
+    List<JarSigningResult> results = new ArrayList<>(jarFiles.size());
+
+    if (jarFiles.isEmpty()) {
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(parallelism, jarFiles.size())));
+    ExecutorService digestExecutor =
+        Executors.newFixedThreadPool(JarSigner.DIGEST_THREADS);
+    Semaphore bufferedBytes = new Semaphore(JarSigner.MAX_BUFFERED_BYTES);
+
+    try {
+      List<Future<JarSigningResult>> futures = new ArrayList<>();
+
+      for (File jarFile : jarFiles) {
+        File signedJarFile = outputDirectory == null
+                                 ? jarFile
+                                 : new File(outputDirectory, jarFile.getName());
+        futures.add(executor.submit(() -> sign(jarFile, signedJarFile,
+                                               digestExecutor, bufferedBytes)));
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        results.add(getResult(futures.get(i), jarFiles.get(i)));
+      }
+
+      return results;
+    } finally {
+      executor.shutdownNow();
+      digestExecutor.shutdownNow();
+    }
+  }
+
+  private JarSigningResult sign(File jarFile, File signedJarFile,
+                                ExecutorService digestExecutor,
+                                Semaphore bufferedBytes) {
+    long start = System.nanoTime();
+
+    try {
+      if (signedJarFile.equals(jarFile)) {
+        JarSigner.sign(jarFile, signatureName, signer, digestType, generator,
+                       digestExecutor, bufferedBytes);
+      } else {
+        JarSigner.sign(jarFile, signedJarFile, signatureName, signer,
+                       digestType, generator, digestExecutor, bufferedBytes);
+      }
+
+      return new JarSigningResult(jarFile, signedJarFile, null,
+                                  elapsedMillis(start));
+    } catch (IOException | CryptoException | RuntimeException ex) {
+      return new JarSigningResult(jarFile, signedJarFile, ex,
+                                  elapsedMillis(start));
+    }
+  }
+
+  private static JarSigningResult getResult(Future<JarSigningResult> future,
+                                            File jarFile) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return new JarSigningResult(jarFile, null, ex, 0);
+    } catch (ExecutionException ex) {
+      return new JarSigningResult(jarFile, null, ex, 0);
+    }
+  }
+
+  private static long elapsedMillis(long start) {
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  /**
+   * Find all JAR files in a directory and its sub-directories.
+   *
+   * @param directory Directory to search
+   * @return JAR files sorted by path
+   * @throws IOException If the directory could not be read
+   */
+  public static List<File> findJarFiles(File directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+      return paths.filter(Files::isRegularFile)
+          .filter(path
+                  -> path.getFileName().toString().toLowerCase(Locale.ENGLISH)
+                         .endsWith(JAR_EXT))
+          .sorted()
+          .map(Path::toFile)
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -22,66 +22,286 @@ package org.kse.crypto.signing;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.security.CodeSigner;
-import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.kse.crypto.CryptoException;
 
 /**
  * Helper class for parsing and extracting meta data from jar files
  */
 public class JarParser {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/crypto/signing/resources");
+
+  private static final String METAINF = "META-INF/";
+  private static final String[] SIGNATURE_BLOCK_EXTENSIONS = {".RSA", ".DSA",
+                                                              ".EC"};
 
   private File jarFile;
 
   public JarParser(File jarFile) { this.jarFile = jarFile; }
 
   /**
-   * Extract all signer certificates from this jar file.
+   * Extract all signer certificates from this jar file. Only the signature
+   * block files (META-INF/*.RSA, *.DSA and *.EC) are read and parsed as CMS
+   * signed data, so the cost does not depend on the size of the jar. The
+   * entries are not verified against the signatures, use {@link
+   * #getVerifiedSignerCertificates()} for that.
    *
    * @return Unordered array with signer certificates
-   * @throws IOException if an I/O error has occurred
+   * @throws IOException     if an I/O error has occurred
+   * @throws CryptoException if a signature block could not be parsed
    */
-  public X509Certificate[] getSignerCerificates() throws IOException {
-    try (JarFile jf = new JarFile(jarFile, true)) {
+  public X509Certificate[] getSignerCerificates()
+      throws IOException, CryptoException {
+    try (JarFile jf = new JarFile(jarFile, false)) {
 
-      Set<Certificate> allSignerCerts = new HashSet<>();
+      Set<X509Certificate> allSignerCerts = new HashSet<>();
+      JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
       Enumeration<JarEntry> entries = jf.entries();
 
       while (entries.hasMoreElements()) {
 
         JarEntry entry = entries.nextElement();
 
-        // reading entry completely is required for calling
-        // getCodeSigners()/getCertificates()
-        readEntry(jf, entry);
+        if (!isSignatureBlock(entry)) {
+          continue;
+        }
 
-        if (!entry.isDirectory()) {
-          CodeSigner[] codeSigners = entry.getCodeSigners();
-          if (codeSigners != null) {
-            for (CodeSigner cs : entry.getCodeSigners()) {
-              allSignerCerts.addAll(cs.getSignerCertPath().getCertificates());
-            }
-          }
+        try (InputStream is = jf.getInputStream(entry)) {
+          CMSSignedData signedData = new CMSSignedData(IOUtils.toByteArray(is));
 
-          Certificate[] certificates = entry.getCertificates();
-          if (certificates != null) {
-            allSignerCerts.addAll(Arrays.asList(certificates));
+          Collection<X509CertificateHolder> certs =
+              signedData.getCertificates().getMatches(null);
+          for (X509CertificateHolder cert : certs) {
+            allSignerCerts.add(converter.getCertificate(cert));
           }
+        } catch (CMSException | CertificateException ex) {
+          throw new CryptoException(
+              MessageFormat.format(
+                  res.getString("NoReadJarSignatureBlock.exception.message"),
+                  entry.getName()),
+              ex);
         }
       }
 
-      return allSignerCerts.stream()
-          .map(X509Certificate.class ::cast)
-          .toArray(X509Certificate[] ::new);
+      return allSignerCerts.toArray(new X509Certificate[0]);
     }
   }
 
+  /**
+   * Extract all signer certificates from this jar file by reading and
+   * verifying every entry against the signatures.
+   *
+   * @return Unordered array with signer certificates
+   * @throws IOException       if an I/O error has occurred
+   * @throws SecurityException if an entry does not match its signature
+   * @see #verify()
+   */
+  public X509Certificate[] getVerifiedSignerCertificates() throws IOException {
+    JarVerificationResult result = verify();
+
+    if (!result.getTamperedEntries().isEmpty()) {
+      throw new SecurityException(
+          result.getTamperedEntries().values().iterator().next());
+    }
+
+    return result.getSignerCertificates();
+  }
+
+  /**
+   * Verify every entry of this jar file against the digests in the manifest
+   * and the signatures. The entries of the central directory are split
+   * between a pool of workers sized to the number of processors, each with
+   * its own handle on the jar file, so large jars are verified concurrently.
+   *
+   * @return Verification result with unsigned, partially signed and tampered
+   *     entries
+   * @throws IOException if an I/O error has occurred
+   */
+  public JarVerificationResult verify() throws IOException {
+    List<String> entryNames = new ArrayList<>();
+
+    try (JarFile jf = new JarFile(jarFile, false)) {
+      Enumeration<JarEntry> entries = jf.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (!entry.isDirectory() && !isSignatureRelated(entry.getName())) {
+          entryNames.add(entry.getName());
+        }
+      }
+    }
+
+    Collections.sort(entryNames);
+
+    List<EntryStatus> statuses = new ArrayList<>(entryNames.size());
+
+    if (!entryNames.isEmpty()) {
+      int workers = Math.min(Runtime.getRuntime().availableProcessors(),
+                             entryNames.size());
+      int chunkSize = (entryNames.size() + workers - 1) / workers;
+
+      ExecutorService executor = Executors.newFixedThreadPool(workers);
+      try {
+        List<Future<List<EntryStatus>>> results = new ArrayList<>();
+
+        for (int i = 0; i < entryNames.size(); i += chunkSize) {
+          List<String> chunk = entryNames.subList(
+              i, Math.min(i + chunkSize, entryNames.size()));
+          results.add(executor.submit(() -> verifyEntries(chunk)));
+        }
+
+        // chunks are in entry name order, so the statuses are as well
+        for (Future<List<EntryStatus>> result : results) {
+          statuses.addAll(getResult(result));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    Set<CodeSigner> signers = new LinkedHashSet<>();
+    for (EntryStatus status : statuses) {
+      signers.addAll(status.signers);
+    }
+
+    List<String> unsignedEntries = new ArrayList<>();
+    List<String> partiallySignedEntries = new ArrayList<>();
+    Map<String, String> tamperedEntries = new LinkedHashMap<>();
+
+    for (EntryStatus status : statuses) {
+      if (status.failure != null) {
+        tamperedEntries.put(status.name, status.failure);
+      } else if (status.signers.isEmpty()) {
+        unsignedEntries.add(status.name);
+      } else if (status.signers.size() < signers.size()) {
+        partiallySignedEntries.add(status.name);
+      }
+    }
+
+    return new JarVerificationResult(statuses.size(), signers,
+                                     unsignedEntries, partiallySignedEntries,
+                                     tamperedEntries);
+  }
+
+  private List<EntryStatus> verifyEntries(List<String> entryNames)
+      throws IOException {
+    try (JarFile jf = new JarFile(jarFile, true)) {
+
+      List<EntryStatus> statuses = new ArrayList<>(entryNames.size());
+
+      for (String entryName : entryNames) {
+
+        JarEntry entry = jf.getJarEntry(entryName);
+
+        try {
+          // reading entry completely is required for calling
+          // getCodeSigners(); a digest mismatch is reported at the end
+          readEntry(jf, entry);
+        } catch (SecurityException ex) {
+          statuses.add(new EntryStatus(entryName, Collections.emptySet(),
+                                       ex.getMessage()));
+          continue;
+        }
+
+        CodeSigner[] codeSigners = entry.getCodeSigners();
+        Set<CodeSigner> signers =
+            codeSigners == null
+                ? Collections.emptySet()
+                : new LinkedHashSet<>(Arrays.asList(codeSigners));
+
+        statuses.add(new EntryStatus(entryName, signers, null));
+      }
+
+      return statuses;
+    }
+  }
+
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(ex.getMessage());
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static boolean isSignatureRelated(String name) {
+    if (!name.startsWith(METAINF) ||
+        name.indexOf('/', METAINF.length()) != -1) {
+      return false;
+    }
+
+    String upperName = name.toUpperCase(Locale.ENGLISH);
+    if (upperName.equals(METAINF + "MANIFEST.MF") ||
+        upperName.startsWith(METAINF + "SIG-") || upperName.endsWith(".SF")) {
+      return true;
+    }
+
+    for (String extension : SIGNATURE_BLOCK_EXTENSIONS) {
+      if (upperName.endsWith(extension)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isSignatureBlock(JarEntry entry) {
+    String name = entry.getName();
+
+    // signature blocks are located directly in META-INF
+    if (entry.isDirectory() || !name.startsWith(METAINF) ||
+        name.indexOf('/', METAINF.length()) != -1) {
+      return false;
+    }
+
+    String upperName = name.toUpperCase(Locale.ENGLISH);
+    for (String extension : SIGNATURE_BLOCK_EXTENSIONS) {
+      if (upperName.endsWith(extension)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private static void readEntry(JarFile jf, JarEntry je) throws IOException {
     try (InputStream is = jf.getInputStream(je)) {
       byte[] buffer = new byte[8192];
@@ -89,4 +309,16 @@ public class JarParser {
       }
     }
   }
+
+  private static final class EntryStatus {
+    private final String name;
+    private final Set<CodeSigner> signers;
+    private final String failure;
+
+    EntryStatus(String name, Set<CodeSigner> signers, String failure) {
+      this.name = name;
+      this.signers = signers;
+      this.failure = failure;
+    }
+  }
 }
@@ -19,16 +19,19 @@
  */
 package org.kse.crypto.signing;
 
-import static org.kse.crypto.signing.SignatureType.SHA1_DSA;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.SecureRandom;
@@ -40,15 +43,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Primitive;
@@ -78,6 +88,7 @@ import org.kse.KSE;
 import org.kse.crypto.CryptoException;
 import org.kse.crypto.digest.DigestType;
 import org.kse.crypto.digest.DigestUtil;
+import org.kse.utilities.io.AtomicFileOutputStream;
 import org.kse.utilities.io.CopyUtil;
 
 /**
@@ -129,12 +140,26 @@ public class JarSigner {
   // RSA signature block extension
   private static final String RSA_SIG_BLOCK_EXT = "RSA";
 
+  // EC signature block extension, also used for EdDSA
+  private static final String EC_SIG_BLOCK_EXT = "EC";
+
   // Signature file extension
   private static final String SIGNATURE_EXT = "SF";
 
   // Meta inf file location
   private static final String METAINF_FILE_LOC = "META-INF/{0}.{1}";
 
+  // Number of threads digesting entry content
+  static final int DIGEST_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+  // Entries up to this size are buffered and digested on the executor
+  private static final long MAX_BUFFERED_ENTRY_SIZE = 4 * 1024 * 1024;
+
+  // Maximum number of bytes of buffered entries waiting to be digested, for
+  // all JARs signed at the same time sharing them
+  static final int MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+
   private JarSigner() {}
 
   /**
@@ -157,15 +182,29 @@ public class JarSigner {
        SignatureType signatureType, String signatureName, String signer,
        DigestType digestType, String tsaUrl, Provider provider)
       throws IOException, CryptoException {
-    File tmpFile = File.createTempFile("kse", "tmp");
-    tmpFile.deleteOnExit();
+    SignatureBlockGenerator generator = new SignatureBlockGenerator(
+        privateKey, certificateChain, signatureType, tsaUrl, provider);
 
-    sign(jsrFile, tmpFile, privateKey, certificateChain, signatureType,
-         signatureName, signer, digestType, tsaUrl, provider);
-
-    FileUtils.copyFile(tmpFile, jsrFile);
+    ExecutorService executor = Executors.newFixedThreadPool(DIGEST_THREADS);
+    try {
+      sign(jsrFile, signatureName, signer, digestType, generator, executor,
+           new Semaphore(MAX_BUFFERED_BYTES));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-    tmpFile.delete();
+  /*
+   * Sign a JAR file overwriting it with the signed JAR, using a prepared
+   * signature block generator, an executor for digesting entries and a
+   * budget of bytes the entries waiting to be digested may take
+   */
+  static void sign(File jsrFile, String signatureName, String signer,
+                   DigestType digestType, SignatureBlockGenerator generator,
+                   ExecutorService digestExecutor, Semaphore bufferedBytes)
+      throws IOException, CryptoException {
+    sign(jsrFile, jsrFile, signatureName, signer, digestType, generator,
+         digestExecutor, bufferedBytes);
   }
 
   /**
@@ -189,111 +228,135 @@ public class JarSigner {
        X509Certificate[] certificateChain, SignatureType signatureType,
        String signatureName, String signer, DigestType digestType,
        String tsaUrl, Provider provider) throws IOException, CryptoException {
+    SignatureBlockGenerator generator = new SignatureBlockGenerator(
+        privateKey, certificateChain, signatureType, tsaUrl, provider);
+
+    ExecutorService executor = Executors.newFixedThreadPool(DIGEST_THREADS);
+    try {
+      sign(jarFile, signedJarFile, signatureName, signer, digestType,
+           generator, executor, new Semaphore(MAX_BUFFERED_BYTES));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /*
+   * Sign a JAR file outputting the signed JAR to a file, which may be the JAR
+   * file itself, using a prepared signature block generator, an executor for
+   * digesting entries and a budget of bytes the entries waiting to be
+   * digested may take
+   */
+  static void sign(File jarFile, File signedJarFile, String signatureName,
+                   String signer, DigestType digestType,
+                   SignatureBlockGenerator generator,
+                   ExecutorService digestExecutor, Semaphore bufferedBytes)
+      throws IOException, CryptoException {
+
+    // The signed JAR only replaces the file once it is complete and the JAR
+    // being signed has been closed
+    try (AtomicFileOutputStream afos =
+             new AtomicFileOutputStream(signedJarFile)) {
+      writeSignedJar(jarFile, CloseShieldOutputStream.wrap(afos),
+                     signatureName, signer, digestType, generator,
+                     digestExecutor, bufferedBytes);
+      afos.commit();
+    }
+  }
+
+  private static void writeSignedJar(File jarFile, OutputStream os,
+                                     String signatureName, String signer,
+                                     DigestType digestType,
+                                     SignatureBlockGenerator generator,
+                                     ExecutorService digestExecutor,
+                                     Semaphore bufferedBytes)
+      throws IOException, CryptoException {
+
+    // Replace illegal characters in signature name
+    signatureName = convertSignatureName(signatureName);
 
     try (JarFile jar = new JarFile(jarFile);
-         JarOutputStream jos = new JarOutputStream(
-             Files.newOutputStream(signedJarFile.toPath()))) {
+         JarOutputStream jos = new JarOutputStream(os)) {
 
-      // Replace illegal characters in signature name
-      signatureName = convertSignatureName(signatureName);
+      // Read the current manifest once, it is needed for main and entry
+      // attributes
+      Manifest currentManifest = jar.getManifest();
+      String currentManifestContent =
+          currentManifest == null ? null : getManifest(jar);
+
+      // Write JAR files from JAR to be signed to signed JAR, digesting their
+      // content on the way
+      List<Future<EntryDigest>> entryDigests =
+          writeJarEntries(jar, jos, signatureName, digestType, digestExecutor,
+                          bufferedBytes);
 
       // Write manifest content to here
-      StringBuilder sbManifest = new StringBuilder();
+      ByteArrayOutputStream manifestOut = new ByteArrayOutputStream();
 
       // Write out main attributes to manifest
-      String manifestMainAttrs = getManifestMainAttrs(jar, signer);
-      sbManifest.append(manifestMainAttrs);
+      String manifestMainAttrs =
+          getManifestMainAttrs(currentManifestContent, signer);
+      byte[] manifestMainAttrsBytes =
+          manifestMainAttrs.getBytes(StandardCharsets.UTF_8);
+      manifestOut.write(manifestMainAttrsBytes);
 
       // Write out all entries' attributes to manifest
-      String entryManifestAttrs = getManifestEntriesAttrs(jar);
+      String entryManifestAttrs =
+          getManifestEntriesAttrs(currentManifest, currentManifestContent);
 
       if (!entryManifestAttrs.isEmpty()) {
         // Only output if there are any
-        sbManifest.append(entryManifestAttrs);
-        sbManifest.append(CRLF);
+        manifestOut.write(
+            (entryManifestAttrs + CRLF).getBytes(StandardCharsets.UTF_8));
       }
 
-      // Write signature file to here
-      StringBuilder sbSf = new StringBuilder();
+      // Write signature file entries to here, the header is written when the
+      // manifest is complete
+      StringBuilder sbSfEntries = new StringBuilder();
 
-      // Write out digests to manifest and signature file
+      // Write out digests to manifest and signature file, in entry order
+      for (Future<EntryDigest> entryDigest : entryDigests) {
+        EntryDigest digest = getEntryDigest(entryDigest);
 
-      // Sign each JAR entry...
-      for (Enumeration<?> jarEntries = jar.entries();
-           jarEntries.hasMoreElements();) {
-        JarEntry jarEntry = (JarEntry)jarEntries.nextElement();
-
-        if (!jarEntry.isDirectory()) // Ignore directories
-        {
-          if (!ignoreJarEntry(
-                  jarEntry)) // Ignore some entries (existing signature files)
-          {
-            // Get the digest of the entry as manifest attributes
-            String manifestEntry =
-                getDigestManifestAttrs(jar, jarEntry, digestType);
-
-            // Add it to the manifest string buffer
-            sbManifest.append(manifestEntry);
-
-            // Get the digest of manifest entries created above
-            byte[] mdSf = DigestUtil.getMessageDigest(manifestEntry.getBytes(),
-                                                      digestType);
-            byte[] mdSf64 = Base64.encode(mdSf);
-            String mdSf64Str = new String(mdSf64);
-
-            // Write this digest as entries in signature file
-            sbSf.append(createAttributeText(NAME_ATTR, jarEntry.getName()));
-            sbSf.append(CRLF);
-            sbSf.append(createAttributeText(
-                MessageFormat.format(DIGEST_ATTR, digestType.jce()),
-                mdSf64Str));
-            sbSf.append(CRLF);
-            sbSf.append(CRLF);
-          }
-        }
+        manifestOut.write(digest.manifestSection);
+        sbSfEntries.append(digest.signatureFileSection);
       }
 
       // Manifest file complete - get base 64 encoded digest of its content for
       // inclusion in signature file
-      byte[] manifest = sbManifest.toString().getBytes();
+      byte[] manifest = manifestOut.toByteArray();
 
       byte[] digestMf = DigestUtil.getMessageDigest(manifest, digestType);
       String digestMfStr = new String(Base64.encode(digestMf));
 
       // Get base 64 encoded digest of manifest's main attributes for inclusion
       // in signature file
-      byte[] manifestMainAttrsBytes = manifestMainAttrs.getBytes();
-
       byte[] digestMfMainAttrs =
           DigestUtil.getMessageDigest(manifestMainAttrsBytes, digestType);
       String digestMfMainAttrsStr =
           new String(Base64.encode(digestMfMainAttrs));
 
-      // Write out Manifest Digest, Created By and Signature Version to start of
-      // signature file
-      sbSf.insert(0, CRLF);
-      sbSf.insert(0, CRLF);
-      sbSf.insert(0,
-                  createAttributeText(MessageFormat.format(DIGEST_MANIFEST_ATTR,
-                                                           digestType.jce()),
-                                      digestMfStr));
-      sbSf.insert(0, CRLF);
-      sbSf.insert(0,
-                  createAttributeText(
-                      MessageFormat.format(DIGEST_MANIFEST_MAIN_ATTRIBUTES_ATTR,
-                                           digestType.jce()),
-                      digestMfMainAttrsStr));
-      sbSf.insert(0, CRLF);
-      sbSf.insert(0, createAttributeText(CREATED_BY_ATTR, signer));
-      sbSf.insert(0, CRLF);
-      sbSf.insert(
-          0, createAttributeText(SIGNATURE_VERSION_ATTR, SIGNATURE_VERSION));
+      // Write out Signature Version, Created By and Manifest Digest followed by
+      // the entries to signature file
+      StringBuilder sbSf = new StringBuilder(sbSfEntries.length() + 512);
+      sbSf.append(
+          createAttributeText(SIGNATURE_VERSION_ATTR, SIGNATURE_VERSION));
+      sbSf.append(CRLF);
+      sbSf.append(createAttributeText(CREATED_BY_ATTR, signer));
+      sbSf.append(CRLF);
+      sbSf.append(createAttributeText(
+          MessageFormat.format(DIGEST_MANIFEST_MAIN_ATTRIBUTES_ATTR,
+                               digestType.jce()),
+          digestMfMainAttrsStr));
+      sbSf.append(CRLF);
+      sbSf.append(createAttributeText(
+          MessageFormat.format(DIGEST_MANIFEST_ATTR, digestType.jce()),
+          digestMfStr));
+      sbSf.append(CRLF);
+      sbSf.append(CRLF);
+      sbSf.append(sbSfEntries);
 
       // Signature file complete
-      byte[] sf = sbSf.toString().getBytes();
-
-      // Write JAR files from JAR to be signed to signed JAR
-      writeJarEntries(jar, jos, signatureName);
+      byte[] sf = sbSf.toString().getBytes(StandardCharsets.UTF_8);
 
       // Write manifest to signed JAR
       writeManifest(manifest, jos);
@@ -302,9 +365,8 @@ public class JarSigner {
       writeSignatureFile(sf, signatureName, jos);
 
       // Create signature block and write it out to signed JAR
-      byte[] sigBlock = createSignatureBlock(sf, privateKey, certificateChain,
-                                             signatureType, tsaUrl, provider);
-      writeSignatureBlock(sigBlock, signatureType, signatureName, jos);
+      byte[] sigBlock = generator.generate(sf);
+      writeSignatureBlock(sigBlock, generator.privateKey, signatureName, jos);
     }
   }
 
@@ -333,6 +395,10 @@ public class JarSigner {
       if (entryName.toUpperCase().endsWith(DSA_SIG_BLOCK_EXT)) {
         return true; // DSA signature block file - ignore
       }
+
+      if (entryName.toUpperCase().endsWith("." + EC_SIG_BLOCK_EXT)) {
+        return true; // EC signature block file - ignore
+      }
     }
 
     return false;
@@ -358,7 +424,9 @@ public class JarSigner {
                 (jarEntry.getName().equalsIgnoreCase(MessageFormat.format(
                     METAINF_FILE_LOC, signatureName, DSA_SIG_BLOCK_EXT))) ||
             (jarEntry.getName().equalsIgnoreCase(MessageFormat.format(
-                METAINF_FILE_LOC, signatureName, RSA_SIG_BLOCK_EXT)))) {
+                METAINF_FILE_LOC, signatureName, RSA_SIG_BLOCK_EXT))) ||
+            (jarEntry.getName().equalsIgnoreCase(MessageFormat.format(
+                METAINF_FILE_LOC, signatureName, EC_SIG_BLOCK_EXT)))) {
           return true;
         }
       }
@@ -372,17 +440,15 @@ public class JarSigner {
    * manifest verbatim. If there is no manifest in JAR it returns a string
    * with those two attributes
    */
-  private static String getManifestMainAttrs(JarFile jar, String signer)
+  private static String getManifestMainAttrs(String manifestContent,
+                                             String signer)
       throws IOException {
 
     StringBuilder sbManifest = new StringBuilder();
 
-    // Get current manifest
-    Manifest manifest = jar.getManifest();
-
     // Write out main attributes to manifest
 
-    if (manifest == null) {
+    if (manifestContent == null) {
       // No current manifest - write out main attributes
       // ("Manifest Version" and "Created By")
       sbManifest.append(
@@ -395,7 +461,7 @@ public class JarSigner {
       sbManifest.append(CRLF);
     } else {
       // Get main attributes as a string to preserve their order
-      String manifestMainAttrs = getManifestMainAttrs(jar);
+      String manifestMainAttrs = getManifestMainAttrs(manifestContent);
 
       // Write them out
       sbManifest.append(manifestMainAttrs);
@@ -408,14 +474,12 @@ public class JarSigner {
   /*
    *  Get all entries' attributes of JAR manifest as a string
    */
-  private static String getManifestEntriesAttrs(JarFile jar)
+  private static String getManifestEntriesAttrs(Manifest manifest,
+                                                String manifestContent)
       throws IOException {
 
     StringBuilder sbManifest = new StringBuilder();
 
-    // Get current manifest
-    Manifest manifest = jar.getManifest();
-
     // Write out entry attributes to manifest
     if (manifest != null) {
       // Get entry attributes
@@ -441,7 +505,8 @@ public class JarSigner {
         }
 
         // Get entry attributes as a string to preserve their order
-        String manifestEntryAttributes = getManifestEntryAttrs(jar, entryName);
+        String manifestEntryAttributes =
+            getManifestEntryAttrs(manifestContent, entryName);
 
         // Write them out
         sbManifest.append(manifestEntryAttributes);
@@ -455,29 +520,51 @@ public class JarSigner {
   }
 
   /*
-   *  Get the digest of the supplied JAR entry as manifest attributes
-   *  "Name" and "<digestType> Digest"
+   *  Get the digest of the supplied JAR entry content as manifest attributes
+   *  "Name" and "<digestType> Digest" and the digest of these attributes as
+   *  signature file attributes
    */
-  private static String getDigestManifestAttrs(JarFile jar, JarEntry jarEntry,
-                                               DigestType digestType)
-      throws IOException, CryptoException {
+  private static EntryDigest getEntryDigest(String entryName, byte[] md,
+                                            DigestType digestType)
+      throws CryptoException {
+
+    String digestAttr = MessageFormat.format(DIGEST_ATTR, digestType.jce());
 
-    // Get input stream to JAR entry's content
-    try (InputStream jis = jar.getInputStream(jarEntry)) {
+    // Write manifest entries for JARs digest
+    String manifestEntry = createAttributeText(NAME_ATTR, entryName) + CRLF +
+                           createAttributeText(digestAttr,
+                                               new String(Base64.encode(md))) +
+                           CRLF + CRLF;
+    byte[] manifestSection = manifestEntry.getBytes(StandardCharsets.UTF_8);
 
-      // Get the digest of content in Base64
-      byte[] md = DigestUtil.getMessageDigest(jis, digestType);
-      byte[] md64 = Base64.encode(md);
-      String md64Str = new String(md64);
+    // Get the digest of manifest entries created above and write this digest
+    // as entries in signature file
+    byte[] mdSf = DigestUtil.getMessageDigest(manifestSection, digestType);
 
-      // Write manifest entries for JARs digest
-      String sbManifestEntry =
-          createAttributeText(NAME_ATTR, jarEntry.getName()) + CRLF +
-          createAttributeText(
-              MessageFormat.format(DIGEST_ATTR, digestType.jce()), md64Str) +
-          CRLF + CRLF;
+    String signatureFileSection =
+        createAttributeText(NAME_ATTR, entryName) + CRLF +
+        createAttributeText(digestAttr, new String(Base64.encode(mdSf))) +
+        CRLF + CRLF;
+
+    return new EntryDigest(manifestSection, signatureFileSection);
+  }
 
-      return sbManifestEntry;
+  private static EntryDigest getEntryDigest(Future<EntryDigest> entryDigest)
+      throws IOException, CryptoException {
+    try {
+      return entryDigest.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(ex.getMessage());
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof CryptoException) {
+        throw (CryptoException)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new IOException(cause);
     }
   }
 
@@ -499,10 +586,8 @@ public class JarSigner {
   /*
    *  Get JAR file manifest's main attributes manifest as a string
    */
-  private static String getManifestMainAttrs(JarFile jar) throws IOException {
-
-    // Get full manifest content
-    String manifestContent = getManifest(jar);
+  private static String getManifestMainAttrs(String manifestContent)
+      throws IOException {
 
     try (StringReader stringReader = new StringReader(manifestContent);
          LineNumberReader lnr = new LineNumberReader(stringReader)) {
@@ -529,12 +614,10 @@ public class JarSigner {
   /*
    *  Get JAR file manifest's attributes for a specified entry as a string
    */
-  private static String getManifestEntryAttrs(JarFile jar, String entryName)
+  private static String getManifestEntryAttrs(String manifestContent,
+                                              String entryName)
       throws IOException {
 
-    // Get full manifest content
-    String manifestContent = getManifest(jar);
-
     try (StringReader in = new StringReader(manifestContent);
          LineNumberReader lnr = new LineNumberReader(in)) {
 
@@ -578,10 +661,30 @@ public class JarSigner {
 
   /*
    * Write out all JAR entries from source JAR to output stream excepting
-   * manifest and existing signature files for the supplied signature name
+   * manifest and existing signature files for the supplied signature name.
+   * Each entry is read once: its content is written out and digested at the
+   * same time, small entries on the executor while the next entries are
+   * compressed. Buffered entries wait for their share of the byte budget.
+   * Returns the entry digests in entry order.
    */
-  private static void writeJarEntries(JarFile jar, JarOutputStream jos,
-                                      String signatureName) throws IOException {
+  private static List<Future<EntryDigest>>
+  writeJarEntries(JarFile jar, JarOutputStream jos, String signatureName,
+                  DigestType digestType, ExecutorService executor,
+                  Semaphore bufferedBytes)
+      throws IOException, CryptoException {
+
+    List<Future<EntryDigest>> entryDigests = new ArrayList<>();
+
+    // Signature files not to write across
+    String sigFileLocation =
+        MessageFormat.format(METAINF_FILE_LOC, signatureName, SIGNATURE_EXT)
+            .toUpperCase();
+    String dsaSigBlockLocation = MessageFormat.format(
+        METAINF_FILE_LOC, signatureName, DSA_SIG_BLOCK_EXT);
+    String rsaSigBlockLocation = MessageFormat.format(
+        METAINF_FILE_LOC, signatureName, RSA_SIG_BLOCK_EXT);
+    String ecSigBlockLocation = MessageFormat.format(
+        METAINF_FILE_LOC, signatureName, EC_SIG_BLOCK_EXT);
 
     for (Enumeration<?> jarEntries = jar.entries();
          jarEntries.hasMoreElements();) {
@@ -589,32 +692,89 @@ public class JarSigner {
       if (!jarEntry.isDirectory()) {
         String entryName = jarEntry.getName();
 
-        // Signature files not to write across
-        String sigFileLocation =
-            MessageFormat.format(METAINF_FILE_LOC, signatureName, SIGNATURE_EXT)
-                .toUpperCase();
-        String dsaSigBlockLocation = MessageFormat.format(
-            METAINF_FILE_LOC, signatureName, DSA_SIG_BLOCK_EXT);
-        String rsaSigBlockLocation = MessageFormat.format(
-            METAINF_FILE_LOC, signatureName, RSA_SIG_BLOCK_EXT);
-
         // Do not write across existing manifest or matching signature files
         if ((!entryName.equalsIgnoreCase(MANIFEST_LOCATION)) &&
             (!entryName.equalsIgnoreCase(sigFileLocation)) &&
             (!entryName.equalsIgnoreCase(dsaSigBlockLocation)) &&
-            (!entryName.equalsIgnoreCase(rsaSigBlockLocation))) {
-          // New JAR entry based on original
-          transferJarEntry(jar, jos, jarEntry);
+            (!entryName.equalsIgnoreCase(rsaSigBlockLocation)) &&
+            (!entryName.equalsIgnoreCase(ecSigBlockLocation))) {
+
+          // Ignore some entries (existing signature files) for signing
+          if (ignoreJarEntry(jarEntry)) {
+            transferJarEntry(jar, jos, jarEntry);
+          } else {
+            entryDigests.add(transferAndDigestJarEntry(
+                jar, jos, jarEntry, digestType, executor, bufferedBytes));
+          }
         }
       } else {
         // simply transfer directory
         transferJarEntry(jar, jos, jarEntry);
       }
     }
+
+    return entryDigests;
   }
 
   private static void transferJarEntry(JarFile jar, JarOutputStream jos,
                                        JarEntry jarEntry) throws IOException {
+    jos.putNextEntry(createJarEntry(jarEntry));
+
+    try (InputStream is = jar.getInputStream(jarEntry)) {
+      IOUtils.copy(is, jos);
+      jos.closeEntry();
+    }
+  }
+
+  private static Future<EntryDigest>
+  transferAndDigestJarEntry(JarFile jar, JarOutputStream jos,
+                            JarEntry jarEntry, DigestType digestType,
+                            ExecutorService executor, Semaphore bufferedBytes)
+      throws IOException, CryptoException {
+    String entryName = jarEntry.getName();
+
+    jos.putNextEntry(createJarEntry(jarEntry));
+
+    try (InputStream is = jar.getInputStream(jarEntry)) {
+      long size = jarEntry.getSize();
+
+      if (size < 0 || size > MAX_BUFFERED_ENTRY_SIZE) {
+        // Large (or unknown size) entry - digest while copying
+        MessageDigest messageDigester =
+            DigestUtil.getMessageDigester(digestType);
+        IOUtils.copy(new DigestInputStream(is, messageDigester), jos);
+        jos.closeEntry();
+
+        return CompletableFuture.completedFuture(
+            getEntryDigest(entryName, messageDigester.digest(), digestType));
+      }
+
+      // The content is held until digested, so its bytes are taken from
+      // the budget before it is read
+      int permits = (int)size;
+      acquire(bufferedBytes, permits);
+      try {
+        byte[] content = IOUtils.toByteArray(is);
+        jos.write(content);
+        jos.closeEntry();
+
+        return executor.submit(() -> {
+          try {
+            return getEntryDigest(
+                entryName, DigestUtil.getMessageDigest(content, digestType),
+                digestType);
+          } finally {
+            bufferedBytes.release(permits);
+          }
+        });
+      } catch (IOException | RuntimeException ex) {
+        bufferedBytes.release(permits);
+        throw ex;
+      }
+    }
+  }
+
+  private static JarEntry createJarEntry(JarEntry jarEntry) {
     JarEntry newJarEntry = new JarEntry(jarEntry.getName());
     newJarEntry.setMethod(jarEntry.getMethod());
     newJarEntry.setTime(jarEntry.getTime());
@@ -624,11 +784,16 @@ public class JarSigner {
       newJarEntry.setSize(jarEntry.getSize());
       newJarEntry.setCrc(jarEntry.getCrc());
     }
-    jos.putNextEntry(newJarEntry);
+    return newJarEntry;
+  }
 
-    try (InputStream is = jar.getInputStream(jarEntry)) {
-      IOUtils.copy(is, jos);
-      jos.closeEntry();
+  private static void acquire(Semaphore semaphore, int permits)
+      throws IOException {
+    try {
+      semaphore.acquire(permits);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(ex.getMessage());
     }
   }
 
@@ -686,18 +851,12 @@ public class JarSigner {
    *  Write signature block to output stream
    */
   private static void
-  writeSignatureBlock(byte[] sigBlock, SignatureType signatureType,
+  writeSignatureBlock(byte[] sigBlock, PrivateKey privateKey,
                       String signatureName, JarOutputStream jos)
       throws IOException {
 
-    // Block's extension depends on signature type
-    String extension = null;
-
-    if (signatureType == SHA1_DSA) {
-      extension = DSA_SIG_BLOCK_EXT;
-    } else {
-      extension = RSA_SIG_BLOCK_EXT;
-    }
+    // Block's extension depends on the key algorithm, as JAR verifiers expect
+    String extension = getSignatureBlockExtension(privateKey);
 
     // Signature block entry
     JarEntry bkJarEntry = new JarEntry(
@@ -718,6 +877,27 @@ public class JarSigner {
     jos.closeEntry();
   }
 
+  /*
+   * Get the signature block extension for a signing key: DSA for DSA keys,
+   * EC for EC and EdDSA keys and RSA for all others, RSASSA-PSS included
+   */
+  private static String getSignatureBlockExtension(PrivateKey privateKey) {
+    String algorithm = privateKey.getAlgorithm().toUpperCase(Locale.ENGLISH);
+
+    switch (algorithm) {
+    case "DSA":
+      return DSA_SIG_BLOCK_EXT;
+    case "EC":
+    case "ECDSA":
+    case "EDDSA":
+    case "ED25519":
+    case "ED448":
+      return EC_SIG_BLOCK_EXT;
+    default:
+      return RSA_SIG_BLOCK_EXT;
+    }
+  }
+
   /*
    *  Create manifest attribute text from the supplied attribute name and value
    */
@@ -751,81 +931,113 @@ public class JarSigner {
     return sb.toString();
   }
 
-  private static byte[] createSignatureBlock(byte[] toSign,
-                                             PrivateKey privateKey,
-                                             X509Certificate[] certificateChain,
-                                             SignatureType signatureType,
-                                             String tsaUrl, Provider provider)
-      throws CryptoException {
-
-    try {
-      List<X509Certificate> certList = new ArrayList<>();
+  /*
+   * Creates signature blocks for signature files. The key material, digest
+   * calculators and certificate store are prepared once, so a generator can
+   * be shared by any number of (concurrent) signings with the same key.
+   */
+  static final class SignatureBlockGenerator {
+    private final PrivateKey privateKey;
+    private final X509Certificate certificate;
+    private final SignatureType signatureType;
+    private final String tsaUrl;
+    private final Provider provider;
+    private final DigestCalculatorProvider digCalcProv;
+    private final JcaCertStore certStore;
+    private final SecureRandom random;
+
+    // Workaround for display issue in verify function of jarsigner for Java
+    // <= 15 see https://github.com/kaikramer/keystore-explorer/issues/293
+    private final DefaultCMSSignatureEncryptionAlgorithmFinder sigEncAlgFinder =
+        new DefaultCMSSignatureEncryptionAlgorithmFinder() {
+          @Override
+          public AlgorithmIdentifier
+          findEncryptionAlgorithm(AlgorithmIdentifier signatureAlgorithm) {
+            List<ASN1ObjectIdentifier> shaRsaIdentifiers =
+                Arrays.asList(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                              PKCSObjectIdentifiers.sha384WithRSAEncryption,
+                              PKCSObjectIdentifiers.sha512WithRSAEncryption);
+
+            // map OIDs for RSAwithSHA256/384/512 to OID for RSAEncryption
+            return shaRsaIdentifiers.contains(signatureAlgorithm.getAlgorithm())
+                ? new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption,
+                                          DERNull.INSTANCE)
+                : super.findEncryptionAlgorithm(signatureAlgorithm);
+          }
+        };
+
+    SignatureBlockGenerator(PrivateKey privateKey,
+                            X509Certificate[] certificateChain,
+                            SignatureType signatureType, String tsaUrl,
+                            Provider provider) throws CryptoException {
+      this.privateKey = privateKey;
+      this.certificate = certificateChain[0];
+      this.signatureType = signatureType;
+      this.tsaUrl = tsaUrl;
+      this.provider = provider;
+
+      try {
+        List<X509Certificate> certList = new ArrayList<>();
+
+        Collections.addAll(certList, certificateChain);
+
+        this.digCalcProv = new JcaDigestCalculatorProviderBuilder()
+                               .setProvider(KSE.BC)
+                               .build();
+        this.certStore = new JcaCertStore(certList);
+        this.random = SecureRandom.getInstance("SHA1PRNG");
+      } catch (Exception ex) {
+        throw new CryptoException(
+            res.getString("SignatureBlockCreationFailed.exception.message"),
+            ex);
+      }
+    }
 
-      Collections.addAll(certList, certificateChain);
+    byte[] generate(byte[] toSign) throws CryptoException {
+      try {
+        JcaContentSignerBuilder csb =
+            new JcaContentSignerBuilder(signatureType.jce())
+                .setSecureRandom(random);
+        if (provider != null) {
+          csb.setProvider(provider);
+        }
 
-      DigestCalculatorProvider digCalcProv =
-          new JcaDigestCalculatorProviderBuilder().setProvider(KSE.BC).build();
-      JcaContentSignerBuilder csb =
-          new JcaContentSignerBuilder(signatureType.jce())
-              .setSecureRandom(SecureRandom.getInstance("SHA1PRNG"));
-      if (provider != null) {
-        csb.setProvider(provider);
-      }
+        JcaSignerInfoGeneratorBuilder siGeneratorBuilder =
+            new JcaSignerInfoGeneratorBuilder(digCalcProv, sigEncAlgFinder);
+
+        // remove cmsAlgorithmProtect for compatibility reasons
+        SignerInfoGenerator sigGen =
+            siGeneratorBuilder.build(csb.build(privateKey), certificate);
+        final CMSAttributeTableGenerator sAttrGen =
+            sigGen.getSignedAttributeTableGenerator();
+        sigGen = new SignerInfoGenerator(
+            sigGen, new DefaultSignedAttributeTableGenerator() {
+              @Override
+              public AttributeTable getAttributes(
+                  @SuppressWarnings("rawtypes") Map parameters) {
+                AttributeTable ret = sAttrGen.getAttributes(parameters);
+                return ret.remove(CMSAttributes.cmsAlgorithmProtect);
+              }
+            }, sigGen.getUnsignedAttributeTableGenerator());
+
+        CMSSignedDataGenerator dataGen = new CMSSignedDataGenerator();
+        dataGen.addSignerInfoGenerator(sigGen);
+        dataGen.addCertificates(certStore);
+
+        CMSSignedData signedData =
+            dataGen.generate(new CMSProcessableByteArray(toSign), true);
+
+        // now let TSA time-stamp the signature
+        if (tsaUrl != null && !tsaUrl.isEmpty()) {
+          signedData = addTimestamp(tsaUrl, signedData);
+        }
 
-      // Workaround for display issue in verify function of jarsigner for Java
-      // <= 15 see https://github.com/kaikramer/keystore-explorer/issues/293
-      DefaultCMSSignatureEncryptionAlgorithmFinder sigEncAlgFinder =
-          new DefaultCMSSignatureEncryptionAlgorithmFinder() {
-            @Override
-            public AlgorithmIdentifier findEncryptionAlgorithm(
-                AlgorithmIdentifier signatureAlgorithm) {
-              List<ASN1ObjectIdentifier> shaRsaIdentifiers =
-                  Arrays.asList(PKCSObjectIdentifiers.sha256WithRSAEncryption,
-                                PKCSObjectIdentifiers.sha384WithRSAEncryption,
-                                PKCSObjectIdentifiers.sha512WithRSAEncryption);
-
-              // map OIDs for RSAwithSHA256/384/512 to OID for RSAEncryption
-              return shaRsaIdentifiers.contains(
-                         signatureAlgorithm.getAlgorithm())
-                  ? new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption,
-                                            DERNull.INSTANCE)
-                  : super.findEncryptionAlgorithm(signatureAlgorithm);
-            }
-          };
-      JcaSignerInfoGeneratorBuilder siGeneratorBuilder =
-          new JcaSignerInfoGeneratorBuilder(digCalcProv, sigEncAlgFinder);
-
-      // remove cmsAlgorithmProtect for compatibility reasons
-      SignerInfoGenerator sigGen =
-          siGeneratorBuilder.build(csb.build(privateKey), certificateChain[0]);
-      final CMSAttributeTableGenerator sAttrGen =
-          sigGen.getSignedAttributeTableGenerator();
-      sigGen = new SignerInfoGenerator(
-          sigGen, new DefaultSignedAttributeTableGenerator() {
-            @Override
-            public AttributeTable getAttributes(
-                @SuppressWarnings("rawtypes") Map parameters) {
-              AttributeTable ret = sAttrGen.getAttributes(parameters);
-              return ret.remove(CMSAttributes.cmsAlgorithmProtect);
-            }
-          }, sigGen.getUnsignedAttributeTableGenerator());
-
-      CMSSignedDataGenerator dataGen = new CMSSignedDataGenerator();
-      dataGen.addSignerInfoGenerator(sigGen);
-      dataGen.addCertificates(new JcaCertStore(certList));
-
-      CMSSignedData signedData =
-          dataGen.generate(new CMSProcessableByteArray(toSign), true);
-
-      // now let TSA time-stamp the signature
-      if (tsaUrl != null && !tsaUrl.isEmpty()) {
-        signedData = addTimestamp(tsaUrl, signedData);
+        return signedData.getEncoded();
+      } catch (Exception ex) {
+        throw new CryptoException(
+            res.getString("SignatureBlockCreationFailed.exception.message"),
+            ex);
       }
-
-      return signedData.getEncoded();
-    } catch (Exception ex) {
-      throw new CryptoException(
-          res.getString("SignatureBlockCreationFailed.exception.message"), ex);
     }
   }
 
@@ -882,4 +1094,14 @@ public class JarSigner {
 
     return sb.toString();
   }
+
+  private static final class EntryDigest {
+    private final byte[] manifestSection;
+    private final String signatureFileSection;
+
+    EntryDigest(byte[] manifestSection, String signatureFileSection) {
+      this.manifestSection = manifestSection;
+      this.signatureFileSection = signatureFileSection;
+    }
+  }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kse.crypto.signing;
+
+import java.io.File;
+
+/**
+ * Outcome of signing a single JAR file in a batch.
+ */
+public class JarSigningResult {
+  private final File jarFile;
+  private final File signedJarFile;
+  private final Exception error;
+  private final long durationMillis;
+
+  JarSigningResult(File jarFile, File signedJarFile, Exception error,
+                   long durationMillis) {
+    this.jarFile = jarFile;
+    this.signedJarFile = signedJarFile;
+    this.error = error;
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+   * Get the JAR file that was signed.
+   *
+   * @return JAR file
+   */
+  public File getJarFile() { return jarFile; }
+
+  /**
+   * Get the file the signed JAR was written to. This is the JAR file itself
+   * when signing in place.
+   *
+   * @return Signed JAR file
+   */
+  public File getSignedJarFile() { return signedJarFile; }
+
+  /**
+   * Get the problem that prevented the JAR file from being signed.
+   *
+   * @return Exception or null if signing succeeded
+   */
+  public Exception getError() { return error; }
+
+  /**
+   * Was the JAR file signed successfully?
+   *
+   * @return True if successful
+   */
+  public boolean isSuccessful() { return error == null; }
+
+  /**
+   * Get the time spent on signing this JAR file.
+   *
+   * @return Duration in milliseconds
+   */
+  public long getDurationMillis() { return durationMillis; }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kse.crypto.signing;
+
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of verifying every entry of a jar file against its signatures.
+ */
+public class JarVerificationResult {
+  private final int entryCount;
+  private final Set<CodeSigner> signers;
+  private final List<String> unsignedEntries;
+  private final List<String> partiallySignedEntries;
+  private final Map<String, String> tamperedEntries;
+
+  JarVerificationResult(int entryCount, Set<CodeSigner> signers,
+                        List<String> unsignedEntries,
+                        List<String> partiallySignedEntries,
+                        Map<String, String> tamperedEntries) {
+    this.entryCount = entryCount;
+    this.signers = Collections.unmodifiableSet(signers);
+    this.unsignedEntries = Collections.unmodifiableList(unsignedEntries);
+    this.partiallySignedEntries =
+        Collections.unmodifiableList(partiallySignedEntries);
+    this.tamperedEntries = Collections.unmodifiableMap(tamperedEntries);
+  }
+
+  /**
+   * Get number of verified entries, not counting directories and the
+   * signature related files in META-INF.
+   *
+   * @return Entry count
+   */
+  public int getEntryCount() { return entryCount; }
+
+  /**
+   * Get all signers found in the jar file.
+   *
+   * @return Signers
+   */
+  public Set<CodeSigner> getSigners() { return signers; }
+
+  /**
+   * Get names of entries that are not covered by any signature.
+   *
+   * @return Sorted entry names
+   */
+  public List<String> getUnsignedEntries() { return unsignedEntries; }
+
+  /**
+   * Get names of entries that are covered by some, but not all signers of the
+   * jar file.
+   *
+   * @return Sorted entry names
+   */
+  public List<String> getPartiallySignedEntries() {
+    return partiallySignedEntries;
+  }
+
+  /**
+   * Get entries whose content does not match the signed digests.
+   *
+   * @return Entry names mapped to the reported problem, sorted by name
+   */
+  public Map<String, String> getTamperedEntries() { return tamperedEntries; }
+
+  /**
+   * Is the jar file signed and is every entry covered by all signers with
+   * matching digests?
+   *
+   * @return True if verified
+   */
+  public boolean isVerified() {
+    return !signers.isEmpty() && unsignedEntries.isEmpty() &&
+        partiallySignedEntries.isEmpty() && tamperedEntries.isEmpty();
+  }
+
+  /**
+   * Get certificates of all signers including their certificate chains.
+   *
+   * @return Unordered array with signer certificates
+   */
+  public X509Certificate[] getSignerCertificates() {
+    Set<Certificate> allSignerCerts = new LinkedHashSet<>();
+
+    for (CodeSigner signer : signers) {
+      allSignerCerts.addAll(signer.getSignerCertPath().getCertificates());
+    }
+
+    return allSignerCerts.stream()
+        .map(X509Certificate.class ::cast)
+        .toArray(X509Certificate[] ::new);
+  }
+}
@@ -21,11 +21,11 @@ package org.kse.crypto.signing;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.nio.file.Files;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.security.GeneralSecurityException;
 import java.security.Signature;
 import java.security.cert.CertificateEncodingException;
@@ -39,7 +39,7 @@ import java.util.ResourceBundle;
 import java.util.TreeMap;
 import org.bouncycastle.util.encoders.Base64;
 import org.kse.crypto.CryptoException;
-import org.kse.utilities.io.CopyUtil;
+import org.kse.utilities.io.AtomicFileOutputStream;
 
 /**
  * Class provides functionality to sign MIDlets.
@@ -81,16 +81,8 @@ public class MidletSigner {
                           X509Certificate[] certificateChain,
                           int certificateNumber)
       throws IOException, CryptoException {
-    File tmpFile = File.createTempFile("kse", "tmp");
-    tmpFile.deleteOnExit();
-
-    sign(jadFile, tmpFile, jarFile, privateKey, certificateChain,
+    sign(jadFile, jadFile, jarFile, privateKey, certificateChain,
          certificateNumber);
-
-    CopyUtil.copyClose(Files.newInputStream(tmpFile.toPath()),
-                       Files.newOutputStream(jadFile.toPath()));
-
-    tmpFile.delete();
   }
 
   /**
@@ -165,13 +157,20 @@ public class MidletSigner {
       sortedJadProperties.put(name, value);
     }
 
-    // Write out new JAD properties to JAD file
-    try (FileWriter fw = new FileWriter(outputJadFile)) {
+    // Write out new JAD properties to JAD file, which replaces the file only
+    // when complete so the JAD file may also be the output JAD file
+    try (AtomicFileOutputStream afos =
+             new AtomicFileOutputStream(outputJadFile)) {
+      Writer writer = new OutputStreamWriter(afos);
+
       for (Entry<String, String> property : sortedJadProperties.entrySet()) {
-        fw.write(MessageFormat.format(JAD_ATTR_TEMPLATE, property.getKey(),
-                                      property.getValue()));
-        fw.write(CRLF);
+        writer.write(MessageFormat.format(JAD_ATTR_TEMPLATE, property.getKey(),
+                                          property.getValue()));
+        writer.write(CRLF);
       }
+
+      writer.flush();
+      afos.commit();
     }
   }
 
@@ -20,21 +20,22 @@
 package org.kse.crypto.signing;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.security.KeyManagementException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import javax.net.ssl.HttpsURLConnection;
+import java.time.Duration;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import org.apache.commons.io.IOUtils;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.cmp.PKIFailureInfo;
 import org.bouncycastle.tsp.TSPException;
@@ -47,6 +48,9 @@ import org.kse.crypto.digest.DigestType;
 
 public class TimeStampingClient {
 
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
   private TimeStampingClient() {}
 
   /**
@@ -106,7 +110,9 @@ public class TimeStampingClient {
   }
 
   /**
-   * Get timestamp token (HTTP communication)
+   * Get timestamp token (HTTP communication). All requests share one HTTP
+   * client, so connections to a TSA are kept alive and reused between
+   * signatures.
    *
    * @return TSA response, raw bytes (RFC 3161 encoded)
    * @throws IOException when request to TSA server fails
@@ -114,56 +120,78 @@ public class TimeStampingClient {
   private static byte[] queryServer(String tsaUrl, byte[] requestBytes)
       throws IOException {
 
-    // Install the all-trusting trust manager
-    SSLContext sc;
+    HttpRequest request;
     try {
-      sc = SSLContext.getInstance("SSL");
-            sc.init(null, new TrustManager[] { new X509TrustManager() {
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
+      request =
+          HttpRequest.newBuilder(new URI(tsaUrl))
+              .timeout(REQUEST_TIMEOUT)
+              .header("Content-Type", "application/timestamp-query")
+              .header("Content-Transfer-Encoding", "binary")
+              .POST(HttpRequest.BodyPublishers.ofByteArray(requestBytes))
+              .build();
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new IOException(e);
+    }
+
+    HttpResponse<byte[]> response;
+    try {
+      response = HttpClientHolder.CLIENT.send(
+          request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
     }
 
-    @
-    Override public void checkClientTrusted(X509Certificate[] certs,
-                                            String authType) {}
+    if (response.statusCode() / 100 != 2) {
+      throw new IOException("Server returned HTTP response code: " +
+                            response.statusCode() + " for URL: " + tsaUrl);
+    }
 
-    @Override
-    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
-  }
-}, new java.security.SecureRandom());
-}
-catch (NoSuchAlgorithmException | KeyManagementException e) {
-  throw new IOException(e);
-}
-SSLSocketFactory defaultSSLSocketFactory =
-    HttpsURLConnection.getDefaultSSLSocketFactory();
-HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-
-try {
-  URL url = new URL(tsaUrl);
-  URLConnection con = url.openConnection();
-  con.setDoInput(true);
-  con.setDoOutput(true);
-  con.setUseCaches(false);
-  con.setRequestProperty("Content-Type", "application/timestamp-query");
-  con.setRequestProperty("Content-Transfer-Encoding", "binary");
-
-  OutputStream out = con.getOutputStream();
-  out.write(requestBytes);
-  out.close();
-
-  InputStream is = con.getInputStream();
-  byte[] respBytes = IOUtils.toByteArray(is);
-  String encoding = con.getContentEncoding();
-  if (encoding != null && encoding.equalsIgnoreCase("base64")) {
-    respBytes = Base64.decode(new String(respBytes));
+    byte[] respBytes = response.body();
+    String encoding =
+        response.headers().firstValue("Content-Encoding").orElse(null);
+    if (encoding != null && encoding.equalsIgnoreCase("base64")) {
+      respBytes = Base64.decode(new String(respBytes));
+    }
+    return respBytes;
   }
-  return respBytes;
 
-} finally {
-  // restore default trust manager
-  HttpsURLConnection.setDefaultSSLSocketFactory(defaultSSLSocketFactory);
-}
-}
+  /*
+   * Lazily created HTTP client with an all-trusting trust manager. It keeps
+   * a pool of keep-alive connections.
+   */
+  private static final class HttpClientHolder {
+    private static final HttpClient CLIENT = createClient();
+
+    private static HttpClient createClient() {
+      // Install the all-trusting trust manager
+      SSLContext sc;
+      try {
+        sc = SSLContext.getInstance("SSL");
+        sc.init(null, new TrustManager[] {new X509TrustManager() {
+                  @Override
+                  public X509Certificate[] getAcceptedIssuers() {
+                    return null;
+                  }
+
+                  @Override
+                  public void checkClientTrusted(X509Certificate[] certs,
+                                                 String authType) {}
+
+                  @Override
+                  public void checkServerTrusted(X509Certificate[] certs,
+                                                 String authType) {}
+                }}, new SecureRandom());
+      } catch (NoSuchAlgorithmException | KeyManagementException e) {
+        throw new IllegalStateException(e);
+      }
+
+      return HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(CONNECT_TIMEOUT)
+          .followRedirects(HttpClient.Redirect.NORMAL)
+          .sslContext(sc)
+          .build();
+    }
+  }
 }
@@ -113,10 +113,15 @@ public class X509Ext {
   private static ResourceBundle res =
       ResourceBundle.getBundle("org/kse/crypto/x509/resources");
 
+  // Rendered values shared by all extension instances, see getStringValue()
+  private static final X509ExtStringCache STRING_VALUE_CACHE =
+      new X509ExtStringCache(256);
+
   private String name;
   private ASN1ObjectIdentifier oid;
   private byte[] value;
   private boolean critical;
+  private String stringValue;
 
   public static final IndentSequence INDENT =
       new IndentSequence(IndentChar.SPACE, 4);
@@ -182,13 +187,30 @@ public class X509Ext {
   public String getName() { return name; }
 
   /**
-   * Get extension value as a string.
+   * Get extension value as a string. The value is only rendered on first
+   * request; the result is kept with this extension and in a bounded cache
+   * shared by all extensions with the same OID and value.
    *
    * @return X509Extension value as a string
    * @throws IOException If an ASN.1 coding problem occurs
    * @throws IOException If an I/O problem occurs
    */
   public String getStringValue() throws IOException {
+    if (stringValue == null) {
+      String rendered = STRING_VALUE_CACHE.get(oid, value);
+
+      if (rendered == null) {
+        rendered = renderStringValue();
+        STRING_VALUE_CACHE.put(oid, value, rendered);
+      }
+
+      stringValue = rendered;
+    }
+
+    return stringValue;
+  }
+
+  private String renderStringValue() throws IOException {
 
     // Convert value from DER encoded octet string value to binary DER encoding
     byte[] octets = unwrapExtension(this.value);
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kse.crypto.x509;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+
+/**
+ * Bounded, least recently used cache of rendered X.509 extension values.
+ * Entries are keyed by extension OID and DER value so that the same extension
+ * seen in several viewers (or several times in one) is only rendered once.
+ */
+final class X509ExtStringCache {
+  private final Map<Key, String> cache;
+
+  /**
+   * Construct a new cache.
+   *
+   * @param maxEntries Maximum number of rendered values to keep
+   */
+  X509ExtStringCache(int maxEntries) {
+    this.cache = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Get a previously rendered value.
+   *
+   * @param oid   Extension OID
+   * @param value Extension value as a DER-encoded OCTET string
+   * @return Rendered value or null if not cached
+   */
+  synchronized String get(ASN1ObjectIdentifier oid, byte[] value) {
+    return cache.get(new Key(oid, value));
+  }
+
+  /**
+   * Store a rendered value.
+   *
+   * @param oid         Extension OID
+   * @param value       Extension value as a DER-encoded OCTET string; must not
+   *                    be modified afterwards
+   * @param stringValue Rendered value
+   */
+  synchronized void put(ASN1ObjectIdentifier oid, byte[] value,
+                        String stringValue) {
+    cache.put(new Key(oid, value), stringValue);
+  }
+
+  private static final class Key {
+    private final ASN1ObjectIdentifier oid;
+    private final byte[] value;
+    private final int hash;
+
+    Key(ASN1ObjectIdentifier oid, byte[] value) {
+      this.oid = oid;
+      this.value = value;
+      this.hash = 31 * oid.hashCode() + Arrays.hashCode(value);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (object == this) {
+        return true;
+      }
+
+      if (!(object instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key)object;
+
+      // hash first as it is cheap and rules out nearly all mismatches
+      return hash == other.hash && oid.equals(other.oid) &&
+          Arrays.equals(value, other.value);
+    }
+  }
+}
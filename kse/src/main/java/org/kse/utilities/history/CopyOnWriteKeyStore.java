@@ -0,0 +1,1109 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.SecretKey;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.Password;
+import org.kse.crypto.keystore.KeyStoreIndex;
+import org.kse.crypto.keystore.KeyStoreType;
+import org.kse.crypto.keystore.KeyStoreUtil;
+import org.kse.crypto.keystore.Pkcs12Writer;
+
+/**
+ * KeyStore of a history state that shares unchanged entries with the states
+ * before it. Each state only records the entries added, replaced or removed
+ * since its previous state, on top of the KeyStore the history was created
+ * with, which is never modified. A concrete KeyStore is only built when the
+ * KeyStore is stored, for PKCS #12 not even then: the encrypted keys of the
+ * unchanged entries are copied from the base KeyStore's encoding. The changes
+ * of a state that cannot be modified any more may be moved to a spill file to
+ * save memory, they are read back when the state is used again.
+ */
+final class CopyOnWriteKeyStore extends KeyStore implements KeyStoreIndex {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/utilities/history/resources");
+
+  // Lookups walk the chain of states, so it is flattened now and then
+  private static final int MAX_DEPTH = 32;
+
+  // Encodings of base KeyStores, the keys of unchanged PKCS #12 entries are
+  // copied from these when storing
+  private static final Map<KeyStore, byte[]> encodedBases =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final Spi spi;
+
+  private CopyOnWriteKeyStore(Spi spi, KeyStore base) {
+    super(spi, base.getProvider(), base.getType());
+    this.spi = spi;
+  }
+
+  /**
+   * Wrap a KeyStore as the first state of a history. The KeyStore must not
+   * be modified afterwards.
+   *
+   * @param base KeyStore
+   * @return KeyStore for the first state
+   */
+  static CopyOnWriteKeyStore wrap(KeyStore base) {
+    return create(new Spi(base, null), base);
+  }
+
+  /**
+   * Create the KeyStore for the next state. This KeyStore cannot be modified
+   * any more afterwards.
+   *
+   * @return KeyStore for the next state
+   */
+  CopyOnWriteKeyStore createNext() {
+    spi.frozen = true;
+
+    Spi next;
+
+    if (spi.depth() >= MAX_DEPTH) {
+      next = new Spi(spi.base, null);
+
+      for (Map.Entry<String, Entry> change : spi.flatten().entrySet()) {
+        next.putChange(change.getKey(), change.getValue());
+      }
+    } else {
+      next = new Spi(spi.base, spi);
+    }
+
+    return create(next, spi.base);
+  }
+
+  /**
+   * Create a read-only copy of this KeyStore. Unlike {@link #createNext()}
+   * this KeyStore stays modifiable, changing it later does not change the
+   * copy. Only the changes of this state are copied, those of the states
+   * before it cannot change any more and are shared.
+   *
+   * @return Read-only copy
+   */
+  CopyOnWriteKeyStore snapshot() {
+    Spi copy = new Spi(spi.base, spi.previous);
+
+    for (Map.Entry<String, Entry> change : spi.changes().entrySet()) {
+      copy.putChange(change.getKey(), change.getValue());
+    }
+
+    copy.frozen = true;
+
+    return create(copy, spi.base);
+  }
+
+  /**
+   * Protect a key the way this KeyStore keeps keys, to be added later with
+   * {@link #setSealedKeyEntry}. Protecting the key dominates the cost of
+   * adding it, unlike setKeyEntry this does not modify the KeyStore and may
+   * run on many threads at once.
+   *
+   * @param alias    Alias the key will be added under
+   * @param key      Key
+   * @param password Password protecting the key
+   * @param chain    Certificate chain, null for a secret key
+   * @return Protected key
+   * @throws KeyStoreException If the KeyStore type cannot hold or protect
+   *     the key
+   */
+  SealedKey sealKey(String alias, Key key, char[] password,
+                    Certificate[] chain) throws KeyStoreException {
+    return new SealedKey(alias, spi.seal(alias, key, password, chain),
+                         chain == null ? null : chain.clone());
+  }
+
+  /**
+   * Add a key protected with {@link #sealKey} under the alias it was
+   * protected for, replacing the entry there. Nothing is encrypted.
+   *
+   * @param sealedKey Protected key
+   * @param password  Password the key was protected with
+   * @throws KeyStoreException If this KeyStore cannot be modified any more
+   */
+  void setSealedKeyEntry(SealedKey sealedKey, char[] password)
+      throws KeyStoreException {
+    spi.checkModifiable();
+
+    spi.putChange(sealedKey.alias,
+                  new Entry(sealedKey.alias, sealedKey.sealedKey,
+                            password == null ? null : password.clone(), null,
+                            sealedKey.chain, null));
+  }
+
+  /**
+   * Is this KeyStore built on the changes of another one?
+   *
+   * @param other KeyStore of another state
+   * @return True if reading this KeyStore reads the other one's changes
+   */
+  boolean isBasedOn(CopyOnWriteKeyStore other) {
+    for (Spi s = spi; s != null; s = s.previous) {
+      if (s == other.spi) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Does an alias refer to the very same entry in this KeyStore and in the
+   * KeyStore of another state of the same history? This does not need the
+   * entry's password and does not decrypt anything.
+   *
+   * @param other KeyStore of another state
+   * @param alias Alias
+   * @return True if the entry was not added, replaced or removed between the
+   *     two states
+   */
+  boolean hasSameEntry(CopyOnWriteKeyStore other, String alias) {
+    if (spi.base != other.spi.base) {
+      return false;
+    }
+
+    Entry entry = spi.findChange(alias);
+    Entry otherEntry = other.spi.findChange(alias);
+
+    if (entry == null || otherEntry == null) {
+      // both still the entry of the base KeyStore
+      return entry == otherEntry;
+    }
+
+    return entry.id == otherEntry.id;
+  }
+
+  /**
+   * Get an identifier of the entry an alias refers to. The identifier changes
+   * whenever the entry is added, replaced or removed.
+   *
+   * @param alias Alias
+   * @return Identifier, 0 for an entry of the base KeyStore
+   */
+  long getEntryId(String alias) {
+    Entry entry = spi.findChange(alias);
+    return entry == null ? 0 : entry.id;
+  }
+
+  @Override
+  public String getCertificateType(String alias) {
+    // entries of an indexed base KeyStore are not decoded for this
+    if (spi.findChange(alias) == null && spi.base instanceof KeyStoreIndex) {
+      return ((KeyStoreIndex)spi.base).getCertificateType(alias);
+    }
+
+    Certificate certificate = spi.engineGetCertificate(alias);
+    return certificate == null ? null : certificate.getType();
+  }
+
+  @Override
+  public byte[][] getEncodedCertificates(String alias) {
+    if (spi.findChange(alias) == null && spi.base instanceof KeyStoreIndex) {
+      return ((KeyStoreIndex)spi.base).getEncodedCertificates(alias);
+    }
+
+    // changed entries hold decoded certificates anyway
+    return null;
+  }
+
+  /**
+   * Get the estimated memory held by the changes of this state.
+   *
+   * @return Size in bytes, 0 if the changes are spilled
+   */
+  long getMemoryUsage() {
+    return spi.getMemoryUsage();
+  }
+
+  /**
+   * Move the changes of this state to a spill file. Only states that cannot
+   * be modified any more are spilled.
+   *
+   * @param spillFile Spill file
+   * @return True if memory was released
+   * @throws IOException If the changes could not be written
+   */
+  boolean spill(HistorySpillFile spillFile) throws IOException {
+    return spi.spill(spillFile);
+  }
+
+  private static CopyOnWriteKeyStore create(Spi spi, KeyStore base) {
+    CopyOnWriteKeyStore keyStore = new CopyOnWriteKeyStore(spi, base);
+
+    try {
+      keyStore.load(null, null);
+    } catch (GeneralSecurityException | IOException ex) {
+      // loading without a stream only marks the KeyStore as initialized
+      throw new IllegalStateException(ex);
+    }
+
+    return keyStore;
+  }
+
+  private static final class Spi extends KeyStoreSpi {
+    private final KeyStore base;
+    private final Spi previous;
+    private final KeyStoreType type;
+    private final boolean ignoreCase;
+    private Map<String, Entry> changes = new HashMap<>();
+    private long memoryUsage;
+    private HistorySpillFile spillFile;
+    private HistorySpillFile.Record spilled;
+    private Map<Long, char[]> spilledPasswords;
+    private volatile boolean frozen;
+
+    Spi(KeyStore base, Spi previous) {
+      this.base = base;
+      this.previous = previous;
+
+      this.type = KeyStoreType.resolveJce(base.getType());
+      this.ignoreCase = type.hasCaseInsensitiveAliases();
+    }
+
+    private int depth() {
+      int depth = 0;
+
+      for (Spi spi = previous; spi != null; spi = spi.previous) {
+        depth++;
+      }
+
+      return depth;
+    }
+
+    /*
+     * Changes of this state, read back from the spill file if necessary.
+     */
+    private synchronized Map<String, Entry> changes() {
+      if (changes == null) {
+        byte[] data = null;
+
+        try {
+          data = spillFile.read(spilled);
+          changes = readChanges(data, spilledPasswords);
+        } catch (IOException | CertificateException ex) {
+          throw new IllegalStateException(
+              res.getString("NoRestoreSpilledState.exception.message"), ex);
+        } finally {
+          if (data != null) {
+            Arrays.fill(data, (byte)0);
+          }
+        }
+      }
+
+      return changes;
+    }
+
+    private synchronized void putChange(String alias, Entry entry) {
+      Entry replaced = changes().put(normalize(alias), entry);
+
+      if (replaced != null) {
+        memoryUsage -= replaced.size;
+      }
+
+      memoryUsage += entry.size;
+    }
+
+    private synchronized long getMemoryUsage() {
+      return changes == null ? 0 : memoryUsage;
+    }
+
+    private synchronized boolean spill(HistorySpillFile spillFile)
+        throws IOException {
+      if (!frozen || changes == null || changes.isEmpty()) {
+        return false;
+      }
+
+      // the changes of a frozen state never change, so they are only written
+      // the first time
+      if (spilled == null || this.spillFile != spillFile) {
+        byte[] data = writeChanges(changes);
+
+        try {
+          spilled = spillFile.write(data);
+        } finally {
+          Arrays.fill(data, (byte)0);
+        }
+
+        this.spillFile = spillFile;
+      }
+
+      // the passwords stay in memory, they are not written to the spill file
+      spilledPasswords = new HashMap<>();
+      for (Entry entry : changes.values()) {
+        if (entry.password != null) {
+          spilledPasswords.put(entry.id, entry.password);
+        }
+      }
+
+      changes = null;
+      return true;
+    }
+
+    private static byte[] writeChanges(Map<String, Entry> changes)
+        throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+      try (DataOutputStream dos = new DataOutputStream(baos)) {
+        dos.writeInt(changes.size());
+
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+          dos.writeUTF(change.getKey());
+          change.getValue().write(dos);
+        }
+      } catch (CertificateEncodingException ex) {
+        throw new IOException(ex);
+      }
+
+      return baos.toByteArray();
+    }
+
+    private static Map<String, Entry> readChanges(byte[] data,
+                                                  Map<Long, char[]> passwords)
+        throws IOException, CertificateException {
+      try (DataInputStream dis =
+               new DataInputStream(new ByteArrayInputStream(data))) {
+        int count = dis.readInt();
+        Map<String, Entry> changes = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+          String alias = dis.readUTF();
+          changes.put(alias, Entry.read(dis, passwords));
+        }
+
+        return changes;
+      }
+    }
+
+    private String normalize(String alias) {
+      return ignoreCase ? alias.toLowerCase(Locale.ENGLISH) : alias;
+    }
+
+    /*
+     * Latest change for the alias in this state or one before it, null if
+     * the entry is the one of the base KeyStore.
+     */
+    private Entry findChange(String alias) {
+      String key = normalize(alias);
+
+      for (Spi spi = this; spi != null; spi = spi.previous) {
+        Entry entry = spi.changes().get(key);
+
+        if (entry != null) {
+          return entry;
+        }
+      }
+
+      return null;
+    }
+
+    private Map<String, Entry> flatten() {
+      List<Spi> chain = new ArrayList<>();
+
+      for (Spi spi = this; spi != null; spi = spi.previous) {
+        chain.add(spi);
+      }
+
+      Collections.reverse(chain);
+
+      Map<String, Entry> flattened = new HashMap<>();
+
+      for (Spi spi : chain) {
+        flattened.putAll(spi.changes());
+      }
+
+      return flattened;
+    }
+
+    private void checkModifiable() throws KeyStoreException {
+      if (frozen) {
+        throw new KeyStoreException(
+            res.getString("NoModifyPreviousState.exception.message"));
+      }
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password)
+        throws NoSuchAlgorithmException, UnrecoverableKeyException {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.getKey(alias, password);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      if (entry.deleted || entry.certificate != null) {
+        return null;
+      }
+
+      try {
+        return getKeyStore(entry).getKey(entry.alias, password);
+      } catch (CryptoException | KeyStoreException ex) {
+        UnrecoverableKeyException uke = new UnrecoverableKeyException(
+            res.getString("NoRecoverKey.exception.message"));
+        uke.initCause(ex);
+        throw uke;
+      }
+    }
+
+    /*
+     * KeyStore holding just the key of an entry, still protected by the
+     * entry's password.
+     */
+    private KeyStore getKeyStore(Entry entry)
+        throws CryptoException, KeyStoreException {
+      KeyStore keyStore = KeyStoreUtil.create(type);
+
+      if (entry.protectedKey != null) {
+        keyStore.setKeyEntry(entry.alias, entry.protectedKey, entry.chain);
+        return keyStore;
+      }
+
+      try {
+        keyStore.load(new ByteArrayInputStream(entry.sealedKey),
+                      getSealPassword());
+        return keyStore;
+      } catch (GeneralSecurityException | IOException ex) {
+        throw new CryptoException(
+            res.getString("NoRecoverKey.exception.message"), ex);
+      }
+    }
+
+    /*
+     * Protect a key with its password the way the KeyStore type does, in a
+     * KeyStore of that type holding just the key. The keys of the history
+     * are only kept in this form.
+     */
+    private byte[] seal(String alias, Key key, char[] password,
+                        Certificate[] chain) throws KeyStoreException {
+      if (key instanceof SecretKey && !type.supportsKeyEntries()) {
+        throw new KeyStoreException(MessageFormat.format(
+            res.getString("NoSecretKeyEntries.exception.message"), type));
+      }
+
+      if (key instanceof PrivateKey && (chain == null || chain.length == 0)) {
+        throw new KeyStoreException(
+            res.getString("NoKeyPairWithoutChain.exception.message"));
+      }
+
+      try {
+        KeyStore keyStore = KeyStoreUtil.create(type);
+        keyStore.setKeyEntry(alias, key, password, chain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        keyStore.store(baos, getSealPassword());
+        return baos.toByteArray();
+      } catch (CryptoException | GeneralSecurityException | IOException ex) {
+        throw new KeyStoreException(
+            res.getString("NoProtectKey.exception.message"), ex);
+      }
+    }
+
+    private char[] getSealPassword() {
+      // the key has its own password, the KeyStore around it needs none;
+      // PKCS #12 then leaves out the MAC and certificate encryption
+      return type == KeyStoreType.PKCS12 ? null : new char[0];
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.getCertificateChain(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      return entry.chain == null ? null : entry.chain.clone();
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.getCertificate(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      if (entry.certificate != null) {
+        return entry.certificate;
+      }
+
+      if (entry.chain != null && entry.chain.length > 0) {
+        return entry.chain[0];
+      }
+
+      return null;
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.getCreationDate(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      return entry.deleted ? null : new Date(entry.creationDate.getTime());
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      checkModifiable();
+
+      byte[] sealedKey = seal(alias, key, password, chain);
+
+      putChange(alias, new Entry(alias, sealedKey,
+                                 password == null ? null : password.clone(),
+                                 null, chain == null ? null : chain.clone(),
+                                 null));
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key,
+                                  Certificate[] chain)
+        throws KeyStoreException {
+      checkModifiable();
+
+      if (type == KeyStoreType.PKCS12 && (chain == null || chain.length == 0)) {
+        throw new KeyStoreException(
+            res.getString("NoKeyPairWithoutChain.exception.message"));
+      }
+
+      putChange(alias, new Entry(alias, null, null, key.clone(),
+                                 chain == null ? null : chain.clone(), null));
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert)
+        throws KeyStoreException {
+      checkModifiable();
+
+      if (engineIsKeyEntry(alias)) {
+        throw new KeyStoreException(
+            res.getString("NoOverwriteKeyEntry.exception.message"));
+      }
+
+      putChange(alias, new Entry(alias, null, null, null, null, cert));
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) throws KeyStoreException {
+      checkModifiable();
+
+      if (engineContainsAlias(alias)) {
+        putChange(alias, Entry.DELETED);
+      }
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+      return Collections.enumeration(getAliases().values());
+    }
+
+    private Map<String, String> getAliases() {
+      Map<String, String> aliases = new LinkedHashMap<>();
+
+      try {
+        for (Enumeration<String> baseAliases = base.aliases();
+             baseAliases.hasMoreElements();) {
+          String alias = baseAliases.nextElement();
+          aliases.put(normalize(alias), alias);
+        }
+      } catch (KeyStoreException ex) {
+        throw new IllegalStateException(ex);
+      }
+
+      for (Map.Entry<String, Entry> change : flatten().entrySet()) {
+        if (change.getValue().deleted) {
+          aliases.remove(change.getKey());
+        } else {
+          aliases.put(change.getKey(), change.getValue().alias);
+        }
+      }
+
+      return aliases;
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.containsAlias(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      return !entry.deleted;
+    }
+
+    @Override
+    public int engineSize() {
+      return getAliases().size();
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.isKeyEntry(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      return !entry.deleted && entry.certificate == null;
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+      Entry entry = findChange(alias);
+
+      if (entry == null) {
+        try {
+          return base.isCertificateEntry(alias);
+        } catch (KeyStoreException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      return !entry.deleted && entry.certificate != null;
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+      for (String alias : getAliases().values()) {
+        if (cert.equals(engineGetCertificate(alias))) {
+          return alias;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password)
+        throws IOException, NoSuchAlgorithmException, CertificateException {
+      try {
+        if (type == KeyStoreType.PKCS12 && password != null) {
+          try {
+            storeIncrementally(stream, password);
+            return;
+          } catch (CryptoException ex) {
+            // store the usual way below
+          }
+        }
+
+        materialize().store(stream, password);
+      } catch (KeyStoreException | CryptoException ex) {
+        throw new IOException(ex);
+      }
+    }
+
+    /*
+     * Store a PKCS #12 KeyStore without encrypting the keys of entries that
+     * are unchanged since the base KeyStore again.
+     */
+    private void storeIncrementally(OutputStream stream, char[] password)
+        throws CryptoException, IOException, KeyStoreException {
+      Map<String, Entry> flattened = flatten();
+
+      List<String> unchanged = new ArrayList<>();
+
+      for (Enumeration<String> aliases = base.aliases();
+           aliases.hasMoreElements();) {
+        String alias = aliases.nextElement();
+
+        if (!flattened.containsKey(normalize(alias))) {
+          unchanged.add(alias);
+        }
+      }
+
+      // sealed keys are already encrypted, their key bags are copied as well
+      KeyStore changed = KeyStoreUtil.create(KeyStoreType.PKCS12);
+      List<String> changedAliases = new ArrayList<>();
+      List<Entry> sealed = new ArrayList<>();
+
+      for (Entry entry : flattened.values()) {
+        if (entry.sealedKey != null) {
+          sealed.add(entry);
+        } else if (!entry.deleted) {
+          setEntry(changed, entry);
+          changedAliases.add(entry.alias);
+        }
+      }
+
+      Pkcs12Writer writer = new Pkcs12Writer();
+      writer.addEntries(base, getEncodedBase(), unchanged);
+      writer.addEntries(changed, encode(changed), changedAliases);
+
+      for (Entry entry : sealed) {
+        writer.addEntries(getKeyStore(entry), entry.sealedKey,
+                          Collections.singletonList(entry.alias));
+      }
+
+      writer.write(stream, new Password(password));
+    }
+
+    private byte[] getEncodedBase() throws CryptoException {
+      byte[] encoded = encodedBases.get(base);
+
+      if (encoded == null) {
+        encoded = encode(base);
+        encodedBases.put(base, encoded);
+      }
+
+      return encoded;
+    }
+
+    private static byte[] encode(KeyStore keyStore) throws CryptoException {
+      // the keys are encrypted with their own passwords when they are set, no
+      // need to protect the rest
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+      try {
+        keyStore.store(baos, null);
+      } catch (GeneralSecurityException | IOException ex) {
+        throw new CryptoException(
+            res.getString("NoEncodeStateKeyStore.exception.message"), ex);
+      }
+
+      return baos.toByteArray();
+    }
+
+    /*
+     * Build a concrete KeyStore: a copy of the base KeyStore with the
+     * changes of all states up to this one applied.
+     */
+    private KeyStore materialize() throws CryptoException, KeyStoreException {
+      Map<String, Entry> flattened = flatten();
+
+      if (flattened.isEmpty()) {
+        return base;
+      }
+
+      KeyStore keyStore = KeyStoreUtil.copy(base);
+
+      for (Map.Entry<String, Entry> change : flattened.entrySet()) {
+        Entry entry = change.getValue();
+
+        if (entry.deleted) {
+          // alias of the base KeyStore, which may differ in case
+          String alias = change.getKey();
+          if (keyStore.containsAlias(alias)) {
+            keyStore.deleteEntry(alias);
+          }
+          continue;
+        }
+
+        if (keyStore.containsAlias(entry.alias)) {
+          keyStore.deleteEntry(entry.alias);
+        }
+
+        setEntry(keyStore, entry);
+      }
+
+      return keyStore;
+    }
+
+    private void setEntry(KeyStore keyStore, Entry entry)
+        throws CryptoException, KeyStoreException {
+      if (entry.certificate != null) {
+        keyStore.setCertificateEntry(entry.alias, entry.certificate);
+      } else if (entry.protectedKey != null) {
+        keyStore.setKeyEntry(entry.alias, entry.protectedKey, entry.chain);
+      } else {
+        // the key is only decrypted to move it into the concrete KeyStore
+        try {
+          Key key = getKeyStore(entry).getKey(entry.alias, entry.password);
+          keyStore.setKeyEntry(entry.alias, key, entry.password, entry.chain);
+        } catch (GeneralSecurityException ex) {
+          throw new CryptoException(
+              res.getString("NoRecoverKey.exception.message"), ex);
+        }
+      }
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password)
+        throws IOException {
+      if (stream != null) {
+        throw new IOException(
+            res.getString("NoLoadStateKeyStore.exception.message"));
+      }
+    }
+  }
+
+  /*
+   * Entry added or replaced in a state, or the marker for a removed one. Keys
+   * are only held protected by their password, the password is needed to
+   * move them into a concrete KeyStore.
+   */
+  /**
+   * Key protected for a KeyStore but not added to it yet.
+   */
+  static final class SealedKey {
+    private final String alias;
+    private final byte[] sealedKey;
+    private final Certificate[] chain;
+
+    private SealedKey(String alias, byte[] sealedKey, Certificate[] chain) {
+      this.alias = alias;
+      this.sealedKey = sealedKey;
+      this.chain = chain;
+    }
+
+    /**
+     * Get the alias the key was protected for.
+     *
+     * @return Alias
+     */
+    String getAlias() { return alias; }
+  }
+
+  private static final class Entry {
+    // rough overhead of an entry and its map node besides the encodings
+    private static final int OVERHEAD = 256;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    static final Entry DELETED = new Entry(null, null, null, null, null, null);
+
+    // identifies the entry across states, also after it has been spilled
+    final long id;
+
+    final String alias;
+    final byte[] sealedKey;
+    final char[] password;
+    final byte[] protectedKey;
+    final Certificate[] chain;
+    final Certificate certificate;
+    final Date creationDate;
+    final boolean deleted;
+    final long size;
+
+    Entry(String alias, byte[] sealedKey, char[] password, byte[] protectedKey,
+          Certificate[] chain, Certificate certificate) {
+      this(NEXT_ID.incrementAndGet(), alias, sealedKey, password, protectedKey,
+           chain, certificate, new Date());
+    }
+
+    private Entry(long id, String alias, byte[] sealedKey, char[] password,
+                  byte[] protectedKey, Certificate[] chain,
+                  Certificate certificate, Date creationDate) {
+      this.id = id;
+      this.alias = alias;
+      this.sealedKey = sealedKey;
+      this.password = password;
+      this.protectedKey = protectedKey;
+      this.chain = chain;
+      this.certificate = certificate;
+      this.creationDate = creationDate;
+      this.deleted = alias == null;
+      this.size = estimateSize();
+    }
+
+    private long estimateSize() {
+      long size = OVERHEAD;
+
+      if (sealedKey != null) {
+        size += sealedKey.length;
+      }
+
+      if (protectedKey != null) {
+        size += protectedKey.length;
+      }
+
+      try {
+        if (chain != null) {
+          for (Certificate cert : chain) {
+            size += cert.getEncoded().length;
+          }
+        }
+
+        if (certificate != null) {
+          size += certificate.getEncoded().length;
+        }
+      } catch (CertificateEncodingException ex) {
+        // only an estimate
+      }
+
+      return size;
+    }
+
+    /*
+     * Write the entry for the spill file: the protected key and the
+     * certificate encodings, never the password.
+     */
+    void write(DataOutputStream dos)
+        throws IOException, CertificateEncodingException {
+      dos.writeLong(id);
+      dos.writeBoolean(deleted);
+
+      if (deleted) {
+        return;
+      }
+
+      dos.writeUTF(alias);
+      dos.writeLong(creationDate.getTime());
+      writeBytes(dos, sealedKey);
+      writeBytes(dos, protectedKey);
+      writeCertificates(dos, chain);
+      writeCertificates(
+          dos, certificate == null ? null : new Certificate[] {certificate});
+    }
+
+    /*
+     * Read an entry of the spill file.
+     */
+    static Entry read(DataInputStream dis, Map<Long, char[]> passwords)
+        throws IOException, CertificateException {
+      long id = dis.readLong();
+
+      if (dis.readBoolean()) {
+        return DELETED;
+      }
+
+      String alias = dis.readUTF();
+      Date creationDate = new Date(dis.readLong());
+      byte[] sealedKey = readBytes(dis);
+      byte[] protectedKey = readBytes(dis);
+      Certificate[] chain = readCertificates(dis);
+      Certificate[] certificate = readCertificates(dis);
+
+      return new Entry(id, alias, sealedKey, passwords.get(id), protectedKey,
+                       chain, certificate == null ? null : certificate[0],
+                       creationDate);
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes)
+        throws IOException {
+      if (bytes == null) {
+        dos.writeInt(-1);
+        return;
+      }
+
+      dos.writeInt(bytes.length);
+      dos.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+      int length = dis.readInt();
+
+      if (length < 0) {
+        return null;
+      }
+
+      byte[] bytes = new byte[length];
+      dis.readFully(bytes);
+      return bytes;
+    }
+
+    private static void writeCertificates(DataOutputStream dos,
+                                          Certificate[] certificates)
+        throws IOException, CertificateEncodingException {
+      if (certificates == null) {
+        dos.writeInt(-1);
+        return;
+      }
+
+      dos.writeInt(certificates.length);
+
+      for (Certificate certificate : certificates) {
+        dos.writeUTF(certificate.getType());
+        writeBytes(dos, certificate.getEncoded());
+      }
+    }
+
+    private static Certificate[] readCertificates(DataInputStream dis)
+        throws IOException, CertificateException {
+      int count = dis.readInt();
+
+      if (count < 0) {
+        return null;
+      }
+
+      Certificate[] certificates = new Certificate[count];
+
+      for (int i = 0; i < count; i++) {
+        CertificateFactory cf = CertificateFactory.getInstance(dis.readUTF());
+        certificates[i] = cf.generateCertificate(
+            new ByteArrayInputStream(readBytes(dis)));
+      }
+
+      return certificates;
+    }
+  }
+}
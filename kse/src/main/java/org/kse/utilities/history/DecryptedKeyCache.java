@@ -0,0 +1,250 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.history;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.kse.KSE;
+
+/**
+ * Decrypted keys of the entries of a history state, so that using a key again
+ * does not repeat the key derivation of its protection. Only the encodings of
+ * the keys are held and every lookup decodes a new key object, so the cache
+ * can overwrite the encodings when it evicts them without breaking keys that
+ * are still in use. Keys not used for the idle timeout are evicted.
+ */
+final class DecryptedKeyCache {
+  /**
+   * Default time after which a key that has not been used is evicted
+   */
+  static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+  private static final ScheduledExecutorService sweeper =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KSE key cache sweeper");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final Map<String, CachedKey> keys = new HashMap<>();
+  private final long idleTimeout;
+  private ScheduledFuture<?> sweep;
+
+  /**
+   * Create a cache evicting keys after the default idle timeout.
+   */
+  DecryptedKeyCache() {
+    this(DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Create a cache.
+   *
+   * @param idleTimeout Time in milliseconds after which a key that has not
+   *     been used is evicted
+   */
+  DecryptedKeyCache(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Get a cached key.
+   *
+   * @param alias    Alias of the entry
+   * @param entryId  Identifies the entry under the alias, a key cached for
+   *                 another entry under the same alias is not returned
+   * @param password Password the key was recovered with
+   * @return A new key object or null if the key is not cached
+   */
+  synchronized Key get(String alias, long entryId, char[] password) {
+    CachedKey cachedKey = keys.get(alias);
+
+    if (cachedKey == null) {
+      return null;
+    }
+
+    if (cachedKey.entryId != entryId ||
+        !Arrays.equals(cachedKey.password, password)) {
+      return null;
+    }
+
+    try {
+      Key key = cachedKey.decode();
+      cachedKey.lastUsed = System.currentTimeMillis();
+      return key;
+    } catch (GeneralSecurityException ex) {
+      // cannot be decoded again, recover it from the KeyStore every time
+      remove(alias);
+      return null;
+    }
+  }
+
+  /**
+   * Cache a key. Keys that cannot be encoded, e.g. those of hardware tokens,
+   * are not cached.
+   *
+   * @param alias    Alias of the entry
+   * @param entryId  Identifies the entry under the alias
+   * @param password Password the key was recovered with
+   * @param key      The key
+   */
+  synchronized void put(String alias, long entryId, char[] password, Key key) {
+    byte[] encoded = key.getEncoded();
+
+    if (encoded == null) {
+      return;
+    }
+
+    remove(alias);
+    keys.put(alias, new CachedKey(entryId, password, key, encoded));
+
+    if (sweep == null) {
+      scheduleSweep(idleTimeout);
+    }
+  }
+
+  /**
+   * Evict the key of an entry.
+   *
+   * @param alias Alias of the entry
+   */
+  synchronized void remove(String alias) {
+    CachedKey cachedKey = keys.remove(alias);
+
+    if (cachedKey != null) {
+      cachedKey.destroy();
+    }
+  }
+
+  /**
+   * Evict all keys.
+   */
+  synchronized void clear() {
+    for (CachedKey cachedKey : keys.values()) {
+      cachedKey.destroy();
+    }
+
+    keys.clear();
+
+    if (sweep != null) {
+      sweep.cancel(false);
+      sweep = null;
+    }
+  }
+
+  private synchronized void sweep() {
+    sweep = null;
+
+    long now = System.currentTimeMillis();
+    long nextExpiry = Long.MAX_VALUE;
+
+    for (Iterator<CachedKey> it = keys.values().iterator(); it.hasNext();) {
+      CachedKey cachedKey = it.next();
+      long expiry = cachedKey.lastUsed + idleTimeout;
+
+      if (expiry <= now) {
+        cachedKey.destroy();
+        it.remove();
+      } else {
+        nextExpiry = Math.min(nextExpiry, expiry);
+      }
+    }
+
+    if (!keys.isEmpty()) {
+      scheduleSweep(nextExpiry - now);
+    }
+  }
+
+  private void scheduleSweep(long delay) {
+    sweep = sweeper.schedule(this::sweep, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static final class CachedKey {
+    private final long entryId;
+    private final char[] password;
+    private final String algorithm;
+    private final byte[] encoded;
+    private final KeyKind kind;
+    private final Provider provider;
+    private long lastUsed = System.currentTimeMillis();
+
+    CachedKey(long entryId, char[] password, Key key, byte[] encoded) {
+      this.entryId = entryId;
+      this.password = password == null ? null : password.clone();
+      this.algorithm = key.getAlgorithm();
+      this.encoded = encoded;
+
+      if (key instanceof SecretKey) {
+        kind = KeyKind.SECRET;
+      } else if (key instanceof PrivateKey) {
+        kind = KeyKind.PRIVATE;
+      } else {
+        kind = KeyKind.PUBLIC;
+      }
+
+      // decode with the provider the KeyStore decoded with
+      provider = key.getClass().getName().startsWith("org.bouncycastle.")
+                     ? KSE.BC
+                     : null;
+    }
+
+    Key decode() throws GeneralSecurityException {
+      if (kind == KeyKind.SECRET) {
+        return new SecretKeySpec(encoded, algorithm);
+      }
+
+      KeyFactory keyFactory = provider == null
+                                  ? KeyFactory.getInstance(algorithm)
+                                  : KeyFactory.getInstance(algorithm, provider);
+
+      if (kind == KeyKind.PRIVATE) {
+        return keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+      }
+
+      return keyFactory.generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    void destroy() {
+      Arrays.fill(encoded, (byte)0);
+
+      if (password != null) {
+        Arrays.fill(password, '\0');
+      }
+    }
+  }
+
+  private enum KeyKind { SECRET, PRIVATE, PUBLIC }
+}
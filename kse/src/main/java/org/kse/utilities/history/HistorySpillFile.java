@@ -0,0 +1,171 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Temporary file that history states are moved to when the history exceeds
+ * its memory budget. Records are compressed and then encrypted with a key
+ * that only exists in memory, so the file is useless once the history is
+ * gone.
+ */
+final class HistorySpillFile {
+  private static final String CIPHER = "AES/GCM/NoPadding";
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH = 128;
+
+  private final SecureRandom random = new SecureRandom();
+  private SecretKey key;
+  private File file;
+  private RandomAccessFile raf;
+
+  /**
+   * Location of a record in the spill file.
+   */
+  static final class Record {
+    private final long offset;
+    private final int length;
+    private final byte[] iv;
+
+    private Record(long offset, int length, byte[] iv) {
+      this.offset = offset;
+      this.length = length;
+      this.iv = iv;
+    }
+  }
+
+  /**
+   * Append a record.
+   *
+   * @param data Data to store
+   * @return Location of the record
+   * @throws IOException If the record could not be written
+   */
+  synchronized Record write(byte[] data) throws IOException {
+    try {
+      open();
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (DeflaterOutputStream dos = new DeflaterOutputStream(baos)) {
+        dos.write(data);
+      }
+
+      byte[] iv = new byte[IV_LENGTH];
+      random.nextBytes(iv);
+
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.ENCRYPT_MODE, key,
+                  new GCMParameterSpec(TAG_LENGTH, iv));
+
+      byte[] compressed = baos.toByteArray();
+      byte[] encrypted;
+      try {
+        encrypted = cipher.doFinal(compressed);
+      } finally {
+        Arrays.fill(compressed, (byte)0);
+      }
+
+      long offset = raf.length();
+      raf.seek(offset);
+      raf.write(encrypted);
+
+      return new Record(offset, encrypted.length, iv);
+    } catch (GeneralSecurityException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Read a record.
+   *
+   * @param record Location of the record
+   * @return Stored data
+   * @throws IOException If the record could not be read
+   */
+  synchronized byte[] read(Record record) throws IOException {
+    if (raf == null) {
+      throw new IOException("History spill file is closed");
+    }
+
+    try {
+      byte[] encrypted = new byte[record.length];
+      raf.seek(record.offset);
+      raf.readFully(encrypted);
+
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.DECRYPT_MODE, key,
+                  new GCMParameterSpec(TAG_LENGTH, record.iv));
+      byte[] compressed = cipher.doFinal(encrypted);
+
+      try (InflaterInputStream iis =
+               new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+        return IOUtils.toByteArray(iis);
+      } finally {
+        Arrays.fill(compressed, (byte)0);
+      }
+    } catch (GeneralSecurityException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Close and delete the spill file.
+   */
+  synchronized void close() {
+    IOUtils.closeQuietly(raf);
+    raf = null;
+    key = null;
+
+    if (file != null) {
+      file.delete();
+      file = null;
+    }
+  }
+
+  private void open() throws IOException, GeneralSecurityException {
+    if (raf != null) {
+      return;
+    }
+
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256, random);
+    key = keyGenerator.generateKey();
+
+    file = File.createTempFile("kse-history", ".tmp");
+    file.deleteOnExit();
+    raf = new RandomAccessFile(file, "rw");
+  }
+}
@@ -20,26 +20,38 @@
 package org.kse.utilities.history;
 
 import java.io.File;
+import java.io.IOException;
 import java.security.KeyStore;
 import java.security.Provider;
+import java.util.ArrayList;
+import java.util.List;
 import org.kse.crypto.Password;
 import org.kse.crypto.keystore.KeyStoreType;
 
 /**
- * Undo/redo history for a KeyStore.
+ * Undo/redo history for a KeyStore. When the states of the history hold more
+ * than the memory budget, the states furthest from the current state are moved
+ * to an encrypted temporary file until they are used again.
  */
 public class KeyStoreHistory {
+  /**
+   * Default memory budget for the states of a history in bytes
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
   private KeyStoreState initialState;
   private KeyStoreState currentState;
   private KeyStoreState savedState;
   private File file;
   private String name;
   private Provider explicitProvider;
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private HistorySpillFile spillFile;
 
   /**
    * Create a new history for an unsaved KeyStore.
    *
-   * @param keyStore         KeyStore
+   * @param keyStore         KeyStore, must not be modified afterwards
    * @param name             KeyStore name
    * @param password         KeyStore password
    * @param explicitProvider
@@ -52,7 +64,8 @@ public class KeyStoreHistory {
     KeyStoreType type = KeyStoreType.resolveJce(keyStore.getType());
 
     if (type.isFileBased()) {
-      initialState = new KeyStoreState(this, keyStore, password);
+      initialState = new KeyStoreState(
+          this, CopyOnWriteKeyStore.wrap(keyStore), password);
     } else {
       // we cannot handle state (which implies creating copies of the keystore
       // in memory) for smartcards or alike
@@ -65,14 +78,15 @@ public class KeyStoreHistory {
   /**
    * Create a new history for a saved KeyStore.
    *
-   * @param keyStore KeyStore
+   * @param keyStore KeyStore, must not be modified afterwards
    * @param file     Save file
    * @param password KeyStore password
    */
   public KeyStoreHistory(KeyStore keyStore, File file, Password password) {
     this.file = file;
     this.name = file.getName();
-    initialState = new KeyStoreState(this, keyStore, password);
+    initialState = new KeyStoreState(
+        this, CopyOnWriteKeyStore.wrap(keyStore), password);
     currentState = initialState;
     savedState = initialState;
   }
@@ -100,6 +114,107 @@ public class KeyStoreHistory {
     }
   }
 
+  /**
+   * Get the memory budget for the states of the history.
+   *
+   * @return Budget in bytes
+   */
+  public long getMemoryBudget() { return memoryBudget; }
+
+  /**
+   * Set the memory budget for the states of the history. States beyond the
+   * budget are moved to a temporary file.
+   *
+   * @param memoryBudget Budget in bytes
+   */
+  public void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    enforceMemoryBudget();
+  }
+
+  /**
+   * Release the resources held by the history. The history cannot be used
+   * any more afterwards.
+   */
+  public void dispose() {
+    for (KeyStoreState state = initialState; state != null;
+         state = state.nextState()) {
+      state.clearKeyCache();
+    }
+
+    if (spillFile != null) {
+      spillFile.close();
+      spillFile = null;
+    }
+  }
+
+  /**
+   * Move the states furthest from the current state to the spill file until
+   * the states in memory fit the memory budget. The current state and the
+   * states it is built on stay in memory.
+   */
+  void enforceMemoryBudget() {
+    List<KeyStoreState> states = new ArrayList<>();
+    int current = 0;
+    long memoryUsage = 0;
+
+    for (KeyStoreState state = initialState; state != null;
+         state = state.nextState()) {
+      if (state == currentState) {
+        current = states.size();
+      }
+
+      states.add(state);
+
+      if (state.getKeyStore() instanceof CopyOnWriteKeyStore) {
+        memoryUsage +=
+            ((CopyOnWriteKeyStore)state.getKeyStore()).getMemoryUsage();
+      }
+    }
+
+    if (memoryUsage <= memoryBudget ||
+        !(currentState.getKeyStore() instanceof CopyOnWriteKeyStore)) {
+      return;
+    }
+
+    CopyOnWriteKeyStore currentKeyStore =
+        (CopyOnWriteKeyStore)currentState.getKeyStore();
+
+    // furthest first, redo states before undo states at the same distance
+    int distance = Math.max(current, states.size() - 1 - current);
+
+    for (; distance > 0 && memoryUsage > memoryBudget; distance--) {
+      for (int index : new int[] {current + distance, current - distance}) {
+        if (index < 0 || index >= states.size() ||
+            !(states.get(index).getKeyStore() instanceof CopyOnWriteKeyStore)) {
+          continue;
+        }
+
+        CopyOnWriteKeyStore keyStore =
+            (CopyOnWriteKeyStore)states.get(index).getKeyStore();
+
+        if (currentKeyStore.isBasedOn(keyStore)) {
+          continue;
+        }
+
+        long released = keyStore.getMemoryUsage();
+
+        try {
+          if (spillFile == null) {
+            spillFile = new HistorySpillFile();
+          }
+
+          if (keyStore.spill(spillFile)) {
+            memoryUsage -= released;
+          }
+        } catch (IOException ex) {
+          // keep the remaining states in memory
+          return;
+        }
+      }
+    }
+  }
+
   /**
    * Get the KeyStore's save file.
    *
@@ -142,7 +257,14 @@ public class KeyStoreHistory {
 
   KeyStoreState getInitialState() { return initialState; }
 
-  void setCurrentState(KeyStoreState state) { currentState = state; }
+  void setCurrentState(KeyStoreState state) {
+    // keys stay decrypted only for the state being worked with
+    if (currentState != null && currentState != state) {
+      currentState.clearKeyCache();
+    }
+
+    currentState = state;
+  }
 
   KeyStoreState getSavedState() { return savedState; }
 
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.history;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.SecretKey;
+import org.kse.crypto.CryptoException;
+import org.kse.crypto.Password;
+import org.kse.crypto.keystore.EntryFingerprint;
+import org.kse.crypto.keystore.KeyStoreType;
+
+/**
+ * Merges the entries of other KeyStores into a state as a single step of its
+ * history. Reading the entries of the sources runs concurrently on a bounded
+ * number of threads, that includes recovering their keys and protecting them
+ * again for the merged KeyStore. The entries are then added to one next state
+ * in the order of the sources, so how conflicts are resolved does not depend
+ * on timing. Entries the type of the
+ * merged KeyStore cannot hold are left out.
+ */
+public final class KeyStoreMerger {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/utilities/history/resources");
+
+  // Fewer entries per task cost more in scheduling than they gain
+  private static final int MIN_CHUNK_SIZE = 64;
+
+  /**
+   * What to do with an entry whose alias is already taken.
+   */
+  public enum ConflictPolicy {
+    /**
+     * Keep the entry already there.
+     */
+    SKIP,
+
+    /**
+     * Replace the entry already there.
+     */
+    OVERWRITE,
+
+    /**
+     * Add the entry under a free alias.
+     */
+    RENAME,
+
+    /**
+     * Leave out entries already there under any alias, add the others under
+     * a free alias.
+     */
+    DEDUPLICATE
+  }
+
+  /**
+   * KeyStore to merge from.
+   */
+  public static final class Source {
+    private final KeyStore keyStore;
+    private final Password password;
+
+    /**
+     * Create a source.
+     *
+     * @param keyStore KeyStore
+     * @param password Password of its key entries or null if it has none
+     */
+    public Source(KeyStore keyStore, Password password) {
+      this.keyStore = keyStore;
+      this.password = password;
+    }
+  }
+
+  /**
+   * Outcome of a merge.
+   */
+  public static final class Result {
+    private final KeyStoreState state;
+    private final int merged;
+    private final int renamed;
+    private final int skipped;
+    private final List<String> unreadable;
+    private final List<String> rejected;
+
+    private Result(KeyStoreState state, int merged, int renamed, int skipped,
+                   List<String> unreadable, List<String> rejected) {
+      this.state = state;
+      this.merged = merged;
+      this.renamed = renamed;
+      this.skipped = skipped;
+      this.unreadable = Collections.unmodifiableList(unreadable);
+      this.rejected = Collections.unmodifiableList(rejected);
+    }
+
+    /**
+     * Get the state holding the merged entries. It is not part of the
+     * history yet, append it to the merged state.
+     *
+     * @return Next state
+     */
+    public KeyStoreState getState() { return state; }
+
+    /**
+     * Get the number of entries added or replaced.
+     *
+     * @return Number of entries, including the renamed ones
+     */
+    public int getMerged() { return merged; }
+
+    /**
+     * Get the number of entries added under another alias.
+     *
+     * @return Number of entries
+     */
+    public int getRenamed() { return renamed; }
+
+    /**
+     * Get the number of entries left out as their alias was taken or they
+     * were there already.
+     *
+     * @return Number of entries
+     */
+    public int getSkipped() { return skipped; }
+
+    /**
+     * Get the aliases of the entries that could not be read, e.g. because
+     * their key is protected by another password.
+     *
+     * @return Aliases in the order of the sources
+     */
+    public List<String> getUnreadable() { return unreadable; }
+
+    /**
+     * Get the aliases of the entries the merged KeyStore cannot hold, e.g.
+     * secret keys merged into a JKS KeyStore or private keys without a
+     * certificate chain.
+     *
+     * @return Aliases in the order of the sources
+     */
+    public List<String> getRejected() { return rejected; }
+  }
+
+  private KeyStoreMerger() {}
+
+  /**
+   * Merge the entries of KeyStores into the basis for the next state of the
+   * merged state. Create the basis with {@link
+   * KeyStoreState#createBasisForNextState} where the merged state is
+   * changed, the merged state cannot change any more afterwards and the
+   * merge can safely read the basis in the background. Keys are protected by
+   * the password of the basis' KeyStore, if it has none by the password of
+   * their source.
+   *
+   * @param nextState   Basis for the next state, merged into
+   * @param sources     KeyStores merged from, with the overwrite policy the
+   *                    entries of later ones win
+   * @param policy      What to do with entries whose alias is taken
+   * @param parallelism Maximum number of threads reading entries
+   * @return Outcome with the next state
+   * @throws CryptoException If a KeyStore could not be read
+   */
+  public static Result merge(KeyStoreState nextState, List<Source> sources,
+                             ConflictPolicy policy, int parallelism)
+      throws CryptoException {
+    boolean deduplicate = policy == ConflictPolicy.DEDUPLICATE;
+    List<List<Future<List<ReadEntry>>>> reads = new ArrayList<>();
+    List<Future<List<ReadEntry>>> targetReads = new ArrayList<>();
+    List<List<ReadEntry>> sourceEntries = new ArrayList<>();
+    Set<ByteBuffer> fingerprints = new HashSet<>();
+
+    KeyStore keyStore = nextState.getKeyStore();
+    KeyStoreType type = nextState.getType();
+    Password statePassword = nextState.getPassword();
+    List<Password> keyPasswords = new ArrayList<>();
+
+    for (Source source : sources) {
+      keyPasswords.add(statePassword != null && !statePassword.isNulled()
+                           ? statePassword
+                           : source.password);
+    }
+
+    // keys are protected while they are read, a basis that is no
+    // copy-on-write KeyStore protects them as they are added
+    CopyOnWriteKeyStore target = keyStore instanceof CopyOnWriteKeyStore
+                                     ? (CopyOnWriteKeyStore)keyStore
+                                     : null;
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.max(1, parallelism));
+
+    try {
+      int chunks = Math.max(1, parallelism) * 4;
+
+      for (int i = 0; i < sources.size(); i++) {
+        Source source = sources.get(i);
+        reads.add(submitReads(executor, source.keyStore, source.password,
+                              target, keyPasswords.get(i), false,
+                              deduplicate, chunks));
+      }
+
+      if (deduplicate) {
+        targetReads = submitReads(executor, keyStore, null, null, null, true,
+                                  true, chunks);
+      }
+
+      for (List<Future<List<ReadEntry>>> sourceReads : reads) {
+        sourceEntries.add(await(sourceReads));
+      }
+
+      for (ReadEntry entry : await(targetReads)) {
+        fingerprints.add(ByteBuffer.wrap(entry.fingerprint));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    int merged = 0;
+    int renamed = 0;
+    int skipped = 0;
+    List<String> unreadable = new ArrayList<>();
+    List<String> rejected = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < sources.size(); i++) {
+        Password keyPassword = keyPasswords.get(i);
+
+        for (ReadEntry entry : sourceEntries.get(i)) {
+          if (entry.unreadable || (entry.key != null && keyPassword == null)) {
+            unreadable.add(entry.alias);
+            continue;
+          }
+
+          if (!isSupported(type, entry)) {
+            rejected.add(entry.alias);
+            continue;
+          }
+
+          if (deduplicate &&
+              !fingerprints.add(ByteBuffer.wrap(entry.fingerprint))) {
+            skipped++;
+            continue;
+          }
+
+          String alias = entry.alias;
+          boolean overwrite = false;
+
+          if (keyStore.containsAlias(alias)) {
+            if (policy == ConflictPolicy.SKIP) {
+              skipped++;
+              continue;
+            }
+
+            if (policy == ConflictPolicy.OVERWRITE) {
+              overwrite = true;
+            } else {
+              alias = getFreeAlias(keyStore, alias);
+            }
+          }
+
+          if (entry.key == null) {
+            if (overwrite) {
+              // a certificate entry cannot replace a key entry in place
+              keyStore.deleteEntry(alias);
+              nextState.removeEntryPassword(alias);
+            }
+            keyStore.setCertificateEntry(alias, entry.certificate);
+          } else {
+            try {
+              // replaces the entry there, which is kept if the key is refused
+              if (entry.sealedKey != null &&
+                  alias.equals(entry.sealedKey.getAlias())) {
+                target.setSealedKeyEntry(entry.sealedKey,
+                                         keyPassword.toCharArray());
+              } else {
+                // the alias is part of a protected key, a renamed key or one
+                // that could not be protected before is protected here
+                keyStore.setKeyEntry(alias, entry.key,
+                                     keyPassword.toCharArray(), entry.chain);
+              }
+            } catch (KeyStoreException ex) {
+              // a key the KeyStore's provider cannot protect, e.g. of an
+              // algorithm it does not know
+              rejected.add(entry.alias);
+              continue;
+            }
+            nextState.removeEntryPassword(alias);
+            nextState.setEntryPassword(alias, new Password(keyPassword));
+          }
+
+          if (!alias.equals(entry.alias)) {
+            renamed++;
+          }
+          merged++;
+        }
+      }
+    } catch (KeyStoreException ex) {
+      throw new CryptoException(
+          res.getString("NoMergeKeyStores.exception.message"), ex);
+    }
+
+    return new Result(nextState, merged, renamed, skipped, unreadable,
+                      rejected);
+  }
+
+  private static boolean isSupported(KeyStoreType type, ReadEntry entry) {
+    if (entry.key instanceof SecretKey) {
+      return type == null || type.supportsKeyEntries();
+    }
+
+    if (entry.key instanceof PrivateKey) {
+      return entry.chain != null && entry.chain.length > 0;
+    }
+
+    return true;
+  }
+
+  private static List<Future<List<ReadEntry>>>
+  submitReads(ExecutorService executor, KeyStore keyStore, Password password,
+              CopyOnWriteKeyStore target, Password keyPassword,
+              boolean fingerprintOnly, boolean fingerprint, int chunks)
+      throws CryptoException {
+    List<String> aliases;
+
+    try {
+      aliases = Collections.list(keyStore.aliases());
+    } catch (KeyStoreException ex) {
+      throw new CryptoException(
+          res.getString("NoMergeKeyStores.exception.message"), ex);
+    }
+
+    List<Future<List<ReadEntry>>> futures = new ArrayList<>();
+    int chunkSize =
+        Math.max(MIN_CHUNK_SIZE, (aliases.size() + chunks - 1) / chunks);
+
+    for (int start = 0; start < aliases.size(); start += chunkSize) {
+      List<String> chunk =
+          aliases.subList(start, Math.min(aliases.size(), start + chunkSize));
+
+      futures.add(executor.submit(() -> {
+        List<ReadEntry> entries = new ArrayList<>(chunk.size());
+
+        for (String alias : chunk) {
+          entries.add(fingerprintOnly
+                          ? new ReadEntry(alias, EntryFingerprint.get(
+                                                     keyStore, alias))
+                          : read(keyStore, alias, password, target,
+                                 keyPassword, fingerprint));
+        }
+
+        return entries;
+      }));
+    }
+
+    return futures;
+  }
+
+  private static ReadEntry read(KeyStore keyStore, String alias,
+                                Password password, CopyOnWriteKeyStore target,
+                                Password keyPassword, boolean fingerprint)
+      throws CryptoException {
+    ReadEntry entry = new ReadEntry(
+        alias, fingerprint ? EntryFingerprint.get(keyStore, alias) : null);
+
+    try {
+      if (keyStore.isCertificateEntry(alias)) {
+        entry.certificate = keyStore.getCertificate(alias);
+      } else {
+        entry.key = keyStore.getKey(
+            alias, password == null ? null : password.toCharArray());
+        entry.chain = keyStore.getCertificateChain(alias);
+        entry.unreadable = entry.key == null;
+      }
+    } catch (GeneralSecurityException | RuntimeException ex) {
+      // incorrect password or unsupported protection, the entry is left out
+      entry.unreadable = true;
+    }
+
+    if (target != null && entry.key != null && keyPassword != null) {
+      try {
+        entry.sealedKey = target.sealKey(alias, entry.key,
+                                         keyPassword.toCharArray(),
+                                         entry.chain);
+      } catch (KeyStoreException ex) {
+        // a key the merged KeyStore cannot hold, rejected when it is added
+      }
+    }
+
+    return entry;
+  }
+
+  private static List<ReadEntry> await(List<Future<List<ReadEntry>>> futures)
+      throws CryptoException {
+    List<ReadEntry> entries = new ArrayList<>();
+
+    for (Future<List<ReadEntry>> future : futures) {
+      try {
+        entries.addAll(future.get());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new CryptoException(
+            res.getString("NoMergeKeyStores.exception.message"), ex);
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof CryptoException) {
+          throw (CryptoException)ex.getCause();
+        }
+        throw new CryptoException(
+            res.getString("NoMergeKeyStores.exception.message"),
+            ex.getCause());
+      }
+    }
+
+    return entries;
+  }
+
+  private static String getFreeAlias(KeyStore keyStore, String alias)
+      throws KeyStoreException {
+    for (int i = 2;; i++) {
+      String candidate = alias + " (" + i + ")";
+
+      if (!keyStore.containsAlias(candidate)) {
+        return candidate;
+      }
+    }
+  }
+
+  /*
+   * Entry of a KeyStore as read, the key recovered and protected for the
+   * merged KeyStore.
+   */
+  private static final class ReadEntry {
+    final String alias;
+    final byte[] fingerprint;
+    Certificate certificate;
+    Key key;
+    Certificate[] chain;
+    CopyOnWriteKeyStore.SealedKey sealedKey;
+    boolean unreadable;
+
+    ReadEntry(String alias, byte[] fingerprint) {
+      this.alias = alias;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
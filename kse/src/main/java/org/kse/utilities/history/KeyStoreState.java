@@ -48,6 +48,7 @@ public class KeyStoreState {
   private KeyStore keyStore;
   private Password password;
   private HashMap<String, Password> entryPasswords = new HashMap<>();
+  private final DecryptedKeyCache keyCache = new DecryptedKeyCache();
   private KeyStoreState previous;
   private KeyStoreState next;
 
@@ -79,6 +80,7 @@ public class KeyStoreState {
     keyStoreState.previous = this;
     this.next = keyStoreState;
     keyStoreState.setAsCurrentState();
+    history.enforceMemoryBudget();
   }
 
   /**
@@ -128,6 +130,7 @@ public class KeyStoreState {
     if (previous != null) {
       propagateNewPasswords(previous);
       previous.setAsCurrentState();
+      history.enforceMemoryBudget();
     }
   }
 
@@ -141,6 +144,7 @@ public class KeyStoreState {
     if (next != null) {
       propagateNewPasswords(next);
       next.setAsCurrentState();
+      history.enforceMemoryBudget();
     }
   }
 
@@ -193,7 +197,10 @@ public class KeyStoreState {
    *
    * @param keyStore The KeyStore
    */
-  public void setKeyStore(KeyStore keyStore) { this.keyStore = keyStore; }
+  public void setKeyStore(KeyStore keyStore) {
+    this.keyStore = keyStore;
+    keyCache.clear();
+  }
 
   /**
    * Get the cached KeyStore password
@@ -226,6 +233,7 @@ public class KeyStoreState {
    */
   public void removeEntryPassword(String alias) {
     Password removedPassword = entryPasswords.remove(alias);
+    keyCache.remove(alias);
 
     if (removedPassword != null) {
       removedPassword.nullPassword();
@@ -255,11 +263,70 @@ public class KeyStoreState {
     for (Map.Entry<String, Password> entry : entryPasswords.entrySet()) {
       entry.getValue().nullPassword();
     }
+
+    keyCache.clear();
+  }
+
+  /**
+   * Get the key of an entry. Keys recovered before are taken from a cache as
+   * long as the entry is unchanged, so repeated use of a key does not
+   * decrypt it again. The cache is cleared once the state stops being the
+   * current state of its history and when the passwords are nulled.
+   *
+   * @param alias    The entry's alias
+   * @param password The entry's password
+   * @return The key or null if the alias does not exist or is no key entry
+   * @throws GeneralSecurityException If the key could not be recovered
+   */
+  public Key getKey(String alias, Password password)
+      throws GeneralSecurityException {
+    char[] passwordChars = password == null ? null : password.toCharArray();
+
+    // other KeyStores may be modified in place, nothing tells when to evict
+    if (!(keyStore instanceof CopyOnWriteKeyStore)) {
+      return keyStore.getKey(alias, passwordChars);
+    }
+
+    long entryId = ((CopyOnWriteKeyStore)keyStore).getEntryId(alias);
+    Key key = keyCache.get(alias, entryId, passwordChars);
+
+    if (key == null) {
+      key = keyStore.getKey(alias, passwordChars);
+
+      if (key != null) {
+        keyCache.put(alias, entryId, passwordChars, key);
+      }
+    }
+
+    return key;
+  }
+
+  /**
+   * Evict all keys recovered by this state.
+   */
+  void clearKeyCache() { keyCache.clear(); }
+
+  /**
+   * Get a copy of this state's KeyStore that does not change when this state
+   * is modified later, for reading it on another thread. Unlike {@link
+   * #createBasisForNextState} this state stays modifiable.
+   *
+   * @return Read-only KeyStore
+   * @throws CryptoException If underlying KeyStore could not be copied
+   */
+  public KeyStore snapshotKeyStore() throws CryptoException {
+    if (keyStore instanceof CopyOnWriteKeyStore) {
+      return ((CopyOnWriteKeyStore)keyStore).snapshot();
+    }
+
+    return KeyStoreUtil.copy(keyStore);
   }
 
   /**
    * Create the basis for the next state based on this one. Makes a copy of
-   * the current state excluding its position in the history.
+   * the current state excluding its position in the history. The KeyStore of
+   * the next state shares all entries with this one and only records what is
+   * changed, so this state's KeyStore cannot be modified any more.
    *
    * @param action The action responsible for the creation of the next state
    * @return Next state
@@ -269,7 +336,13 @@ public class KeyStoreState {
       throws CryptoException {
     KeyStoreState copy = new KeyStoreState();
     copy.history = this.history;
-    copy.keyStore = KeyStoreUtil.copy(this.keyStore);
+
+    if (keyStore instanceof CopyOnWriteKeyStore) {
+      copy.keyStore = ((CopyOnWriteKeyStore)keyStore).createNext();
+    } else {
+      // KeyStore was replaced with setKeyStore, start sharing from a copy
+      copy.keyStore = CopyOnWriteKeyStore.wrap(KeyStoreUtil.copy(keyStore));
+    }
 
     if (password != null) {
       copy.password = new Password(password); // Copy as may be cleared
@@ -314,16 +387,37 @@ public class KeyStoreState {
   protected boolean isPasswordPropagationValid(KeyStoreState targetState,
                                                String alias, Password password)
       throws GeneralSecurityException {
+    // An entry the target state shares with this one is unlocked by the same
+    // password, so there is nothing to decrypt
+    if (isEntryUnchanged(targetState, alias)) {
+      return true;
+    }
+
     // A password should only be propagated to a target state if it is correct
     // and represents the same private key as the current state
     return isEntryPasswordCorrect(targetState, alias, password) &&
         isEntryPrivateKeyEqual(targetState, alias, password);
   }
 
+  /**
+   * Does an alias refer to the very same entry in this state and in another
+   * state of the same history? Nothing is decoded or decrypted to tell.
+   *
+   * @param targetState Other state
+   * @param alias       The entry's alias
+   * @return True if the entry is known to be unchanged between the states
+   */
+  public boolean isEntryUnchanged(KeyStoreState targetState, String alias) {
+    return keyStore instanceof CopyOnWriteKeyStore &&
+        targetState.keyStore instanceof CopyOnWriteKeyStore &&
+        ((CopyOnWriteKeyStore)keyStore)
+            .hasSameEntry((CopyOnWriteKeyStore)targetState.keyStore, alias);
+  }
+
   protected boolean isEntryPasswordCorrect(KeyStoreState targetState,
                                            String alias, Password password) {
     try {
-      targetState.keyStore.getKey(alias, password.toCharArray());
+      targetState.getKey(alias, password);
 
       return true;
     } catch (GeneralSecurityException ex) {
@@ -334,9 +428,8 @@ public class KeyStoreState {
   protected boolean isEntryPrivateKeyEqual(KeyStoreState targetState,
                                            String alias, Password password)
       throws GeneralSecurityException {
-    Key currentKey = keyStore.getKey(alias, password.toCharArray());
-    Key targetKey =
-        targetState.getKeyStore().getKey(alias, password.toCharArray());
+    Key currentKey = getKey(alias, password);
+    Key targetKey = targetState.getKey(alias, password);
 
     // JDKDSAPrivateKey has no equals method defined
     if ((currentKey instanceof JDKDSAPrivateKey) ||
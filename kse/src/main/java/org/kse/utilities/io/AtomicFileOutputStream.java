@@ -0,0 +1,191 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Output stream that replaces a file as a whole. The data is written to a
+ * temporary file next to the target file. Once committed, the temporary file
+ * is synced to disk and moved over the target file in one step. A stream
+ * closed without being committed leaves the target file untouched, so an
+ * interrupted write can never leave a partially written file behind.
+ * <p>
+ * The target file may be read while the stream is written, e.g. when a file
+ * is rewritten in place, but it has to be closed before committing.
+ */
+public class AtomicFileOutputStream extends OutputStream {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path target;
+  private final Path tmpFile;
+  private final FileChannel channel;
+  private final OutputStream out;
+  private boolean closed;
+  private boolean committed;
+
+  /**
+   * Construct an AtomicFileOutputStream.
+   *
+   * @param file File to replace or create
+   * @throws IOException If the temporary file could not be created
+   */
+  public AtomicFileOutputStream(File file) throws IOException {
+    Path path = file.toPath().toAbsolutePath();
+
+    // replace the file a link points to, not the link
+    target = Files.exists(path) ? path.toRealPath() : path;
+
+    tmpFile = createTmpFile(target);
+
+    try {
+      copyPermissions(target, tmpFile);
+      channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE);
+    } catch (IOException ex) {
+      Files.deleteIfExists(tmpFile);
+      throw ex;
+    }
+
+    out = new BufferedOutputStream(Channels.newOutputStream(channel),
+                                   BUFFER_SIZE);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Sync everything written to disk and replace the target file with it.
+   * The stream is closed afterwards.
+   *
+   * @throws IOException If the data could not be written or the target file
+   *     could not be replaced, the target file is unchanged then
+   */
+  public void commit() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+
+    try {
+      out.flush();
+      channel.force(true);
+      closed = true;
+      out.close();
+
+      try {
+        Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      committed = true;
+    } finally {
+      if (!committed) {
+        IOUtils.closeQuietly(channel);
+        Files.deleteIfExists(tmpFile);
+      }
+    }
+
+    syncDirectory(target.getParent());
+  }
+
+  /**
+   * Close the stream. If it has not been committed, the written data is
+   * discarded.
+   *
+   * @throws IOException If the temporary file could not be deleted
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      IOUtils.closeQuietly(out);
+      IOUtils.closeQuietly(channel);
+    }
+
+    if (!committed) {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  private static Path createTmpFile(Path target) throws IOException {
+    // unlike Files.createTempFile, which restricts the file to its owner,
+    // this gives the file the default permissions of new files, those of an
+    // existing target file are copied over afterwards
+    while (true) {
+      Path tmpFile = target.resolveSibling(
+          "." + target.getFileName() +
+          Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) +
+          ".tmp");
+
+      try {
+        return Files.createFile(tmpFile);
+      } catch (FileAlreadyExistsException ex) {
+        // try another name
+      }
+    }
+  }
+
+  private static void copyPermissions(Path from, Path to) throws IOException {
+    if (!Files.exists(from)) {
+      return;
+    }
+
+    try {
+      Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+    } catch (UnsupportedOperationException ex) {
+      // not a POSIX file system
+    }
+  }
+
+  private static void syncDirectory(Path directory) {
+    // makes the rename itself durable, not possible on every platform
+    try (FileChannel dirChannel =
+             FileChannel.open(directory, StandardOpenOption.READ)) {
+      dirChannel.force(true);
+    } catch (IOException ex) {
+      // ignore
+    }
+  }
+}
@@ -21,19 +21,86 @@ package org.kse.utilities.io;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigInteger;
-import org.bouncycastle.util.encoders.Hex;
 
 /**
  * Class of utility methods to output data in hex.
  *
- * TODO cleanup; centralize all hex conversions in KSE
+ * All conversions are table driven and write into pre-sized char arrays, so no
+ * intermediate strings are created per byte.
  */
 public class HexUtil {
-  private static final String NEWLINE = "\n";
+  private static final int DUMP_LINE_BYTES = 16;
+
+  // Longest possible line: padded hex part (3 chars per byte including the
+  // extra space after 8 bytes), gap of three spaces and clear part
+  private static final int DUMP_LINE_CHARS =
+      DUMP_LINE_BYTES * 3 + 3 + DUMP_LINE_BYTES;
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  // Upper and lower hex digit of every byte value
+  private static final char[] HEX_HIGH = new char[256];
+  private static final char[] HEX_LOW = new char[256];
+
+  // Clear text representation of every byte value
+  private static final char[] CLEAR_CHARS = new char[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      HEX_HIGH[i] = HEX_DIGITS[i >>> 4];
+      HEX_LOW[i] = HEX_DIGITS[i & 0x0F];
+
+      // Character to display if character not defined in Unicode or is a
+      // control character
+      char c = (char)i;
+      CLEAR_CHARS[i] =
+          (!Character.isISOControl(c) && Character.isDefined(c)) ? c : '.';
+    }
+  }
 
   private HexUtil() {}
 
+  /**
+   * Encode bytes as upper case hex characters into the supplied buffer.
+   *
+   * @param bytes  Source bytes
+   * @param off    Offset of first byte to encode
+   * @param len    Number of bytes to encode
+   * @param out    Destination buffer, must hold at least 2 * len chars from
+   *               outOff
+   * @param outOff Offset of first char written
+   * @return Number of chars written
+   */
+  public static int toHex(byte[] bytes, int off, int len, char[] out,
+                          int outOff) {
+    int pos = outOff;
+
+    for (int i = off; i < off + len; i++) {
+      int b = bytes[i] & 0xFF;
+      out[pos++] = HEX_HIGH[b];
+      out[pos++] = HEX_LOW[b];
+    }
+
+    return pos - outOff;
+  }
+
+  /**
+   * Get plain upper case hex string for the supplied byte array, two
+   * characters per byte without prefix or separators.
+   *
+   * @param bytes Byte array
+   * @return Hex string
+   */
+  public static String toHexString(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    toHex(bytes, 0, bytes.length, hex, 0);
+    return new String(hex);
+  }
+
   /**
    * Get hex string for the supplied big integer: "0x<hex string>" where hex
    * string is output in groups of exactly four characters subdivided by
@@ -92,69 +159,76 @@ public class HexUtil {
    */
   public static String getHexString(byte[] bytes, String prefix, int groupSize,
                                     int maxLineLength) {
-    String hex = Hex.toHexString(bytes).toUpperCase();
+    int hexLength = bytes.length * 2;
 
     // Get number padding bytes
-    int padding = (4 - (hex.length() % 4));
+    int padding = (4 - (hexLength % 4));
 
     // Insert any required padding to get groups of exactly "groupSize"
     // characters
-    if ((padding > 0) && (padding < groupSize)) {
-      StringBuilder sb = new StringBuilder(hex);
+    if (!((padding > 0) && (padding < groupSize))) {
+      padding = 0;
+    }
 
-      for (int i = 0; i < padding; i++) {
-        sb.insert(0, '0');
-      }
+    int digits = hexLength + padding;
 
-      hex = sb.toString();
+    char[] hex = new char[digits];
+    for (int i = 0; i < padding; i++) {
+      hex[i] = '0';
     }
+    toHex(bytes, 0, bytes.length, hex, padding);
+
+    int spaces = (groupSize != 0 && digits > 0) ? (digits - 1) / 4 : 0;
+    int newLines = maxLineLength != 0 ? digits / maxLineLength : 0;
 
     // Output with leading prefix (usually "0x"), spaces to form groups and line
     // breaks
-    StringBuilder sb = new StringBuilder();
-
-    sb.append(prefix);
+    char[] out = new char[prefix.length() + digits + spaces + newLines];
+    prefix.getChars(0, prefix.length(), out, 0);
+    int pos = prefix.length();
 
-    for (int i = 0; i < hex.length(); i++) {
-      sb.append(hex.charAt(i));
+    for (int i = 0; i < digits; i++) {
+      out[pos++] = hex[i];
 
-      if (groupSize != 0 && (((i + 1) % 4) == 0) && ((i + 1) != hex.length())) {
-        sb.append(' ');
+      if (groupSize != 0 && (((i + 1) % 4) == 0) && ((i + 1) != digits)) {
+        out[pos++] = ' ';
       }
 
       if (maxLineLength != 0 && (i + 1) % maxLineLength == 0) {
-        sb.append('\n');
+        out[pos++] = '\n';
       }
     }
 
-    return sb.toString();
+    return new String(out);
   }
 
   /**
    * Get bytes as a formatted String. Returned in base-16
-   * with given separator every two characters padded with a leading 0 if
-   * necessary to make for an even number of hex characters.
+   * with given separator every two characters.
    *
    * @param data      The bytes
    * @param separator Separator character
    * @return The message digest
    */
   public static String getHexStringWithSep(byte[] data, char separator) {
-
-    StringBuilder strBuff =
-        new StringBuilder(Hex.toHexString(data).toUpperCase());
-
-    if ((strBuff.length() % 2) == 1) {
-      strBuff.insert(0, '0');
+    if (data.length == 0) {
+      return "";
     }
 
-    if (strBuff.length() > 2) {
-      for (int i = 2; i < strBuff.length(); i += 3) {
-        strBuff.insert(i, separator);
+    char[] out = new char[data.length * 3 - 1];
+    int pos = 0;
+
+    for (int i = 0; i < data.length; i++) {
+      if (i > 0) {
+        out[pos++] = separator;
       }
+
+      int b = data[i] & 0xFF;
+      out[pos++] = HEX_HIGH[b];
+      out[pos++] = HEX_LOW[b];
     }
 
-    return strBuff.toString();
+    return new String(out);
   }
 
   /**
@@ -165,92 +239,104 @@ public class HexUtil {
    * @throws IOException If an I/O problem occurs
    */
   public static String getHexClearDump(byte[] bytes) throws IOException {
+    StringWriter writer = new StringWriter(
+        ((bytes.length + DUMP_LINE_BYTES - 1) / DUMP_LINE_BYTES) *
+        (DUMP_LINE_CHARS + 1));
+
     try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
-      // Divide dump into 16 bytes lines
-      StringBuilder sb = new StringBuilder();
-
-      byte[] line = new byte[16];
-      int read = -1;
-      boolean firstLine = true;
-
-      while ((read = bais.read(line)) != -1) {
-        if (firstLine) {
-          firstLine = false;
-        } else {
-          sb.append(NEWLINE);
-        }
+      writeHexClearDump(bais, writer);
+    }
 
-        sb.append(getHexClearLineDump(line, read));
+    return writer.toString();
+  }
+
+  /**
+   * Write hex and clear text dump of a stream. The stream is consumed in lines
+   * of 16 bytes, so inputs of any size can be dumped with constant memory.
+   * Lines are separated by a new line; there is no new line after the last
+   * line. Neither stream is closed.
+   *
+   * @param is     Stream to dump
+   * @param writer Destination of the dump
+   * @throws IOException If an I/O problem occurs
+   */
+  public static void writeHexClearDump(InputStream is, Writer writer)
+      throws IOException {
+    // Divide dump into 16 bytes lines
+    byte[] line = new byte[DUMP_LINE_BYTES];
+    char[] lineChars = new char[DUMP_LINE_CHARS];
+    boolean firstLine = true;
+
+    int read;
+    while ((read = readLine(is, line)) > 0) {
+      if (firstLine) {
+        firstLine = false;
+      } else {
+        writer.write('\n');
       }
 
-      return sb.toString();
+      int length = getHexClearLineDump(line, read, lineChars);
+      writer.write(lineChars, 0, length);
     }
   }
 
-  private static String getHexClearLineDump(byte[] bytes, int len) {
-    StringBuilder sbHex = new StringBuilder();
-    StringBuilder sbClr = new StringBuilder();
+  private static int readLine(InputStream is, byte[] line) throws IOException {
+    int total = 0;
 
-    for (int cnt = 0; cnt < len; cnt++) {
-      // Convert byte to int
-      byte b = bytes[cnt];
-      int i = b & 0xFF;
+    while (total < line.length) {
+      int read = is.read(line, total, line.length - total);
+
+      if (read == -1) {
+        break;
+      }
+
+      total += read;
+    }
 
-      // First part of byte will be one hex char
-      int i1 = (int)Math.floor(i / 16d);
+    return total;
+  }
+
+  private static int getHexClearLineDump(byte[] bytes, int len, char[] out) {
+    int pos = 0;
 
-      // Second part of byte will be one hex char
-      int i2 = i % 16;
+    for (int cnt = 0; cnt < len; cnt++) {
+      int b = bytes[cnt] & 0xFF;
 
-      // Get hex characters
-      sbHex.append(Character.toUpperCase(Character.forDigit(i1, 16)));
-      sbHex.append(Character.toUpperCase(Character.forDigit(i2, 16)));
+      out[pos++] = HEX_HIGH[b];
+      out[pos++] = HEX_LOW[b];
 
       if ((cnt + 1) < len) {
         // Divider between hex characters
-        sbHex.append(' ');
+        out[pos++] = ' ';
         if (((cnt + 1) % 8) == 0) {
           // Divider between 8 hex characters
-          sbHex.append(' ');
+          out[pos++] = ' ';
         }
       }
-
-      // Get clear character
-
-      // Character to display if character not defined in Unicode or is a
-      // control character
-      char c = '.';
-
-      // Not a control character and defined in Unicode
-      if ((!Character.isISOControl((char)i)) &&
-          (Character.isDefined((char)i))) {
-        c = (char)i;
-      }
-
-      sbClr.append(c);
     }
 
-    /*
-     * Put both dumps together in one string (hex, clear) with appropriate
-     * padding between them (pad to array length)
-     */
-    StringBuilder strBuff = new StringBuilder();
-
-    strBuff.append(sbHex);
-
-    int i = bytes.length - len;
-    for (int cnt = 0; cnt < i; cnt++) {
-      strBuff.append("   "); // Each missing byte takes up three spaces
+    // Pad hex part to full line length
+    int missing = bytes.length - len;
+    for (int cnt = 0; cnt < missing; cnt++) {
+      // Each missing byte takes up three spaces
+      out[pos++] = ' ';
+      out[pos++] = ' ';
+      out[pos++] = ' ';
       if (((cnt + 1) % 8) == 0) {
         // Add a space for each 8 hex characters
-        strBuff.append(' ');
+        out[pos++] = ' ';
       }
     }
 
-    strBuff.append("   "); // The gap between hex and clear output is three
-    // spaces
-    strBuff.append(sbClr);
+    // The gap between hex and clear output is three spaces
+    out[pos++] = ' ';
+    out[pos++] = ' ';
+    out[pos++] = ' ';
+
+    for (int cnt = 0; cnt < len; cnt++) {
+      out[pos++] = CLEAR_CHARS[bytes[cnt] & 0xFF];
+    }
 
-    return strBuff.toString();
+    return pos;
   }
 }
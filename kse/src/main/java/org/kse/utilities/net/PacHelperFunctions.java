@@ -9,7 +9,10 @@ import java.time.ZonedDateTime;
 import java.time.temporal.TemporalAdjusters;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.kse.utilities.StringUtils;
@@ -33,6 +36,16 @@ public class PacHelperFunctions {
       Arrays.asList("JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG",
                     "SEP", "OCT", "NOV", "DEC");
 
+  // PAC scripts tend to resolve the same hosts over and over, so lookups are
+  // kept for a short time; failed lookups for a shorter one
+  private static final long DNS_CACHE_TTL = TimeUnit.SECONDS.toNanos(60);
+  private static final long DNS_CACHE_NEGATIVE_TTL =
+      TimeUnit.SECONDS.toNanos(10);
+  private static final int DNS_CACHE_MAX_ENTRIES = 1024;
+
+  private static final Map<String, DnsCacheEntry> dnsCache =
+      new ConcurrentHashMap<>();
+
   private PacHelperFunctions() {
     // hide default c-tor
   }
@@ -87,11 +100,32 @@ public class PacHelperFunctions {
     if (StringUtils.isBlank(host)) {
       return "";
     }
+
+    long now = System.nanoTime();
+    DnsCacheEntry cached = dnsCache.get(host);
+
+    if (cached != null && now - cached.expiresAt < 0) {
+      return cached.address;
+    }
+
+    String address;
+    long ttl;
+
     try {
-      return InetAddress.getByName(host).getHostAddress();
+      address = InetAddress.getByName(host).getHostAddress();
+      ttl = DNS_CACHE_TTL;
     } catch (UnknownHostException e) {
-      return "";
+      address = "";
+      ttl = DNS_CACHE_NEGATIVE_TTL;
     }
+
+    if (dnsCache.size() >= DNS_CACHE_MAX_ENTRIES) {
+      dnsCache.clear();
+    }
+
+    dnsCache.put(host, new DnsCacheEntry(address, now + ttl));
+
+    return address;
   }
 
   /**
@@ -508,4 +542,14 @@ public class PacHelperFunctions {
   private static ZonedDateTime getCurrentZonedDateTime(ZoneId zoneId) {
     return ZonedDateTime.now(clock.withZone(zoneId));
   }
+
+  private static final class DnsCacheEntry {
+    private final String address;
+    private final long expiresAt;
+
+    DnsCacheEntry(String address, long expiresAt) {
+      this.address = address;
+      this.expiresAt = expiresAt;
+    }
+  }
 }
@@ -29,10 +29,16 @@ import java.lang.reflect.Method;
 import java.net.*;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -48,9 +54,33 @@ public class PacProxySelector extends ProxySelector {
   private static final ResourceBundle res =
       ResourceBundle.getBundle("org/kse/utilities/net/resources");
 
-  private Invocable pacScript;
+  private static final Logger LOGGER =
+      Logger.getLogger(PacProxySelector.class.getName());
+
+  private static final int MAX_CACHED_PROXIES = 256;
+  private static final long PROXIES_TTL = TimeUnit.MINUTES.toNanos(5);
+  private static final int MAX_SCRIPT_ENGINES =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
   private final URI pacURI;
-  private final Map<URI, List<Proxy>> uriToProxiesCache = new HashMap<>();
+  private volatile String pacScript;
+
+  // Nashorn engines must not be used by several threads at once, so each
+  // lookup borrows a compiled engine from the pool
+  private final BlockingQueue<Invocable> scriptEngines =
+      new ArrayBlockingQueue<>(MAX_SCRIPT_ENGINES);
+  private final AtomicInteger scriptEngineCount = new AtomicInteger();
+
+  private final Map<String, CachedProxies> urlToProxiesCache =
+      new LinkedHashMap<String, CachedProxies>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean
+        removeEldestEntry(Map.Entry<String, CachedProxies> eldest) {
+          return size() > MAX_CACHED_PROXIES;
+        }
+      };
 
   /**
    * Class filter to restrict access to JRE from PAC script
@@ -89,27 +119,45 @@ public class PacProxySelector extends ProxySelector {
    */
   @Override
   public List<Proxy> select(URI uri) {
-    if (pacScript == null) {
-      try {
-        pacScript = compilePacScript(loadPacScript(pacURI));
-      } catch (PacProxyException ex) {
-        ex.printStackTrace();
-        return singletonList(Proxy.NO_PROXY);
+    // As with browsers, only scheme, host and port of secure URLs are passed
+    // to the PAC script, which makes their result cacheable per origin. Other
+    // URLs are passed whole as the script may match on their path
+    String url = isSecure(uri) ? getOrigin(uri) : uri.toString();
+    long now = System.nanoTime();
+
+    synchronized (urlToProxiesCache) {
+      CachedProxies cached = urlToProxiesCache.get(url);
+
+      if (cached != null && now - cached.expiresAt < 0) {
+        return cached.proxies;
       }
     }
 
-    if (uriToProxiesCache.containsKey(uri)) {
-      return uriToProxiesCache.get(uri);
+    Invocable scriptEngine;
+
+    try {
+      scriptEngine = borrowScriptEngine();
+    } catch (PacProxyException ex) {
+      LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+      return singletonList(Proxy.NO_PROXY);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return singletonList(Proxy.NO_PROXY);
     }
 
     String pacFunctionReturn = null;
 
     try {
-      pacFunctionReturn = (String)pacScript.invokeFunction(
-          "FindProxyForURL", uri.toString(), uri.getHost());
+      pacFunctionReturn = (String)scriptEngine.invokeFunction(
+          "FindProxyForURL", url, uri.getHost());
     } catch (Exception ex) {
-      ex.printStackTrace();
+      LOGGER.log(Level.WARNING,
+                 MessageFormat.format(res.getString("NoSelectProxy.message"),
+                                      url),
+                 ex);
       return singletonList(Proxy.NO_PROXY);
+    } finally {
+      scriptEngines.offer(scriptEngine);
     }
 
     if (pacFunctionReturn == null) {
@@ -122,11 +170,74 @@ public class PacProxySelector extends ProxySelector {
       proxies.add(Proxy.NO_PROXY);
     }
 
-    uriToProxiesCache.put(uri, proxies);
+    proxies = Collections.unmodifiableList(proxies);
+
+    synchronized (urlToProxiesCache) {
+      urlToProxiesCache.put(url, new CachedProxies(proxies, now + PROXIES_TTL));
+    }
 
     return proxies;
   }
 
+  private static boolean isSecure(URI uri) {
+    String scheme = uri.getScheme();
+    return "https".equalsIgnoreCase(scheme) || "wss".equalsIgnoreCase(scheme);
+  }
+
+  private static String getOrigin(URI uri) {
+    StringBuilder origin = new StringBuilder();
+
+    if (uri.getScheme() != null) {
+      origin.append(uri.getScheme().toLowerCase(Locale.ROOT)).append("://");
+    }
+
+    if (uri.getHost() != null) {
+      origin.append(uri.getHost().toLowerCase(Locale.ROOT));
+    }
+
+    if (uri.getPort() != -1) {
+      origin.append(':').append(uri.getPort());
+    }
+
+    return origin.append('/').toString();
+  }
+
+  private Invocable borrowScriptEngine()
+      throws PacProxyException, InterruptedException {
+    Invocable scriptEngine = scriptEngines.poll();
+
+    while (scriptEngine == null) {
+      if (scriptEngineCount.incrementAndGet() <= MAX_SCRIPT_ENGINES) {
+        try {
+          return compilePacScript(getPacScript());
+        } catch (PacProxyException | RuntimeException ex) {
+          scriptEngineCount.decrementAndGet();
+          throw ex;
+        }
+      }
+
+      scriptEngineCount.decrementAndGet();
+
+      // wait for a busy engine, but check again now and then in case
+      // compiling a new one failed in another thread
+      scriptEngine = scriptEngines.poll(100, TimeUnit.MILLISECONDS);
+    }
+
+    return scriptEngine;
+  }
+
+  private String getPacScript() throws PacProxyException {
+    if (pacScript == null) {
+      synchronized (this) {
+        if (pacScript == null) {
+          pacScript = loadPacScript(pacURI);
+        }
+      }
+    }
+
+    return pacScript;
+  }
+
   private String loadPacScript(URI pacURI) throws PacProxyException {
     URLConnection connection = null;
 
@@ -326,6 +437,16 @@ public class PacProxySelector extends ProxySelector {
     return new Proxy(proxyType, new InetSocketAddress(host, port));
   }
 
+  private static final class CachedProxies {
+    private final List<Proxy> proxies;
+    private final long expiresAt;
+
+    CachedProxies(List<Proxy> proxies, long expiresAt) {
+      this.proxies = proxies;
+      this.expiresAt = expiresAt;
+    }
+  }
+
   /**
    * Connection failed. Do nothing.
    *
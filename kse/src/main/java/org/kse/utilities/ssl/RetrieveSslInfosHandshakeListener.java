@@ -34,8 +34,10 @@ public class RetrieveSslInfosHandshakeListener
 
   @Override
   public void handshakeCompleted(HandshakeCompletedEvent event) {
+    readSession(event.getSession());
+  }
 
-    SSLSession session = event.getSession();
+  void readSession(SSLSession session) {
     sslConnectionInfos.setPeerHost(session.getPeerHost());
     sslConnectionInfos.setPeerPort(session.getPeerPort());
     sslConnectionInfos.setProtocol(session.getProtocol());
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.ssl;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Outcome of scanning a single TLS endpoint.
+ */
+public class SslScanResult {
+  private final String host;
+  private final int port;
+  private final SslConnectionInfos sslConnectionInfos;
+  private final Exception error;
+  private final long durationMillis;
+
+  SslScanResult(String host, int port, SslConnectionInfos sslConnectionInfos,
+                Exception error, long durationMillis) {
+    this.host = host;
+    this.port = port;
+    this.sslConnectionInfos = sslConnectionInfos;
+    this.error = error;
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+   * Get the scanned host.
+   *
+   * @return Host
+   */
+  public String getHost() { return host; }
+
+  /**
+   * Get the scanned port.
+   *
+   * @return Port
+   */
+  public int getPort() { return port; }
+
+  /**
+   * Get the SSL infos of the negotiated session.
+   *
+   * @return SSL infos or null if the handshake failed
+   */
+  public SslConnectionInfos getSslConnectionInfos() {
+    return sslConnectionInfos;
+  }
+
+  /**
+   * Get the certificate chain presented by the server.
+   *
+   * @return Server certificates, empty if the handshake failed
+   */
+  public X509Certificate[] getServerCertificates() {
+    if (sslConnectionInfos == null ||
+        sslConnectionInfos.getServerCertificates() == null) {
+      return new X509Certificate[0];
+    }
+    return sslConnectionInfos.getServerCertificates();
+  }
+
+  /**
+   * Get the problem that prevented the handshake.
+   *
+   * @return Exception or null if the handshake succeeded
+   */
+  public Exception getError() { return error; }
+
+  /**
+   * Did the handshake succeed?
+   *
+   * @return True if successful
+   */
+  public boolean isSuccessful() { return error == null; }
+
+  /**
+   * Get the time spent on connecting and the handshake.
+   *
+   * @return Duration in milliseconds
+   */
+  public long getDurationMillis() { return durationMillis; }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2004 - 2013 Wayne Grant
+ *           2013 - 2024 Kai Kramer
+ *
+ * This file is part of KeyStore Explorer.
+ *
+ * KeyStore Explorer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KeyStore Explorer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KeyStore Explorer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kse.utilities.ssl;
+
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import javax.net.ssl.SSLSocketFactory;
+import org.kse.crypto.CryptoException;
+
+/**
+ * Reads the certificate chains, protocols and cipher suites of many TLS
+ * endpoints. Each endpoint gets a raw handshake on its own virtual thread, so a
+ * slow or unreachable host only delays its own result.
+ */
+public class SslScanner {
+  private static ResourceBundle res =
+      ResourceBundle.getBundle("org/kse/utilities/ssl/resources");
+
+  private static final int MAX_CONCURRENT_HANDSHAKES = 64;
+
+  private final SSLSocketFactory socketFactory;
+  private final int timeoutMillis;
+
+  /**
+   * Construct a scanner.
+   *
+   * @param keyStore      KeyStore with a key pair for SSL client
+   *     authentication or null
+   * @param password      The password for the KeyStore
+   * @param timeoutMillis Timeout per endpoint for connecting and the whole
+   *     handshake, counted once the handshake is started
+   * @throws CryptoException If the SSL context could not be created
+   */
+  public SslScanner(KeyStore keyStore, char[] password, int timeoutMillis)
+      throws CryptoException {
+    try {
+      this.socketFactory =
+          SslUtils.createSslContext(keyStore, password).getSocketFactory();
+    } catch (GeneralSecurityException ex) {
+      throw new CryptoException(
+          res.getString("NoLoadCertificate.exception.message"), ex);
+    }
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Scan TLS endpoints concurrently.
+   *
+   * @param endpoints Host and port of the endpoints, may be unresolved
+   * @return Results in the order of the endpoints
+   */
+  public List<SslScanResult> scan(List<InetSocketAddress> endpoints) {
+    Semaphore handshakes = new Semaphore(MAX_CONCURRENT_HANDSHAKES);
+    List<Future<SslScanResult>> futures = new ArrayList<>();
+
+    try (ExecutorService executor =
+             Executors.newVirtualThreadPerTaskExecutor()) {
+      for (InetSocketAddress endpoint : endpoints) {
+        futures.add(executor.submit(() -> {
+          handshakes.acquire();
+          try {
+            return scan(endpoint);
+          } finally {
+            handshakes.release();
+          }
+        }));
+      }
+
+      List<SslScanResult> results = new ArrayList<>();
+
+      for (int i = 0; i < futures.size(); i++) {
+        results.add(getResult(endpoints.get(i), futures.get(i)));
+      }
+
+      return results;
+    }
+  }
+
+  /**
+   * Scan a single TLS endpoint on the calling thread.
+   *
+   * @param endpoint Host and port of the endpoint, may be unresolved
+   * @return Result
+   */
+  public SslScanResult scan(InetSocketAddress endpoint) {
+    String host = endpoint.getHostString();
+    int port = endpoint.getPort();
+    long start = System.nanoTime();
+
+    try {
+      SslConnectionInfos sslConnectionInfos = SslUtils.readSSLConnectionInfos(
+          socketFactory, host, port, timeoutMillis);
+      return new SslScanResult(host, port, sslConnectionInfos, null,
+                               elapsedMillis(start));
+    } catch (Exception ex) {
+      return new SslScanResult(host, port, null, ex, elapsedMillis(start));
+    }
+  }
+
+  private static SslScanResult getResult(InetSocketAddress endpoint,
+                                         Future<SslScanResult> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return new SslScanResult(endpoint.getHostString(), endpoint.getPort(),
+                               null, ex, 0);
+    } catch (ExecutionException ex) {
+      return new SslScanResult(endpoint.getHostString(), endpoint.getPort(),
+                               null, ex, 0);
+    }
+  }
+
+  private static long elapsedMillis(long start) {
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+}
@@ -20,6 +20,9 @@
 package org.kse.utilities.ssl;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -27,11 +30,15 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLProtocolException;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509KeyManager;
@@ -66,34 +73,12 @@ public class SslUtils {
         new URL(MessageFormat.format("https://{0}:{1}/", host, "" + port));
     HttpsURLConnection connection = null;
 
-    System.setProperty("javax.net.debug", "ssl");
-
     try {
       connection = (HttpsURLConnection)url.openConnection();
 
-      // create a key manager for client authentication
-      X509KeyManager km = null;
-      if (keyStore != null) {
-        KeyManagerFactory keyManagerFactory =
-            KeyManagerFactory.getInstance("SunX509", "SunJSSE");
-        keyManagerFactory.init(keyStore, password);
-        for (KeyManager keyManager : keyManagerFactory.getKeyManagers()) {
-          if (keyManager instanceof X509KeyManager) {
-            km = (X509KeyManager)keyManager;
-            break;
-          }
-        }
-      }
-
-      // We are only interested in getting the SSL certificates even if they are
-      // invalid either in and of themselves or for the host name they are
-      // associated with
-
       // 1) set connection's SSL Socket factory to have a very trusting trust
       // manager
-      SSLContext context = SSLContext.getInstance("TLS");
-      X509TrustingManager tm = new X509TrustingManager();
-      context.init(new KeyManager[] {km}, new TrustManager[] {tm}, null);
+      SSLContext context = createSslContext(keyStore, password);
 
       // 2) set a host name verifier that always verifies the host name
       connection.setHostnameVerifier((hostname, sslSession) -> true);
@@ -143,6 +128,149 @@ public class SslUtils {
     }
   }
 
+  /**
+   * Create an SSL context that trusts any server. We are only interested in
+   * getting the SSL certificates even if they are invalid either in and of
+   * themselves or for the host name they are associated with.
+   *
+   * @param keyStore KeyStore with a key pair for SSL client authentication or
+   *     null
+   * @param password The password for the KeyStore
+   * @return SSL context
+   * @throws GeneralSecurityException If the context could not be created
+   */
+  static SSLContext createSslContext(KeyStore keyStore, char[] password)
+      throws GeneralSecurityException {
+    // create a key manager for client authentication
+    X509KeyManager km = null;
+    if (keyStore != null) {
+      KeyManagerFactory keyManagerFactory =
+          KeyManagerFactory.getInstance("SunX509", "SunJSSE");
+      keyManagerFactory.init(keyStore, password);
+      for (KeyManager keyManager : keyManagerFactory.getKeyManagers()) {
+        if (keyManager instanceof X509KeyManager) {
+          km = (X509KeyManager)keyManager;
+          break;
+        }
+      }
+    }
+
+    SSLContext context = SSLContext.getInstance("TLS");
+    X509TrustingManager tm = new X509TrustingManager();
+    context.init(new KeyManager[] {km}, new TrustManager[] {tm}, null);
+
+    return context;
+  }
+
+  /**
+   * Do a TLS handshake over a raw socket and read the SSL infos from the
+   * negotiated session.
+   *
+   * @param factory       Socket factory of a context created by {@link
+   *     #createSslContext}
+   * @param host          Connection host
+   * @param port          Connection port
+   * @param timeoutMillis Timeout for the whole exchange, including a retry
+   *     without SNI
+   * @return SSL infos
+   * @throws IOException If connecting or the handshake failed or did not
+   *     finish in time
+   */
+  static SslConnectionInfos readSSLConnectionInfos(SSLSocketFactory factory,
+                                                   String host, int port,
+                                                   int timeoutMillis)
+      throws IOException {
+    long deadline =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    try {
+      return handshake(factory, host, port, deadline, timeoutMillis, true);
+    } catch (SSLException e) {
+      // handle server misconfiguration
+      if (e.getMessage() != null &&
+          e.getMessage().contains("unrecognized_name")) {
+        return handshake(factory, host, port, deadline, timeoutMillis, false);
+      }
+      throw e;
+    }
+  }
+
+  private static SslConnectionInfos handshake(SSLSocketFactory factory,
+                                              String host, int port,
+                                              long deadline,
+                                              int timeoutMillis,
+                                              boolean sniEnabled)
+      throws IOException {
+    CustomSslSocketFactory sslSocketFactory =
+        new CustomSslSocketFactory(factory, null, sniEnabled);
+
+    try (Socket plainSocket = new Socket()) {
+      // socket timeouts only bound each read, a server trickling handshake
+      // bytes is stopped by closing the socket at the deadline
+      CompletableFuture<Void> closer = CompletableFuture.runAsync(
+          () -> closeQuietly(plainSocket),
+          CompletableFuture.delayedExecutor(
+              remainingMillis(deadline, host, port, timeoutMillis),
+              TimeUnit.MILLISECONDS));
+
+      try {
+        plainSocket.connect(
+            new InetSocketAddress(host, port),
+            (int)remainingMillis(deadline, host, port, timeoutMillis));
+
+        try (SSLSocket socket = (SSLSocket)sslSocketFactory.createSocket(
+                 plainSocket, host, port, true)) {
+          socket.startHandshake();
+
+          RetrieveSslInfosHandshakeListener sessionReader =
+              new RetrieveSslInfosHandshakeListener();
+          sessionReader.readSession(socket.getSession());
+
+          SslConnectionInfos sslConnectionInfos =
+              sessionReader.getSslConnectionInfos();
+          sslConnectionInfos.setSniEnabled(sniEnabled);
+
+          return sslConnectionInfos;
+        }
+      } catch (IOException e) {
+        if (System.nanoTime() - deadline >= 0) {
+          throw timedOut(host, port, timeoutMillis);
+        }
+        throw e;
+      } finally {
+        closer.cancel(false);
+      }
+    }
+  }
+
+  private static long remainingMillis(long deadline, String host, int port,
+                                      int timeoutMillis)
+      throws SocketTimeoutException {
+    long remaining =
+        TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+    if (remaining <= 0) {
+      throw timedOut(host, port, timeoutMillis);
+    }
+
+    return remaining;
+  }
+
+  private static SocketTimeoutException timedOut(String host, int port,
+                                                 int timeoutMillis) {
+    return new SocketTimeoutException(MessageFormat.format(
+        res.getString("HandshakeTimeout.exception.message"), host, "" + port,
+        "" + timeoutMillis));
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to stop
+    }
+  }
+
   /**
    * Implementation of the X509TrustManager. In this implementation we
    * always trust the server as we are only interested in getting its
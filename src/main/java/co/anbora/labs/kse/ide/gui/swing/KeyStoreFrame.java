@@ -5,27 +5,43 @@ import co.anbora.labs.kse.ide.gui.render.ColumnRender;
 import co.anbora.labs.kse.ide.vfs.VirtualFileHelper;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.Collection;
+import java.util.List;
 import java.util.ResourceBundle;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
 import javax.swing.table.TableRowSorter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.kse.crypto.CryptoException;
 import org.kse.crypto.Password;
+import org.kse.crypto.keystore.KeyStoreType;
 import org.kse.crypto.keystore.KeyStoreUtil;
 import org.kse.gui.AddKeyStore;
+import org.kse.gui.EntryChanges;
 import org.kse.gui.HistoryKeyStore;
+import org.kse.gui.KeyStoreReloader;
 import org.kse.gui.KeyStoreTableColumns;
 import org.kse.gui.KeyStoreTableModel;
+import org.kse.gui.actions.CompareKeyStoresAction;
+import org.kse.gui.actions.MergeKeyStoresAction;
 import org.kse.gui.actions.NewAction;
 import org.kse.gui.actions.OpenAction;
 import org.kse.gui.actions.PressEnterAction;
+import org.kse.gui.actions.SignJarAction;
+import org.kse.gui.actions.UnlockEntriesAction;
 import org.kse.gui.actions.behavior.ActionBehavior;
 import org.kse.gui.actions.behavior.OpenKeyStoreImpl;
 import org.kse.gui.error.DError;
@@ -46,6 +62,8 @@ public class KeyStoreFrame
   private JLabel jlStatusBar;
   private JToolBar jtbToolBar;
   private JPanel centerPanel;
+  private SearchTextField searchField;
+  private TableRowSorter<KeyStoreTableModel> sorter;
 
   private final UnlockPanel customUnlockPanel =
       new UnlockPanel("Unlock Keystore");
@@ -56,6 +74,9 @@ public class KeyStoreFrame
       new KeyStoreTableColumns();
   private final StatusBar statusBar;
   private OpenAction openAction;
+  private final KeyStoreReloader reloader =
+      new KeyStoreReloader(this::getActiveKeyStoreHistory,
+                           this::reloadKeyStore);
 
   // Toolbar controls
   private JButton jbNew;
@@ -79,6 +100,10 @@ public class KeyStoreFrame
 
   // Actions
   private NewAction newAction;
+  private SignJarAction signJarAction;
+  private UnlockEntriesAction unlockEntriesAction;
+  private CompareKeyStoresAction compareKeyStoresAction;
+  private MergeKeyStoresAction mergeKeyStoresAction;
 
   public KeyStoreFrame(@NotNull Project projectArg,
                        @NotNull VirtualFile fileArg) {
@@ -90,12 +115,21 @@ public class KeyStoreFrame
     initUnlockPanel(projectArg);
     initActions(projectArg, statusBar);
     initToolbar();
+    initSearch();
+    initReload(projectArg);
 
     statusBar.setDefaultStatusBarText();
   }
 
   private void initActions(Project projectArg, StatusBar statusBar) {
     newAction = new NewAction(projectArg, statusBar);
+    signJarAction = new SignJarAction(projectArg, statusBar, this);
+    unlockEntriesAction =
+        new UnlockEntriesAction(projectArg, statusBar, this);
+    compareKeyStoresAction =
+        new CompareKeyStoresAction(projectArg, statusBar, this);
+    mergeKeyStoresAction =
+        new MergeKeyStoresAction(projectArg, statusBar, this);
   }
 
   private void initUnlockPanel(@NotNull Project projectArg) {
@@ -165,6 +199,56 @@ public class KeyStoreFrame
     jtbToolBar.add(jbHelp);*/
   }
 
+  private void initSearch() {
+    searchField = new SearchTextField(false);
+    searchField.getTextEditor().getEmptyText().setText(
+        res.getString("KeyStoreFrame.Search.emptyText"));
+    searchField.setToolTipText(res.getString("KeyStoreFrame.Search.tooltip"));
+    searchField.addDocumentListener(new DocumentAdapter() {
+      @Override
+      protected void textChanged(@NotNull DocumentEvent e) {
+        applySearch();
+      }
+    });
+
+    KeyStoreTableModel ksModel = (KeyStoreTableModel)tblEditor.getModel();
+    ksModel.setSearchIndexListener(this::applySearch);
+
+    jtbToolBar.setFloatable(false);
+    jtbToolBar.add(searchField);
+  }
+
+  private void initReload(@NotNull Project projectArg) {
+    projectArg.getMessageBus().connect(this).subscribe(
+        VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+          @Override
+          public void after(@NotNull List<? extends VFileEvent> events) {
+            for (VFileEvent event : events) {
+              if (event instanceof VFileContentChangeEvent &&
+                  getFile().equals(event.getFile())) {
+                SwingUtilities.invokeLater(reloader::fileChanged);
+                return;
+              }
+            }
+          }
+        });
+  }
+
+  private void reloadKeyStore(KeyStoreHistory history, EntryChanges changes) {
+    setActiveHistory(history);
+
+    try {
+      ((KeyStoreTableModel)tblEditor.getModel()).reload(history, changes);
+    } catch (GeneralSecurityException | CryptoException ex) {
+      DError.displayError(getProjectArg(), ex);
+    }
+  }
+
+  private void applySearch() {
+    KeyStoreTableModel ksModel = (KeyStoreTableModel)tblEditor.getModel();
+    sorter.setRowFilter(ksModel.createSearchFilter(searchField.getText()));
+  }
+
   @Override
   public void addKeyStore(KeyStore keyStore, File keyStoreFile,
                           Password password)
@@ -177,9 +261,18 @@ public class KeyStoreFrame
   }
 
   private void setActiveHistory(KeyStoreHistory history) {
+    if (this.activeHistory != null) {
+      this.activeHistory.dispose();
+    }
     this.activeHistory = history;
   }
 
+  @Override
+  public void dispose() {
+    setActiveHistory(null);
+    super.dispose();
+  }
+
   /**
    * Get the active KeyStore history.
    *
@@ -209,6 +302,33 @@ public class KeyStoreFrame
     return retval;
   }
 
+  /**
+   * Show the entries again, e.g. after they have been unlocked
+   *
+   * @param aliases Aliases of the entries
+   */
+  @Override
+  public void updateEntries(Collection<String> aliases) {
+    ((KeyStoreTableModel)tblEditor.getModel()).refreshEntries(aliases);
+  }
+
+  /**
+   * Show the current state of the active KeyStore again, e.g. after entries
+   * have been added
+   */
+  @Override
+  public void updateKeyStore() {
+    if (activeHistory == null) {
+      return;
+    }
+
+    try {
+      ((KeyStoreTableModel)tblEditor.getModel()).load(activeHistory);
+    } catch (GeneralSecurityException | CryptoException ex) {
+      DError.displayError(getProjectArg(), ex);
+    }
+  }
+
   private JTable getActiveKeyStoreTable() { return tblEditor; }
 
   private void createUIComponents() {
@@ -217,7 +337,7 @@ public class KeyStoreFrame
     KeyStoreTableModel ksModel = new KeyStoreTableModel(keyStoreTableColumns);
     tblEditor.setModel(ksModel);
 
-    RowSorter<KeyStoreTableModel> sorter = new TableRowSorter<>(ksModel);
+    sorter = new TableRowSorter<>(ksModel);
     tblEditor.setRowSorter(sorter);
 
     tblEditor.setShowGrid(false);
@@ -235,9 +355,61 @@ public class KeyStoreFrame
       public void mouseClicked(MouseEvent e) {
         maybeShowSelectedEntryDetails(e);
       }
+
+      @Override
+      public void mousePressed(MouseEvent e) {
+        maybeShowSelectedEntryPopupMenu(e);
+      }
+
+      @Override
+      public void mouseReleased(MouseEvent e) {
+        maybeShowSelectedEntryPopupMenu(e);
+      }
     });
   }
 
+  private void maybeShowSelectedEntryPopupMenu(MouseEvent evt) {
+    if (!evt.isPopupTrigger()) {
+      return;
+    }
+
+    JTable jtKeyStore = (JTable)evt.getComponent();
+    int row = jtKeyStore.rowAtPoint(evt.getPoint());
+
+    KeyStoreHistory history = getActiveKeyStoreHistory();
+
+    if (row == -1 || history == null) {
+      return;
+    }
+
+    jtKeyStore.setRowSelectionInterval(row, row);
+
+    try {
+      KeyStore keyStore = history.getCurrentState().getKeyStore();
+      String alias = getSelectedEntryAlias();
+
+      JPopupMenu jpmEntry = new JPopupMenu();
+
+      if (KeyStoreUtil.isKeyPairEntry(alias, keyStore)) {
+        jpmEntry.add(new JMenuItem(signJarAction));
+      }
+
+      if (keyStore.isKeyEntry(alias) &&
+          KeyStoreType.resolveJce(keyStore.getType()).hasEntryPasswords()) {
+        jpmEntry.add(new JMenuItem(unlockEntriesAction));
+      }
+
+      jpmEntry.add(new JMenuItem(compareKeyStoresAction));
+      jpmEntry.add(new JMenuItem(mergeKeyStoresAction));
+
+      if (jpmEntry.getComponentCount() > 0) {
+        jpmEntry.show(evt.getComponent(), evt.getX(), evt.getY());
+      }
+    } catch (Exception ex) {
+      DError.displayError(getProjectArg(), ex);
+    }
+  }
+
   private void maybeShowSelectedEntryDetails(MouseEvent evt) {
     // Check if a double click occurred on the KeyStore table. If it has
     // show the relevant details of the entry clicked upon
@@ -23,7 +23,6 @@ import co.anbora.labs.kse.ide.gui.CertEditor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import java.awt.*;
-import java.math.BigInteger;
 import java.security.PrivateKey;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.ECPrivateKey;
@@ -40,6 +39,7 @@ import org.kse.crypto.KeyInfo;
 import org.kse.crypto.keypair.KeyPairUtil;
 import org.kse.gui.LnfUtil;
 import org.kse.gui.PlatformUtil;
+import org.kse.utilities.io.HexUtil;
 
 /**
  * Displays the details of a private key with the option to display its fields
@@ -269,9 +269,7 @@ public class DViewPrivateKey extends CertEditor {
 
       jtfFormat.setText(privateKey.getFormat());
 
-      jtaEncoded.setText(new BigInteger(1, privateKey.getEncoded())
-                             .toString(16)
-                             .toUpperCase());
+      jtaEncoded.setText(HexUtil.toHexString(privateKey.getEncoded()));
       jtaEncoded.setCaretPosition(0);
 
       jbFields.setEnabled((privateKey instanceof RSAPrivateKey) ||
@@ -23,7 +23,6 @@ import co.anbora.labs.kse.ide.gui.CertEditor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import java.awt.*;
-import java.math.BigInteger;
 import java.security.PublicKey;
 import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.ECPublicKey;
@@ -42,6 +41,7 @@ import org.kse.crypto.publickey.OpenSslPubUtil;
 import org.kse.gui.LnfUtil;
 import org.kse.gui.PlatformUtil;
 import org.kse.gui.crypto.JPublicKeyFingerprint;
+import org.kse.utilities.io.HexUtil;
 
 /**
  * Displays the details of a public key with the option to display its fields if
@@ -234,8 +234,7 @@ public class DViewPublicKey extends CertEditor {
 
     jtfFormat.setText(publicKey.getFormat());
 
-    jtaEncoded.setText(
-        new BigInteger(1, publicKey.getEncoded()).toString(16).toUpperCase());
+    jtaEncoded.setText(HexUtil.toHexString(publicKey.getEncoded()));
     jtaEncoded.setCaretPosition(0);
 
     jcfFingerprint.setPublicKey(publicKey);
@@ -26,6 +26,8 @@ public class KSEditorSettingsProvider implements EditorOptionsProvider {
   private JCheckBox subjectDistinguishedNameDNCheckBox;
   private JCheckBox subjectCommonNameCNCheckBox;
   private JCheckBox subjectOrganizationNameOCheckBox;
+  private JCheckBox sha256FingerprintCheckBox;
+  private JCheckBox spkiPinCheckBox;
   private JPanel myMainPanel;
 
   @Override
@@ -80,7 +82,10 @@ public class KSEditorSettingsProvider implements EditorOptionsProvider {
         isCheckboxModified(subjectCommonNameCNCheckBox,
                            editorSettings.getSubjectCommonName()) ||
         isCheckboxModified(subjectOrganizationNameOCheckBox,
-                           editorSettings.getSubjectOrganizationName());
+                           editorSettings.getSubjectOrganizationName()) ||
+        isCheckboxModified(sha256FingerprintCheckBox,
+                           editorSettings.getSha256Fingerprint()) ||
+        isCheckboxModified(spkiPinCheckBox, editorSettings.getSpkiPin());
   }
 
   @Override
@@ -109,6 +114,9 @@ public class KSEditorSettingsProvider implements EditorOptionsProvider {
         editorSettings.getSubjectCommonName());
     subjectOrganizationNameOCheckBox.setSelected(
         editorSettings.getSubjectOrganizationName());
+    sha256FingerprintCheckBox.setSelected(
+        editorSettings.getSha256Fingerprint());
+    spkiPinCheckBox.setSelected(editorSettings.getSpkiPin());
   }
 
   @Override
@@ -135,5 +143,7 @@ public class KSEditorSettingsProvider implements EditorOptionsProvider {
         subjectCommonNameCNCheckBox.isSelected());
     editorSettings.setSubjectOrganizationName(
         subjectOrganizationNameOCheckBox.isSelected());
+    editorSettings.setSha256Fingerprint(sha256FingerprintCheckBox.isSelected());
+    editorSettings.setSpkiPin(spkiPinCheckBox.isSelected());
   }
 }
@@ -26,9 +26,10 @@ import javax.swing.*;
 import net.miginfocom.swing.MigLayout;
 import org.kse.crypto.CryptoException;
 import org.kse.crypto.digest.DigestType;
-import org.kse.crypto.digest.DigestUtil;
+import org.kse.crypto.digest.FingerprintCache;
 import org.kse.gui.CursorUtil;
 import org.kse.gui.error.DError;
+import org.kse.utilities.io.HexUtil;
 
 /**
  * Component to view a fingerprint.
@@ -137,8 +138,10 @@ public class JCertificateFingerprint extends JPanel {
           (DigestType)jcbFingerprintAlg.getSelectedItem();
 
       try {
-        jtfCertificateFingerprint.setText(DigestUtil.getFriendlyMessageDigest(
-            encodedCertificate, fingerprintAlg));
+        byte[] fingerprint = FingerprintCache.getCertificateFingerprint(
+            encodedCertificate, fingerprintAlg);
+        jtfCertificateFingerprint.setText(
+            HexUtil.getHexStringWithSep(fingerprint, ':'));
       } catch (CryptoException ex) {
         DError.displayError(project, ex);
         return;
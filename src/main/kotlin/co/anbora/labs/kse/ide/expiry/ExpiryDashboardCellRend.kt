@@ -0,0 +1,77 @@
+package co.anbora.labs.kse.ide.expiry
+
+import org.kse.utilities.StringUtils
+import java.awt.Component
+import java.util.*
+import javax.swing.ImageIcon
+import javax.swing.JLabel
+import javax.swing.JTable
+import javax.swing.table.DefaultTableCellRenderer
+
+/**
+ * Renders the expiry status and dates of the expiry dashboard the way the
+ * KeyStore table does.
+ */
+class ExpiryDashboardCellRend: DefaultTableCellRenderer() {
+
+    private val res = ResourceBundle.getBundle("org/kse/gui/resources")
+
+    private val expiredIcon = ImageIcon(javaClass.getResource(IMAGES + "cert_expired_entry.png"))
+    private val almostExpiredIcon = ImageIcon(javaClass.getResource(IMAGES + "cert_old_entry.png"))
+    private val unexpiredIcon = ImageIcon(javaClass.getResource(IMAGES + "cert_unexpired_entry.png"))
+
+    override fun getTableCellRendererComponent(
+        table: JTable?,
+        value: Any?,
+        isSelected: Boolean,
+        hasFocus: Boolean,
+        row: Int,
+        column: Int
+    ): Component {
+
+        val cell = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column) as JLabel
+
+        return when (value) {
+            is ExpiryStatus -> renderExpiryStatus(cell, value)
+            is Date -> renderDate(cell, value)
+            else -> {
+                cell.icon = null
+                cell.toolTipText = cell.text
+                cell
+            }
+        }
+    }
+
+    private fun renderExpiryStatus(cell: JLabel, status: ExpiryStatus): JLabel {
+        when (status) {
+            ExpiryStatus.EXPIRED -> {
+                cell.icon = expiredIcon
+                cell.toolTipText = res.getString("KeyStoreTableCellRend.CertExpiredEntry.tooltip")
+            }
+            ExpiryStatus.ALMOST_EXPIRED -> {
+                cell.icon = almostExpiredIcon
+                cell.toolTipText = res.getString("KeyStoreTableCellRend.CertAlmostExpiredEntry.tooltip")
+            }
+            ExpiryStatus.NOT_EXPIRED -> {
+                cell.icon = unexpiredIcon
+                cell.toolTipText = res.getString("KeyStoreTableCellRend.CertUnexpiredEntry.tooltip")
+            }
+        }
+
+        cell.text = ""
+        cell.horizontalAlignment = CENTER
+        return cell
+    }
+
+    private fun renderDate(cell: JLabel, date: Date): JLabel {
+        cell.icon = null
+        cell.text = StringUtils.formatDate(date)
+        cell.toolTipText = cell.text
+        cell.horizontalAlignment = LEFT
+        return cell
+    }
+
+    companion object {
+        private const val IMAGES = "/org/kse/gui/images/table/"
+    }
+}
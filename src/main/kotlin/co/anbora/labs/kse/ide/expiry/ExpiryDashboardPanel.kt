@@ -0,0 +1,278 @@
+package co.anbora.labs.kse.ide.expiry
+
+import co.anbora.labs.kse.fileTypes.settings.Settings.EXPIRY_WAR_N_DAYS
+import co.anbora.labs.kse.ide.index.CertificateFinder
+import co.anbora.labs.kse.ide.index.CertificateLocation
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.fileEditor.FileEditorManager
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.guessProjectDir
+import com.intellij.openapi.ui.ComboBox
+import com.intellij.openapi.ui.Messages
+import com.intellij.openapi.ui.popup.JBPopupFactory
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.ui.SimpleListCellRenderer
+import com.intellij.ui.components.JBLabel
+import com.intellij.ui.components.JBScrollPane
+import com.intellij.ui.table.JBTable
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.awt.BorderLayout
+import java.awt.FlowLayout
+import java.awt.event.MouseAdapter
+import java.awt.event.MouseEvent
+import java.net.InetSocketAddress
+import java.text.MessageFormat
+import java.util.*
+import java.util.concurrent.Callable
+import javax.swing.JButton
+import javax.swing.JPanel
+import javax.swing.table.AbstractTableModel
+
+/**
+ * Lists the certificates of all crypto files of a project and of scanned TLS
+ * endpoints by the end of their validity. Double click a certificate to open
+ * its file. Certificates of the project can also be found by fingerprint, key
+ * identifier, subject or issuer.
+ */
+class ExpiryDashboardPanel(
+    private val project: Project,
+    private val parent: Disposable
+): JPanel(BorderLayout()) {
+
+    private val res = ResourceBundle.getBundle("org/kse/gui/resources")
+
+    private val service = ExpiryDashboardService.getInstance(project)
+    private val model = ExpiryTableModel()
+    private val table = JBTable(model)
+    private val summary = JBLabel()
+    private val warnDays = ComboBox(WARN_DAYS)
+    private val scanEndpoints = JButton(res.getString("ExpiryDashboard.ScanEndpoints.text"))
+    private val findCertificates = JButton(res.getString("ExpiryDashboard.Find.text"))
+    private val projectDir = project.guessProjectDir()
+    private var endpoints = ""
+
+    init {
+        val cellRend = ExpiryDashboardCellRend()
+        table.setDefaultRenderer(ExpiryStatus::class.java, cellRend)
+        table.setDefaultRenderer(Date::class.java, cellRend)
+        table.setDefaultRenderer(String::class.java, cellRend)
+        table.autoCreateRowSorter = true
+        table.emptyText.text = res.getString("ExpiryDashboard.Empty.text")
+        table.columnModel.getColumn(0).maxWidth = STATUS_COLUMN_WIDTH
+        table.addMouseListener(object: MouseAdapter() {
+            override fun mouseClicked(e: MouseEvent) {
+                if (e.clickCount == 2) {
+                    openSelectedFile()
+                }
+            }
+        })
+
+        warnDays.selectedItem = service.warnDays
+        warnDays.toolTipText = res.getString("ExpiryDashboard.WarnDays.tooltip")
+        warnDays.addActionListener { service.setWarnDays(warnDays.selectedItem as Long) }
+
+        scanEndpoints.toolTipText = res.getString("ExpiryDashboard.ScanEndpoints.tooltip")
+        scanEndpoints.addActionListener { scanEndpoints() }
+
+        findCertificates.toolTipText = res.getString("ExpiryDashboard.Find.tooltip")
+        findCertificates.addActionListener { findCertificates() }
+
+        val header = JPanel(FlowLayout(FlowLayout.LEFT))
+        header.add(JBLabel(res.getString("ExpiryDashboard.WarnDays.text")))
+        header.add(warnDays)
+        header.add(scanEndpoints)
+        header.add(findCertificates)
+        header.add(summary)
+
+        add(header, BorderLayout.NORTH)
+        add(JBScrollPane(table), BorderLayout.CENTER)
+
+        service.addListener({ reload() }, parent)
+        service.start()
+        reload()
+    }
+
+    private fun reload() {
+        val certificates = service.certificates()
+        model.setCertificates(certificates)
+
+        summary.text = MessageFormat.format(
+            res.getString("ExpiryDashboard.Summary.text"),
+            certificates.count { it.status == ExpiryStatus.EXPIRED },
+            certificates.count { it.status == ExpiryStatus.ALMOST_EXPIRED },
+            service.warnDays,
+            certificates.size,
+            service.fileCount(),
+            service.endpointCount()
+        )
+    }
+
+    private fun openSelectedFile() {
+        val row = table.selectedRow.takeIf { it >= 0 } ?: return
+        val file = model.getFile(table.convertRowIndexToModel(row)) as? VirtualFile ?: return
+
+        openFile(file)
+    }
+
+    private fun openFile(file: VirtualFile) {
+        if (file.isValid) {
+            FileEditorManager.getInstance(project).openFile(file, true)
+        }
+    }
+
+    private fun findCertificates() {
+        val title = res.getString("ExpiryDashboard.Find.Title")
+        val query = Messages.showInputDialog(
+            project, res.getString("ExpiryDashboard.Find.message"), title, null
+        )?.trim()
+        if (query.isNullOrEmpty()) {
+            return
+        }
+
+        ReadAction.nonBlocking(Callable { CertificateFinder.search(project, query) })
+            .inSmartMode(project)
+            .expireWith(parent)
+            .finishOnUiThread(ModalityState.nonModal()) { showFound(title, query, it) }
+            .submit(AppExecutorUtil.getAppExecutorService())
+    }
+
+    private fun showFound(title: String, query: String, found: List<CertificateLocation>) {
+        if (found.isEmpty()) {
+            Messages.showInfoMessage(
+                project, MessageFormat.format(res.getString("ExpiryDashboard.Find.NotFound.message"), query),
+                title
+            )
+            return
+        }
+
+        JBPopupFactory.getInstance().createPopupChooserBuilder(found)
+            .setTitle(title)
+            .setRenderer(SimpleListCellRenderer.create("") { describe(it) })
+            .setItemChosenCallback { openFile(it.file) }
+            .createPopup()
+            .showInCenterOf(this)
+    }
+
+    private fun describe(location: CertificateLocation): String {
+        val certificate = location.certificate
+        val name = certificate.alias?.let { "${certificate.subject} ($it)" } ?: certificate.subject
+
+        return name + "  " + location(location.file)
+    }
+
+    private fun location(file: Any?): String = when (file) {
+        is VirtualFile -> projectDir?.let { VfsUtilCore.getRelativePath(file, it) } ?: file.presentableUrl
+        else -> file.toString()
+    }
+
+    private fun scanEndpoints() {
+        val title = res.getString("ExpiryDashboard.ScanEndpoints.Title")
+        val input = Messages.showMultilineInputDialog(
+            project, res.getString("ExpiryDashboard.ScanEndpoints.message"), title, endpoints, null, null
+        ) ?: return
+        endpoints = input
+
+        val addresses = input.lines().map { it.trim() }.filter { it.isNotEmpty() }.map { toAddress(it) }
+        if (addresses.isEmpty()) {
+            return
+        }
+
+        scanEndpoints.isEnabled = false
+
+        object : Task.Backgroundable(project, title, false) {
+            private var failed = emptyList<String>()
+
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = true
+
+                failed = service.scanEndpoints(addresses).filterNot { it.isSuccessful }.map {
+                    ExpiryDashboardService.endpointName(it.host, it.port) + ": " + it.error.message
+                }
+            }
+
+            override fun onSuccess() {
+                if (failed.isNotEmpty()) {
+                    Messages.showWarningDialog(
+                        project,
+                        MessageFormat.format(
+                            res.getString("ExpiryDashboard.ScanEndpoints.Failed.message"), failed.joinToString("\n")
+                        ),
+                        title
+                    )
+                }
+            }
+
+            override fun onFinished() {
+                scanEndpoints.isEnabled = true
+            }
+        }.queue()
+    }
+
+    private fun toAddress(endpoint: String): InetSocketAddress {
+        val port = endpoint.substringAfterLast(':', "").toIntOrNull()?.takeIf { it in 1..65535 }
+        val host = if (port != null) endpoint.substringBeforeLast(':') else endpoint
+
+        return InetSocketAddress.createUnresolved(host, port ?: DEFAULT_PORT)
+    }
+
+    private inner class ExpiryTableModel: AbstractTableModel() {
+
+        private var certificates: List<ExpiringCertificate<*>> = emptyList()
+
+        private val columnNames = arrayOf(
+            res.getString("KeyStoreTableModel.CertExpiryStatusColumn"),
+            res.getString("KeyStoreTableModel.CertExpiryColumn"),
+            res.getString("KeyStoreTableModel.SubjectDNColumn"),
+            res.getString("KeyStoreTableModel.NameColumn"),
+            res.getString("ExpiryDashboard.FileColumn")
+        )
+
+        private val columnClasses = arrayOf(
+            ExpiryStatus::class.java,
+            Date::class.java,
+            String::class.java,
+            String::class.java,
+            String::class.java
+        )
+
+        fun setCertificates(certificates: List<ExpiringCertificate<*>>) {
+            this.certificates = certificates
+            fireTableDataChanged()
+        }
+
+        fun getFile(row: Int): Any? = certificates[row].file
+
+        override fun getRowCount(): Int = certificates.size
+
+        override fun getColumnCount(): Int = columnNames.size
+
+        override fun getColumnName(column: Int): String = columnNames[column]
+
+        override fun getColumnClass(column: Int): Class<*> = columnClasses[column]
+
+        override fun getValueAt(row: Int, column: Int): Any? {
+            val certificate = certificates[row]
+
+            return when (column) {
+                0 -> certificate.status
+                1 -> Date(certificate.certificate.notAfter)
+                2 -> certificate.certificate.subject
+                3 -> certificate.certificate.alias ?: ""
+                else -> location(certificate.file)
+            }
+        }
+    }
+
+    companion object {
+        private const val STATUS_COLUMN_WIDTH = 60
+        private const val DEFAULT_PORT = 443
+        // the setting the KeyStore table warns with is offered as well
+        private val WARN_DAYS =
+            listOf(EXPIRY_WAR_N_DAYS.toLong(), 7L, 14L, 30L, 60L, 90L).distinct().sorted().toTypedArray()
+    }
+}
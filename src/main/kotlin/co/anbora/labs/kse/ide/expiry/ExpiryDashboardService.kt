@@ -0,0 +1,312 @@
+package co.anbora.labs.kse.ide.expiry
+
+import co.anbora.labs.kse.fileTypes.CertFileType
+import co.anbora.labs.kse.fileTypes.KeystoreFileType
+import co.anbora.labs.kse.fileTypes.PemFileType
+import co.anbora.labs.kse.fileTypes.settings.Settings.EXPIRY_WAR_N_DAYS
+import co.anbora.labs.kse.ide.index.CertificateIndex
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.FINGERPRINT_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.toIndexedCertificate
+import co.anbora.labs.kse.ide.index.IndexedCertificate
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.psi.search.FileTypeIndex
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.intellij.util.indexing.FileBasedIndex
+import org.kse.utilities.ssl.SslScanResult
+import org.kse.utilities.ssl.SslScanner
+import java.net.InetSocketAddress
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Keeps an [ExpiryTimeline] of the certificates found in the crypto files of
+ * a project. The certificates are read from the [CertificateIndex], files are
+ * never parsed again for the timeline. Changed files are read again in the
+ * background, a timer re-evaluates the expiry status when it changes.
+ *
+ * The certificate chains presented by scanned TLS endpoints are kept in a
+ * timeline of their own, until the endpoint is scanned again.
+ */
+class ExpiryDashboardService(private val project: Project): Disposable {
+
+    // warns like the expiry status column of the KeyStore table until changed
+    private val timeline = ExpiryTimeline<VirtualFile>(TimeUnit.DAYS.toMillis(EXPIRY_WAR_N_DAYS.toLong()))
+    private val endpoints = ExpiryTimeline<String>(TimeUnit.DAYS.toMillis(EXPIRY_WAR_N_DAYS.toLong()))
+    private val listeners = CopyOnWriteArrayList<Runnable>()
+    private val changedFiles = ConcurrentHashMap.newKeySet<VirtualFile>()
+    private val started = AtomicBoolean()
+    private val rescanAll = AtomicBoolean()
+
+    private var refreshFuture: ScheduledFuture<*>? = null
+    private var timerFuture: ScheduledFuture<*>? = null
+    private var refreshing = false
+    private var disposed = false
+
+    /**
+     * Number of days before the end of its validity a certificate is almost
+     * expired.
+     */
+    val warnDays: Long
+        get() = TimeUnit.MILLISECONDS.toDays(timeline.warnMillis)
+
+    /**
+     * Start collecting the certificates of the project, does nothing if
+     * already started.
+     */
+    fun start() {
+        if (!started.compareAndSet(false, true)) {
+            return
+        }
+
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object: BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                filesChanged(events)
+            }
+        })
+
+        rescanAll.set(true)
+        scheduleRefresh(0)
+    }
+
+    /**
+     * Add a listener called on the EDT whenever the certificates or their
+     * status change.
+     *
+     * @param listener Listener
+     * @param parent   Removes the listener when disposed
+     */
+    fun addListener(listener: Runnable, parent: Disposable) {
+        listeners.add(listener)
+        Disposer.register(parent) { listeners.remove(listener) }
+    }
+
+    /**
+     * Get the certificates of the project and of the scanned TLS endpoints.
+     *
+     * @return Certificates ordered by the end of their validity, found in a
+     *         [VirtualFile] or presented by a "host:port" endpoint
+     */
+    fun certificates(): List<ExpiringCertificate<*>> =
+        (timeline.certificates() + endpoints.certificates()).sortedBy { it.certificate.notAfter }
+
+    /**
+     * Get the number of files having certificates.
+     */
+    fun fileCount(): Int = timeline.files.size
+
+    /**
+     * Get the number of scanned TLS endpoints having certificates.
+     */
+    fun endpointCount(): Int = endpoints.files.size
+
+    /**
+     * Change how many days before the end of its validity a certificate is
+     * almost expired.
+     */
+    fun setWarnDays(days: Long) {
+        val now = System.currentTimeMillis()
+        timeline.setWarnMillis(TimeUnit.DAYS.toMillis(days), now)
+        endpoints.setWarnMillis(TimeUnit.DAYS.toMillis(days), now)
+        scheduleTimer()
+        fireChanged()
+    }
+
+    /**
+     * Scan TLS endpoints and add the certificate chains they present to the
+     * timeline, replacing those of an earlier scan. Endpoints that cannot be
+     * scanned are removed. Blocks until every endpoint answered or timed
+     * out, call it in the background.
+     *
+     * @param addresses Host and port of the endpoints, may be unresolved
+     * @return Results in the order of the endpoints
+     */
+    fun scanEndpoints(addresses: List<InetSocketAddress>): List<SslScanResult> {
+        val results = SslScanner(null, null, SCAN_TIMEOUT_MILLIS).scan(addresses)
+        val now = System.currentTimeMillis()
+
+        results.forEach { result ->
+            val certificates = result.serverCertificates.mapNotNull { cert ->
+                try {
+                    toIndexedCertificate(null, cert)
+                } catch (e: Exception) {
+                    null
+                }
+            }
+            endpoints.update(endpointName(result.host, result.port), certificates, now)
+        }
+
+        scheduleTimer()
+        fireChanged()
+        return results
+    }
+
+    private fun filesChanged(events: List<VFileEvent>) {
+        var changed = false
+
+        for (event in events) {
+            val file = event.file ?: continue
+
+            if (file.isDirectory) {
+                // files of a created or moved directory get no events
+                rescanAll.set(true)
+                changed = true
+            } else if (isCryptoFile(file) || file in timeline) {
+                changedFiles.add(file)
+                changed = true
+            }
+        }
+
+        if (changed) {
+            scheduleRefresh(REFRESH_DELAY_MILLIS)
+        }
+    }
+
+    @Synchronized
+    private fun scheduleRefresh(delayMillis: Long) {
+        // one refresh at a time, so an older read never overwrites a newer one
+        if (refreshing || disposed) {
+            return
+        }
+
+        refreshing = true
+        refreshFuture = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+            { refresh() }, delayMillis, TimeUnit.MILLISECONDS
+        )
+    }
+
+    private fun refresh() {
+        val all = rescanAll.getAndSet(false)
+        val files = HashSet(changedFiles)
+        changedFiles.removeAll(files)
+
+        ReadAction.nonBlocking(Callable { if (all) readAll() else read(files) })
+            .inSmartMode(project)
+            .expireWith(this)
+            .submit(AppExecutorUtil.getAppExecutorService())
+            .onSuccess { certificates ->
+                val now = System.currentTimeMillis()
+
+                if (all) {
+                    timeline.replaceAll(certificates, now)
+                } else {
+                    certificates.forEach { (file, fileCertificates) -> timeline.update(file, fileCertificates, now) }
+                }
+
+                scheduleTimer()
+                fireChanged()
+            }
+            .onError {
+                rescanAll.compareAndSet(false, all)
+                changedFiles.addAll(files)
+            }
+            .onProcessed { refreshDone() }
+    }
+
+    @Synchronized
+    private fun refreshDone() {
+        refreshing = false
+
+        if (rescanAll.get() || changedFiles.isNotEmpty()) {
+            scheduleRefresh(REFRESH_DELAY_MILLIS)
+        }
+    }
+
+    private fun readAll(): Map<VirtualFile, List<IndexedCertificate>> {
+        val scope = GlobalSearchScope.projectScope(project)
+        val certificates = HashMap<VirtualFile, List<IndexedCertificate>>()
+
+        for (fileType in listOf(KeystoreFileType, CertFileType, PemFileType)) {
+            FileTypeIndex.getFiles(fileType, scope).forEach { file ->
+                readCertificates(file).takeIf { it.isNotEmpty() }?.let { certificates[file] = it }
+            }
+        }
+
+        return certificates
+    }
+
+    private fun read(files: Collection<VirtualFile>): Map<VirtualFile, List<IndexedCertificate>> {
+        val fileIndex = ProjectFileIndex.getInstance(project)
+
+        // files not found anymore end up without certificates
+        return files.associateWith { file ->
+            if (file.isValid && isCryptoFile(file) && fileIndex.isInContent(file)) readCertificates(file) else emptyList()
+        } + timeline.files.filter { !it.isValid }.associateWith { emptyList() }
+    }
+
+    private fun readCertificates(file: VirtualFile): List<IndexedCertificate> {
+        val data = FileBasedIndex.getInstance().getFileData(CertificateIndex.NAME, file, project)
+
+        // every certificate of a file or entry is indexed by its fingerprint exactly once
+        return data.filterKeys { it.startsWith(FINGERPRINT_KEY) }.values.flatten()
+    }
+
+    private fun isCryptoFile(file: VirtualFile): Boolean {
+        val fileType = file.fileType
+        return fileType == KeystoreFileType || fileType == CertFileType || fileType == PemFileType
+    }
+
+    @Synchronized
+    private fun scheduleTimer() {
+        timerFuture?.cancel(false)
+        if (disposed) {
+            return
+        }
+
+        val nextChange = listOfNotNull(timeline.nextChange(), endpoints.nextChange()).minOrNull() ?: return
+
+        // the scheduler clock may stand still while the computer sleeps
+        val delay = (nextChange - System.currentTimeMillis()).coerceIn(0, MAX_TIMER_DELAY_MILLIS)
+
+        timerFuture = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+            {
+                val now = System.currentTimeMillis()
+                if (timeline.advance(now) or endpoints.advance(now)) {
+                    fireChanged()
+                }
+                scheduleTimer()
+            },
+            delay, TimeUnit.MILLISECONDS
+        )
+    }
+
+    private fun fireChanged() {
+        ApplicationManager.getApplication().invokeLater({ listeners.forEach { it.run() } }, project.disposed)
+    }
+
+    @Synchronized
+    override fun dispose() {
+        disposed = true
+        refreshFuture?.cancel(false)
+        timerFuture?.cancel(false)
+        changedFiles.clear()
+    }
+
+    companion object {
+        private const val REFRESH_DELAY_MILLIS = 500L
+        private const val SCAN_TIMEOUT_MILLIS = 10_000
+        private val MAX_TIMER_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1)
+
+        /**
+         * Get the name of a TLS endpoint as shown by the dashboard.
+         */
+        fun endpointName(host: String, port: Int): String = "$host:$port"
+
+        @JvmStatic
+        fun getInstance(project: Project): ExpiryDashboardService =
+            project.getService(ExpiryDashboardService::class.java)
+    }
+}
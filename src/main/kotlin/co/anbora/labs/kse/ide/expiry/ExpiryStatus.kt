@@ -0,0 +1,39 @@
+package co.anbora.labs.kse.ide.expiry
+
+/**
+ * Expiry status of a certificate, [value] is the status shown by the expiry
+ * status column of the KeyStore table.
+ */
+enum class ExpiryStatus(val value: Int) {
+    NOT_EXPIRED(0),
+    ALMOST_EXPIRED(1),
+    EXPIRED(2);
+
+    companion object {
+
+        /**
+         * Get the status of a certificate at a point in time.
+         *
+         * @param notAfter   End of the validity period in milliseconds
+         * @param now        Point in time in milliseconds
+         * @param warnMillis How long before the end of the validity period a
+         *                   certificate is almost expired, 0 for never
+         */
+        fun of(notAfter: Long, now: Long, warnMillis: Long): ExpiryStatus = when {
+            notAfter < now -> EXPIRED
+            notAfter < now + warnMillis -> ALMOST_EXPIRED
+            else -> NOT_EXPIRED
+        }
+
+        /**
+         * Get the point in time the status of a certificate changes next.
+         *
+         * @return Milliseconds or null if the certificate has expired
+         */
+        fun nextChange(notAfter: Long, status: ExpiryStatus, warnMillis: Long): Long? = when {
+            status == EXPIRED -> null
+            status == NOT_EXPIRED && warnMillis > 0 -> notAfter - warnMillis + 1
+            else -> notAfter + 1
+        }
+    }
+}
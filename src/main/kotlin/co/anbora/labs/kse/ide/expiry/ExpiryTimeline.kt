@@ -0,0 +1,202 @@
+package co.anbora.labs.kse.ide.expiry
+
+import co.anbora.labs.kse.ide.index.IndexedCertificate
+import java.util.*
+
+/**
+ * A certificate of the timeline with its status when it was last evaluated.
+ */
+data class ExpiringCertificate<F>(
+    val file: F,
+    val certificate: IndexedCertificate,
+    val status: ExpiryStatus
+)
+
+/**
+ * Certificates of many files ordered by the end of their validity. The
+ * certificates of a file are replaced as a whole when the file changes, the
+ * other files are left alone.
+ *
+ * The status of every certificate is kept up to date without looking at
+ * all of them: a min-heap holds the point in time each certificate changes
+ * status next, so [advance] only visits the certificates whose status has
+ * changed since it was called last.
+ *
+ * @param F Type of the files
+ */
+class ExpiryTimeline<F : Any>(warnMillis: Long) {
+
+    private val byExpiry = TreeSet<Entry<F>>(compareBy<Entry<F>> { it.certificate.notAfter }.thenBy { it.seq })
+    private val byFile = HashMap<F, List<Entry<F>>>()
+    private val changes = PriorityQueue<Change<F>>(compareBy { it.time })
+    private var staleChanges = 0
+    private var nextSeq = 0L
+
+    /**
+     * How long before the end of its validity period a certificate is almost
+     * expired in milliseconds.
+     */
+    var warnMillis: Long = warnMillis
+        private set
+
+    /**
+     * Number of certificates.
+     */
+    val size: Int
+        @Synchronized get() = byExpiry.size
+
+    /**
+     * Files having certificates.
+     */
+    val files: Set<F>
+        @Synchronized get() = HashSet(byFile.keys)
+
+    /**
+     * Does a file have certificates?
+     */
+    @Synchronized
+    operator fun contains(file: F): Boolean = byFile.containsKey(file)
+
+    /**
+     * Replace the certificates of a file.
+     *
+     * @param file         File
+     * @param certificates Certificates found in the file, none removes it
+     * @param now          Current time in milliseconds
+     */
+    @Synchronized
+    fun update(file: F, certificates: Collection<IndexedCertificate>, now: Long) {
+        remove(file)
+
+        if (certificates.isEmpty()) {
+            return
+        }
+
+        byFile[file] = certificates.map { certificate ->
+            val entry = Entry(file, certificate, nextSeq++)
+            entry.status = ExpiryStatus.of(certificate.notAfter, now, warnMillis)
+            byExpiry.add(entry)
+            scheduleChange(entry)
+            entry
+        }
+    }
+
+    /**
+     * Remove the certificates of a file.
+     */
+    @Synchronized
+    fun remove(file: F) {
+        val entries = byFile.remove(file) ?: return
+
+        entries.forEach {
+            byExpiry.remove(it)
+            it.removed = true
+        }
+        staleChanges += entries.size
+
+        // removed certificates far from expiry would stay in the heap for long
+        if (staleChanges > byExpiry.size) {
+            rebuildChanges()
+        }
+    }
+
+    /**
+     * Replace the certificates of all files.
+     *
+     * @param certificates Certificates by file
+     * @param now          Current time in milliseconds
+     */
+    @Synchronized
+    fun replaceAll(certificates: Map<F, Collection<IndexedCertificate>>, now: Long) {
+        byExpiry.clear()
+        byFile.clear()
+        changes.clear()
+        staleChanges = 0
+
+        certificates.forEach { (file, fileCertificates) -> update(file, fileCertificates, now) }
+    }
+
+    /**
+     * Change how long before the end of its validity period a certificate is
+     * almost expired. Re-evaluates the status of all certificates.
+     *
+     * @param warnMillis Milliseconds, 0 for never
+     * @param now        Current time in milliseconds
+     */
+    @Synchronized
+    fun setWarnMillis(warnMillis: Long, now: Long) {
+        this.warnMillis = warnMillis
+        byExpiry.forEach { it.status = ExpiryStatus.of(it.certificate.notAfter, now, warnMillis) }
+        rebuildChanges()
+    }
+
+    /**
+     * Re-evaluate the status of the certificates whose status changed until
+     * now.
+     *
+     * @param now Current time in milliseconds
+     * @return True if the status of any certificate changed
+     */
+    @Synchronized
+    fun advance(now: Long): Boolean {
+        var changed = false
+
+        while (changes.isNotEmpty() && changes.peek().time <= now) {
+            val entry = changes.poll().entry
+            if (entry.removed) {
+                staleChanges--
+                continue
+            }
+
+            val status = ExpiryStatus.of(entry.certificate.notAfter, now, warnMillis)
+            changed = changed || status != entry.status
+            entry.status = status
+            scheduleChange(entry)
+        }
+
+        return changed
+    }
+
+    /**
+     * Get the point in time the status of a certificate changes next.
+     *
+     * @return Milliseconds or null if all certificates have expired
+     */
+    @Synchronized
+    fun nextChange(): Long? {
+        while (changes.isNotEmpty() && changes.peek().entry.removed) {
+            changes.poll()
+            staleChanges--
+        }
+
+        return changes.peek()?.time
+    }
+
+    /**
+     * Get all certificates.
+     *
+     * @return Certificates ordered by the end of their validity
+     */
+    @Synchronized
+    fun certificates(): List<ExpiringCertificate<F>> =
+        byExpiry.map { ExpiringCertificate(it.file, it.certificate, it.status) }
+
+    private fun scheduleChange(entry: Entry<F>) {
+        ExpiryStatus.nextChange(entry.certificate.notAfter, entry.status, warnMillis)?.let {
+            changes.add(Change(it, entry))
+        }
+    }
+
+    private fun rebuildChanges() {
+        changes.clear()
+        staleChanges = 0
+        byExpiry.forEach { scheduleChange(it) }
+    }
+
+    private class Entry<F>(val file: F, val certificate: IndexedCertificate, val seq: Long) {
+        var status = ExpiryStatus.NOT_EXPIRED
+        var removed = false
+    }
+
+    private class Change<F>(val time: Long, val entry: Entry<F>)
+}
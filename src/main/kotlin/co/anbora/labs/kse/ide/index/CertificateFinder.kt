@@ -0,0 +1,127 @@
+package co.anbora.labs.kse.ide.index
+
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.AUTHORITY_KEY_ID_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.COMMON_NAME_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.FINGERPRINT_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.ISSUER_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.NAME
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.SUBJECT_KEY
+import co.anbora.labs.kse.ide.index.CertificateIndex.Companion.SUBJECT_KEY_ID_KEY
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.indexing.FileBasedIndex
+import java.util.*
+import javax.security.auth.x500.X500Principal
+
+/**
+ * A certificate and the file it was found in.
+ */
+data class CertificateLocation(val file: VirtualFile, val certificate: IndexedCertificate)
+
+/**
+ * Looks up certificates in the [CertificateIndex] of a project. Lookups only
+ * read the index, they need a read action and smart mode.
+ */
+object CertificateFinder {
+
+    private val HEX = Regex("[0-9A-F]+")
+
+    /**
+     * Find certificates by any of what they are indexed by: a hex value is
+     * looked up as fingerprint and key identifier, any query as subject and
+     * issuer.
+     *
+     * @param query Fingerprint, key identifier, distinguished name or common
+     *              name
+     * @return Certificates found, each once
+     */
+    fun search(project: Project, query: String): List<CertificateLocation> {
+        val found = LinkedHashSet<CertificateLocation>()
+
+        val hex = normalizeHex(query)
+        if (HEX.matches(hex)) {
+            found.addAll(findByFingerprint(project, hex))
+            found.addAll(findBySubjectKeyId(project, hex))
+            found.addAll(findByAuthorityKeyId(project, hex))
+        }
+        found.addAll(findBySubject(project, query))
+        found.addAll(findByIssuer(project, query))
+
+        return found.toList()
+    }
+
+    /**
+     * Find a certificate by its SHA-256 fingerprint.
+     *
+     * @param fingerprint Hex fingerprint, optionally with separators
+     */
+    fun findByFingerprint(project: Project, fingerprint: String): List<CertificateLocation> =
+        find(project, FINGERPRINT_KEY + normalizeHex(fingerprint))
+
+    /**
+     * Find certificates by subject. A distinguished name, e.g.
+     * "CN=example.com, O=Example", must match the whole subject, anything
+     * else is compared with the subject's common name.
+     */
+    fun findBySubject(project: Project, subject: String): List<CertificateLocation> {
+        val name = toCanonicalName(subject)
+            ?: return find(project, COMMON_NAME_KEY + subject.trim().lowercase(Locale.ROOT))
+        return find(project, SUBJECT_KEY + name)
+    }
+
+    /**
+     * Find the certificates issued by a distinguished name.
+     */
+    fun findByIssuer(project: Project, issuer: String): List<CertificateLocation> {
+        val name = toCanonicalName(issuer) ?: return emptyList()
+        return find(project, ISSUER_KEY + name)
+    }
+
+    /**
+     * Find certificates by subject key identifier.
+     *
+     * @param keyIdentifier Hex key identifier, optionally with separators
+     */
+    fun findBySubjectKeyId(project: Project, keyIdentifier: String): List<CertificateLocation> =
+        find(project, SUBJECT_KEY_ID_KEY + normalizeHex(keyIdentifier))
+
+    /**
+     * Find the certificates whose authority key identifier is a key
+     * identifier, i.e. those issued with the key of a CA certificate.
+     *
+     * @param keyIdentifier Hex key identifier, optionally with separators
+     */
+    fun findByAuthorityKeyId(project: Project, keyIdentifier: String): List<CertificateLocation> =
+        find(project, AUTHORITY_KEY_ID_KEY + normalizeHex(keyIdentifier))
+
+    private fun find(project: Project, key: String): List<CertificateLocation> {
+        val found = mutableListOf<CertificateLocation>()
+
+        FileBasedIndex.getInstance().processValues(
+            NAME, key, null,
+            { file, certificates ->
+                certificates.forEach { found.add(CertificateLocation(file, it)) }
+                true
+            },
+            GlobalSearchScope.projectScope(project)
+        )
+
+        return found
+    }
+
+    private fun normalizeHex(hex: String): String =
+        hex.trim().removePrefix("0x").removePrefix("0X").filter { it.isLetterOrDigit() }.uppercase(Locale.ROOT)
+
+    private fun toCanonicalName(name: String): String? {
+        if (!name.contains('=')) {
+            return null
+        }
+
+        return try {
+            X500Principal(name).getName(X500Principal.CANONICAL)
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+    }
+}
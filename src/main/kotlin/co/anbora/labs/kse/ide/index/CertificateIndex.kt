@@ -0,0 +1,171 @@
+package co.anbora.labs.kse.ide.index
+
+import co.anbora.labs.kse.fileTypes.CertFileType
+import co.anbora.labs.kse.fileTypes.KeystoreFileType
+import co.anbora.labs.kse.fileTypes.PemFileType
+import com.intellij.util.indexing.DataIndexer
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter
+import com.intellij.util.indexing.FileBasedIndex
+import com.intellij.util.indexing.FileBasedIndexExtension
+import com.intellij.util.indexing.FileContent
+import com.intellij.util.indexing.ID
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.KeyDescriptor
+import org.kse.crypto.Password
+import org.kse.crypto.digest.DigestType
+import org.kse.crypto.digest.DigestUtil
+import org.kse.crypto.filetype.CryptoFileUtil
+import org.kse.crypto.keystore.JavaKeyStoreReader
+import org.kse.crypto.keystore.KeyStoreType
+import org.kse.crypto.keystore.Pkcs12Inspector
+import org.kse.crypto.x509.X500NameUtils
+import org.kse.crypto.x509.X509CertUtil
+import org.kse.gui.Certificate
+import org.kse.utilities.io.HexUtil
+import java.security.KeyStore
+import java.security.cert.X509Certificate
+import java.util.*
+import javax.security.auth.x500.X500Principal
+
+/**
+ * Indexes the certificates of all certificate files and of all KeyStores
+ * whose certificates can be read without a password in the project: JKS and
+ * JCEKS KeyStores, whose password only protects their integrity, and PKCS #12
+ * KeyStores with an empty password.
+ *
+ * Certificates are found by SHA-256 fingerprint, subject, common name,
+ * issuer and key identifiers. Key entries are indexed with their whole
+ * certificate chain, each certificate under the alias of the entry. The
+ * platform keeps
+ * the index up to date in the background as files change, use
+ * [CertificateFinder] to query it.
+ */
+class CertificateIndex: FileBasedIndexExtension<String, List<IndexedCertificate>>() {
+
+    override fun getName(): ID<String, List<IndexedCertificate>> = NAME
+
+    override fun getIndexer(): DataIndexer<String, List<IndexedCertificate>, FileContent> =
+        DataIndexer { index(it) }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+
+    override fun getValueExternalizer(): DataExternalizer<List<IndexedCertificate>> =
+        IndexedCertificatesExternalizer
+
+    override fun getVersion(): Int = 2
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter =
+        DefaultFileTypeSpecificInputFilter(KeystoreFileType, CertFileType, PemFileType)
+
+    override fun dependsOnFileContent(): Boolean = true
+
+    private fun index(content: FileContent): Map<String, List<IndexedCertificate>> {
+        val data = content.content
+        if (data.size > MAX_FILE_LENGTH) {
+            return emptyMap()
+        }
+
+        val certificates = try {
+            if (content.fileType == KeystoreFileType) {
+                keyStoreCertificates(data)
+            } else {
+                X509CertUtil.loadCertificates(data).map { null to it }
+            }
+        } catch (e: Exception) {
+            // not a certificate file or a KeyStore that needs a password
+            return emptyMap()
+        }
+
+        val index = HashMap<String, MutableList<IndexedCertificate>>()
+
+        certificates.forEach { (alias, cert) ->
+            val indexedCertificate = try {
+                toIndexedCertificate(alias, cert)
+            } catch (e: Exception) {
+                return@forEach
+            }
+
+            keysOf(indexedCertificate, cert).forEach {
+                index.getOrPut(it) { mutableListOf() }.add(indexedCertificate)
+            }
+        }
+
+        return index
+    }
+
+    private fun keyStoreCertificates(data: ByteArray): List<Pair<String?, X509Certificate>> {
+        val keyStore: KeyStore = when (CryptoFileUtil.detectKeyStoreType(data)) {
+            KeyStoreType.JKS, KeyStoreType.JCEKS ->
+                JavaKeyStoreReader.read(data, Password(CharArray(0))).toKeyStore()
+            KeyStoreType.PKCS12 ->
+                Pkcs12Inspector.read(data, Password(CharArray(0))).toKeyStore()
+            else -> return emptyList()
+        }
+
+        return Collections.list(keyStore.aliases()).flatMap { alias ->
+            val certificates = keyStore.getCertificateChain(alias) ?: arrayOf(keyStore.getCertificate(alias))
+            certificates.filterIsInstance<X509Certificate>().map { alias to it }
+        }
+    }
+
+    private fun keysOf(indexedCertificate: IndexedCertificate, cert: X509Certificate): Set<String> {
+        val keys = mutableSetOf(
+            FINGERPRINT_KEY + indexedCertificate.sha256Fingerprint,
+            SUBJECT_KEY + cert.subjectX500Principal.getName(X500Principal.CANONICAL),
+            ISSUER_KEY + cert.issuerX500Principal.getName(X500Principal.CANONICAL)
+        )
+
+        val commonName = X500NameUtils.extractCN(cert.subjectX500Principal)
+        if (commonName.isNotEmpty()) {
+            keys.add(COMMON_NAME_KEY + commonName.lowercase(Locale.ROOT))
+        }
+
+        indexedCertificate.subjectKeyId?.let { keys.add(SUBJECT_KEY_ID_KEY + it) }
+        indexedCertificate.authorityKeyId?.let { keys.add(AUTHORITY_KEY_ID_KEY + it) }
+
+        return keys
+    }
+
+    companion object {
+        val NAME: ID<String, List<IndexedCertificate>> = ID.create("co.anbora.labs.kse.certificates")
+
+        // larger files are no certificate files or truststores
+        private const val MAX_FILE_LENGTH = 16 * 1024 * 1024
+
+        internal const val FINGERPRINT_KEY = "sha256:"
+        internal const val SUBJECT_KEY = "subject:"
+        internal const val COMMON_NAME_KEY = "cn:"
+        internal const val ISSUER_KEY = "issuer:"
+        internal const val SUBJECT_KEY_ID_KEY = "ski:"
+        internal const val AUTHORITY_KEY_ID_KEY = "aki:"
+
+        /**
+         * Get what the index keeps of a certificate.
+         *
+         * @param alias Entry the certificate belongs to if it was found in a
+         *              KeyStore
+         */
+        internal fun toIndexedCertificate(alias: String?, cert: X509Certificate): IndexedCertificate {
+            val fingerprint = DigestUtil.getMessageDigest(cert.encoded, DigestType.SHA256)
+
+            return IndexedCertificate(
+                sha256Fingerprint = HexUtil.toHexString(fingerprint),
+                subject = X500NameUtils.x500PrincipalToX500Name(cert.subjectX500Principal).toString(),
+                issuer = X500NameUtils.x500PrincipalToX500Name(cert.issuerX500Principal).toString(),
+                subjectKeyId = keyIdentifier { Certificate.getSubjectKeyIdentifier(cert) },
+                authorityKeyId = keyIdentifier { Certificate.getAuthorityKeyIdentifier(cert) },
+                notAfter = cert.notAfter.time,
+                alias = alias
+            )
+        }
+
+        private fun keyIdentifier(keyIdentifier: () -> ByteArray): String? {
+            return try {
+                HexUtil.toHexString(keyIdentifier())
+            } catch (e: Exception) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package co.anbora.labs.kse.ide.index
+
+import com.intellij.util.io.DataExternalizer
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * What the certificate index knows about a certificate found in a file.
+ *
+ * @property sha256Fingerprint SHA-256 fingerprint, upper case hex
+ * @property subject           Subject distinguished name
+ * @property issuer            Issuer distinguished name
+ * @property subjectKeyId      Subject key identifier, upper case hex
+ * @property authorityKeyId    Authority key identifier, upper case hex
+ * @property notAfter          End of the validity period in milliseconds
+ * @property alias             Entry the certificate belongs to if it was
+ *                             found in a KeyStore
+ */
+data class IndexedCertificate(
+    val sha256Fingerprint: String,
+    val subject: String,
+    val issuer: String,
+    val subjectKeyId: String?,
+    val authorityKeyId: String?,
+    val notAfter: Long,
+    val alias: String?
+)
+
+/**
+ * Stores the certificates indexed under a key.
+ */
+object IndexedCertificatesExternalizer: DataExternalizer<List<IndexedCertificate>> {
+
+    override fun save(out: DataOutput, value: List<IndexedCertificate>) {
+        out.writeInt(value.size)
+
+        value.forEach {
+            out.writeUTF(it.sha256Fingerprint)
+            out.writeUTF(it.subject)
+            out.writeUTF(it.issuer)
+            writeNullable(out, it.subjectKeyId)
+            writeNullable(out, it.authorityKeyId)
+            out.writeLong(it.notAfter)
+            writeNullable(out, it.alias)
+        }
+    }
+
+    override fun read(input: DataInput): List<IndexedCertificate> {
+        val size = input.readInt()
+
+        return List(size) {
+            IndexedCertificate(
+                sha256Fingerprint = input.readUTF(),
+                subject = input.readUTF(),
+                issuer = input.readUTF(),
+                subjectKeyId = readNullable(input),
+                authorityKeyId = readNullable(input),
+                notAfter = input.readLong(),
+                alias = readNullable(input)
+            )
+        }
+    }
+
+    private fun writeNullable(out: DataOutput, value: String?) {
+        out.writeBoolean(value != null)
+        value?.let { out.writeUTF(it) }
+    }
+
+    private fun readNullable(input: DataInput): String? {
+        return if (input.readBoolean()) input.readUTF() else null
+    }
+}
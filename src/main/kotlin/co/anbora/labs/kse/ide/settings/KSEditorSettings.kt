@@ -78,6 +78,14 @@ class KSEditorSettings: PersistentStateComponent<SettingOptionSet> {
         get() = state.subjectOrganizationName.active
         set(value) { state.subjectOrganizationName.active = value }
 
+    var sha256Fingerprint: Boolean
+        get() = state.sha256Fingerprint.active
+        set(value) { state.sha256Fingerprint.active = value }
+
+    var spkiPin: Boolean
+        get() = state.spkiPin.active
+        set(value) { state.spkiPin.active = value }
+
     fun resetColumns() = state.resetOptions()
 
     fun sortColumns(order: () -> Int) = state.setIndexColumns(order)
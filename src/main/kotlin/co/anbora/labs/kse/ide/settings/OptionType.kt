@@ -6,6 +6,7 @@ enum class OptionType {
     ENTRY_NAME, KEY_SIZE, CERTIFICATE_EXPIRY,
     SKI, ISSUER_DN, ISSUER_CN, ISSUER_O,
     ALGORITHM, CURVE, LAST_MODIFIED,
-    AKI, SUBJECT_DN, SUBJECT_CN, SUBJECT_O;
+    AKI, SUBJECT_DN, SUBJECT_CN, SUBJECT_O,
+    SHA256_FINGERPRINT, SPKI_PIN;
 
 }
\ No newline at end of file
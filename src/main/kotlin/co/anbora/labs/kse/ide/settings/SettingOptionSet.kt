@@ -124,6 +124,18 @@ data class SettingOptionSet(
         "KeyStoreTableModel.SubjectOColumn",
         TypeClass.STRING,
         optionType = OptionType.SUBJECT_O,
+    ),
+    var sha256Fingerprint: Option = Option(
+        "KeyStoreTableHeadRend.Sha256FingerprintColumn.tooltip",
+        "KeyStoreTableModel.Sha256FingerprintColumn",
+        TypeClass.STRING,
+        optionType = OptionType.SHA256_FINGERPRINT,
+    ),
+    var spkiPin: Option = Option(
+        "KeyStoreTableHeadRend.SpkiPinColumn.tooltip",
+        "KeyStoreTableModel.SpkiPinColumn",
+        TypeClass.STRING,
+        optionType = OptionType.SPKI_PIN,
     )
 ) {
 
@@ -136,7 +148,8 @@ data class SettingOptionSet(
             subjectKeyIdentifier,
             issuerDistinguishedName, subjectDistinguishedName,
             issuerCommonName, subjectCommonName,
-            issuerOrganizationName, subjectOrganizationName
+            issuerOrganizationName, subjectOrganizationName,
+            sha256Fingerprint, spkiPin
         )
     }
 
@@ -35,8 +35,7 @@ object VirtualFileHelper {
     fun showKeySelectedEntry(project: Project, parent: VirtualFile, alias: String, keyStore: KeyStore, state: KeyStoreState) {
         val password = getEntryPassword(project, alias, state) ?: return
 
-        val keyStore: KeyStore = state.getKeyStore()
-        val key = keyStore.getKey(alias, password.toCharArray())
+        val key = state.getKey(alias, password)
 
         when (key) {
             is SecretKey -> {
@@ -68,7 +67,7 @@ object VirtualFileHelper {
         )
     }
 
-    private fun getEntryPassword(project: Project, alias: String?, state: KeyStoreState): Password? {
+    fun getEntryPassword(project: Project, alias: String?, state: KeyStoreState): Password? {
         var password = state.getEntryPassword(alias)
         if (password == null) {
             password = if (!KeyStoreType.resolveJce(state.keyStore.type).hasEntryPasswords()) {
@@ -82,7 +81,6 @@ object VirtualFileHelper {
 
     private fun unlockEntry(project: Project, alias: String?, state: KeyStoreState): Password? {
         return try {
-            val keyStore = state.keyStore
             val dGetPassword = DGetPassword(
                 project,
                 MessageFormat.format(res.getString("KeyStoreExplorerAction.UnlockEntry.Title"), alias)
@@ -90,7 +88,7 @@ object VirtualFileHelper {
             dGetPassword.show()
 
             val password = dGetPassword.password ?: return null
-            keyStore.getKey(alias, password.toCharArray()) // Test password is correct
+            state.getKey(alias, password) // Test password is correct
             state.setEntryPassword(alias, password)
 
             password
@@ -10,6 +10,8 @@ import org.kse.KSE
 import org.kse.crypto.CryptoException
 import org.kse.crypto.KeyInfo
 import org.kse.crypto.KeyType
+import org.kse.crypto.digest.DigestType
+import org.kse.crypto.digest.FingerprintCache
 import org.kse.crypto.keypair.KeyPairUtil
 import org.kse.crypto.keystore.KeyStoreUtil
 import org.kse.crypto.secretkey.SecretKeyType
@@ -28,7 +30,7 @@ import javax.crypto.SecretKey
 object Certificate {
 
     @Throws(KeyStoreException::class, CryptoException::class)
-    private fun getCertificate(alias: String, keyStore: KeyStore): X509Certificate? {
+    fun getCertificate(alias: String, keyStore: KeyStore): X509Certificate? {
         var x509Cert: X509Certificate? = if (KeyStoreUtil.isTrustedCertificateEntry(alias, keyStore)) {
             X509CertUtil.convertCertificate(keyStore.getCertificate(alias))
         } else {
@@ -82,10 +84,7 @@ object Certificate {
     fun getCertificateAKI(alias: String, keyStore: KeyStore): String? {
         val x509Cert = getCertificate(alias, keyStore)
         return try {
-            val akiValue = x509Cert!!.getExtensionValue(Extension.authorityKeyIdentifier.id)
-            val octets = DEROctetString.getInstance(akiValue).octets
-            val akiBytes = AuthorityKeyIdentifier.getInstance(octets).keyIdentifier
-            HexUtil.getHexString(akiBytes)
+            HexUtil.getHexString(getAuthorityKeyIdentifier(x509Cert!!))
         } catch (e: Exception) {
             "-"
         }
@@ -95,15 +94,67 @@ object Certificate {
     fun getCertificateSKI(alias: String, keyStore: KeyStore): String? {
         val x509Cert = getCertificate(alias, keyStore)
         return try {
-            val skiValue = x509Cert!!.getExtensionValue(Extension.subjectKeyIdentifier.id)
-            val octets = DEROctetString.getInstance(skiValue).octets
-            val skiBytes = SubjectKeyIdentifier.getInstance(octets).keyIdentifier
-            HexUtil.getHexString(skiBytes)
+            HexUtil.getHexString(getSubjectKeyIdentifier(x509Cert!!))
         } catch (e: java.lang.Exception) {
             "-"
         }
     }
 
+    /**
+     * Get the key identifier of a certificate's authority key identifier
+     * extension.
+     *
+     * @throws Exception If the certificate has no such extension or it is
+     *     malformed
+     */
+    fun getAuthorityKeyIdentifier(x509Cert: X509Certificate): ByteArray {
+        val akiValue = x509Cert.getExtensionValue(Extension.authorityKeyIdentifier.id)
+        val octets = DEROctetString.getInstance(akiValue).octets
+        return AuthorityKeyIdentifier.getInstance(octets).keyIdentifier
+    }
+
+    /**
+     * Get the key identifier of a certificate's subject key identifier
+     * extension.
+     *
+     * @throws Exception If the certificate has no such extension or it is
+     *     malformed
+     */
+    fun getSubjectKeyIdentifier(x509Cert: X509Certificate): ByteArray {
+        val skiValue = x509Cert.getExtensionValue(Extension.subjectKeyIdentifier.id)
+        val octets = DEROctetString.getInstance(skiValue).octets
+        return SubjectKeyIdentifier.getInstance(octets).keyIdentifier
+    }
+
+    /**
+     * Get the SHA-256 fingerprint of a certificate from the fingerprint cache.
+     *
+     * @return Hex fingerprint or null if the certificate cannot be encoded
+     */
+    fun getCertificateSHA256Fingerprint(x509Cert: X509Certificate): String? {
+        return try {
+            val fingerprint = FingerprintCache.getCertificateFingerprint(x509Cert.encoded, DigestType.SHA256)
+            HexUtil.getHexString(fingerprint, "", 0, 0)
+        } catch (e: GeneralSecurityException) {
+            null
+        } catch (e: CryptoException) {
+            null
+        }
+    }
+
+    /**
+     * Get the SPKI pin of a certificate from the fingerprint cache.
+     *
+     * @return Base64 pin or null if the public key cannot be encoded
+     */
+    fun getCertificateSpkiPin(x509Cert: X509Certificate): String? {
+        return try {
+            FingerprintCache.getSpkiPin(x509Cert.publicKey)
+        } catch (e: CryptoException) {
+            null
+        }
+    }
+
     fun getEntryType(history: KeyStoreHistory, alias: String): String {
         val currentState = history.currentState
         val keyStore = currentState.keyStore
@@ -171,8 +222,7 @@ object Certificate {
             } else {
                 // Key entry - get key info if entry is unlocked
                 if (currentState.getEntryPassword(alias) != null) {
-                    var keyPassword: CharArray? = currentState.getEntryPassword(alias).toCharArray()
-                    val key = keyStore.getKey(alias, keyPassword)
+                    val key = currentState.getKey(alias, currentState.getEntryPassword(alias))
                     when (key) {
                         is SecretKey -> {
                             return SecretKeyUtil.getKeyInfo(key)
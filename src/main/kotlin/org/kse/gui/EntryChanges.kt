@@ -0,0 +1,19 @@
+package org.kse.gui
+
+/**
+ * Entries that differ between two loads of a KeyStore, by alias.
+ *
+ * @param added   Aliases only found in the new KeyStore
+ * @param removed Aliases only found in the old KeyStore
+ * @param changed Aliases found in both with entries of another fingerprint
+ */
+data class EntryChanges(
+    val added: Set<String>,
+    val removed: Set<String>,
+    val changed: Set<String>
+) {
+    val size: Int
+        get() = added.size + removed.size + changed.size
+
+    fun isEmpty(): Boolean = size == 0
+}
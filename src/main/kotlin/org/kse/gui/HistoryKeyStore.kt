@@ -8,4 +8,8 @@ interface HistoryKeyStore {
 
     fun getActiveKeyStoreHistory(): KeyStoreHistory?
 
+    fun updateEntries(aliases: Collection<String>)
+
+    fun updateKeyStore()
+
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package org.kse.gui
+
+import com.intellij.openapi.application.ApplicationManager
+import org.kse.crypto.Password
+import org.kse.crypto.keystore.EntryFingerprint
+import org.kse.crypto.keystore.KeyStoreUtil
+import org.kse.utilities.history.KeyStoreHistory
+import org.kse.utilities.history.KeyStoreState
+import java.security.KeyStore
+import java.util.function.BiConsumer
+import java.util.function.Supplier
+import javax.swing.SwingUtilities
+
+/**
+ * Loads the file of a KeyStore again when it was changed outside the editor,
+ * with the password the KeyStore was opened with. Entries are compared by
+ * their [EntryFingerprint], the fingerprints of the loaded KeyStore are kept
+ * so the next reload only fingerprints the file.
+ *
+ * @param activeHistory Supplies the history shown, null if none
+ * @param listener      Called on the EDT with the history of the reloaded
+ *                      KeyStore and the entries that changed
+ */
+class KeyStoreReloader(
+    private val activeHistory: Supplier<KeyStoreHistory?>,
+    private val listener: BiConsumer<KeyStoreHistory, EntryChanges>
+) {
+
+    // only touched on the EDT
+    private var reloading = false
+    private var pending = false
+
+    // only touched by the reload running
+    private var fingerprintedState: KeyStoreState? = null
+    private var fingerprints: Map<String, ByteArray> = emptyMap()
+
+    /**
+     * Reload the KeyStore file in the background. Reloads run one after
+     * another, changes while reloading start one more reload. Must be called
+     * on the EDT.
+     */
+    fun fileChanged() {
+        if (reloading) {
+            pending = true
+            return
+        }
+
+        // changes not saved yet would be lost
+        val history = activeHistory.get()?.takeIf { it.currentState.isSavedState } ?: return
+        reloading = true
+
+        ApplicationManager.getApplication().executeOnPooledThread {
+            // the file may be incomplete while written or have another password
+            val reloaded = try {
+                reload(history)
+            } catch (e: Exception) {
+                null
+            }
+
+            SwingUtilities.invokeLater {
+                reloading = false
+
+                if (reloaded != null) {
+                    if (activeHistory.get() === history) {
+                        listener.accept(reloaded.first, reloaded.second)
+                    } else {
+                        reloaded.first.dispose()
+                    }
+                }
+
+                if (pending) {
+                    pending = false
+                    fileChanged()
+                }
+            }
+        }
+    }
+
+    private fun reload(history: KeyStoreHistory): Pair<KeyStoreHistory, EntryChanges>? {
+        val state = history.currentState
+        val password = state.password?.takeUnless { it.isNulled }?.let { Password(it) } ?: Password(CharArray(0))
+        val keyStore = KeyStoreUtil.loadReadOnly(history.file, password) ?: return null
+
+        val oldFingerprints = if (fingerprintedState === state) fingerprints else fingerprints(state.keyStore)
+        val newFingerprints = fingerprints(keyStore)
+
+        val changes = EntryChanges(
+            newFingerprints.keys - oldFingerprints.keys,
+            oldFingerprints.keys - newFingerprints.keys,
+            newFingerprints.filter { (alias, fingerprint) ->
+                oldFingerprints[alias]?.contentEquals(fingerprint) == false
+            }.keys
+        )
+
+        if (changes.isEmpty()) {
+            // a file written again with the same entries
+            fingerprintedState = state
+            fingerprints = newFingerprints
+            return null
+        }
+
+        val reloaded = KeyStoreHistory(keyStore, history.file, password)
+        val reloadedState = reloaded.currentState
+
+        // unlocked entries that did not change stay unlocked
+        newFingerprints.keys.filter { it in oldFingerprints && it !in changes.changed }.forEach { alias ->
+            state.getEntryPassword(alias)?.takeUnless { it.isNulled }?.let {
+                reloadedState.setEntryPassword(alias, Password(it))
+            }
+        }
+
+        fingerprintedState = reloadedState
+        fingerprints = newFingerprints
+        return Pair(reloaded, changes)
+    }
+
+    private fun fingerprints(keyStore: KeyStore): Map<String, ByteArray> =
+        keyStore.aliases().toList().associateWith { EntryFingerprint.get(keyStore, it) }
+}
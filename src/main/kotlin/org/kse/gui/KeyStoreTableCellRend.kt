@@ -3,10 +3,10 @@ package org.kse.gui
 import co.anbora.labs.kse.fileTypes.settings.Settings.ENTRY_TYPE
 import co.anbora.labs.kse.fileTypes.settings.Settings.EXPIRY_STATUS
 import co.anbora.labs.kse.fileTypes.settings.Settings.LOCK_STATUS
-import org.bouncycastle.util.encoders.Hex
 import org.kse.gui.ColumnValues.KEY_PAIR_ENTRY
 import org.kse.gui.ColumnValues.TRUST_CERT_ENTRY
 import org.kse.utilities.StringUtils
+import org.kse.utilities.io.HexUtil
 import java.awt.Component
 import java.util.*
 import javax.swing.ImageIcon
@@ -160,7 +160,7 @@ class KeyStoreTableCellRend: DefaultTableCellRenderer() {
                 } else {
                     if (value is Int) {
                         if (value in 0..9999) cell.text = value.toString() else cell.text =
-                            "X" + String.format("%x", value)
+                            "X" + Integer.toHexString(value)
                         cell.toolTipText = text
                         cell.horizontalAlignment = LEFT
                     } else {
@@ -170,7 +170,7 @@ class KeyStoreTableCellRend: DefaultTableCellRenderer() {
                             cell.horizontalAlignment = LEFT
                         } else {
                             if (value is ByteArray) {
-                                cell.text = Hex.toHexString(value as ByteArray?)
+                                cell.text = HexUtil.toHexString(value)
                                 cell.toolTipText = text
                                 cell.horizontalAlignment = LEFT
                             }
@@ -52,4 +52,8 @@ class KeyStoreTableColumns(
 
     fun colCurve(): Int = editor.state.curve.index
 
+    fun colSha256Fingerprint(): Int = editor.state.sha256Fingerprint.index
+
+    fun colSpkiPin(): Int = editor.state.spkiPin.index
+
 }
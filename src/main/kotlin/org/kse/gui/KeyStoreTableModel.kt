@@ -1,12 +1,20 @@
 package org.kse.gui
 
+import com.intellij.openapi.application.ApplicationManager
 import org.kse.crypto.CryptoException
 import org.kse.crypto.keystore.KeyStoreType
 import org.kse.crypto.keystore.KeyStoreUtil
 import org.kse.gui.column.InvalidColumn
+import org.kse.gui.search.EntrySearchIndex
+import org.kse.gui.search.EntrySearchValues
 import org.kse.utilities.history.KeyStoreHistory
+import org.kse.utilities.history.KeyStoreState
 import java.security.GeneralSecurityException
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import javax.swing.RowFilter
+import javax.swing.SwingUtilities
 import javax.swing.table.AbstractTableModel
 
 class KeyStoreTableModel(
@@ -16,9 +24,40 @@ class KeyStoreTableModel(
     private var nofRows = 0
     private val nofColumns = keyStoreTableColumns.getNofColumns()
     private val columns = keyStoreTableColumns.getColumns()
+    private val backgroundColumns = columns.filterValues { it.loadInBackground }
+
+    // Incremented on every load so results of an outdated background load
+    // are dropped
+    @Volatile
+    private var generation = 0
+
+    // A reload touching more than a quarter of the rows loads all of them
+    private val maxReloadShare = 4
 
     private lateinit var history: KeyStoreHistory
+
+    // Cell values are keyed by the slot of an entry rather than its row, so
+    // rows can be inserted and removed without moving the values of others
     private val data: MutableMap<Pair<Int, Int>, Any?> = mutableMapOf()
+    private var rowsByAlias: Map<String, Int> = emptyMap()
+    private var aliasesByRow: MutableList<String> = mutableListOf()
+    private var slotsByRow: MutableList<Int> = mutableListOf()
+    private val aliasesBySlot: MutableMap<Int, String> = mutableMapOf()
+    private var nextSlot = 0
+
+    private val searchIndex = EntrySearchIndex()
+
+    // Index updates run one after another, each one only re-indexes the
+    // entries that changed since the state the previous one indexed
+    private var searchIndexUpdate: CompletableFuture<Void?> = CompletableFuture.completedFuture(null)
+    private var indexedHistory: KeyStoreHistory? = null
+    private var indexedState: KeyStoreState? = null
+
+    /**
+     * Called on the event dispatch thread when the search index has caught
+     * up with the loaded state, searches should be run again then.
+     */
+    var searchIndexListener: Runnable? = null
 
     @Throws(GeneralSecurityException::class, CryptoException::class)
     fun load(history: KeyStoreHistory) {
@@ -41,21 +80,262 @@ class KeyStoreTableModel(
         }
 
         nofRows = sortedAliases.size
+        aliasesByRow = sortedAliases.keys.toMutableList()
+        slotsByRow = MutableList(nofRows) { it }
+        rowsByAlias = aliasesByRow.withIndex().associate { it.value to it.index }
+
+        data.clear()
+        aliasesBySlot.clear()
+        aliasesByRow.forEachIndexed { slot, alias -> loadSlot(slot, alias) }
+        nextSlot = nofRows
+
+        fireTableDataChanged()
+
+        val loadGeneration = ++generation
+        loadInBackground(history, slotsByRow.zip(aliasesByRow), loadGeneration)
+        updateSearchIndex(history, currentState, aliasesByRow)
+    }
+
+    /**
+     * Show the entries of a KeyStore loaded again, e.g. after its file was
+     * changed outside the editor. Only the rows of added, removed and
+     * changed entries are touched, the others keep their values and
+     * selection. Loads all rows if many entries changed.
+     *
+     * @param history History of the loaded KeyStore
+     * @param changes Entries that differ from the shown KeyStore
+     */
+    @Throws(GeneralSecurityException::class, CryptoException::class)
+    fun reload(history: KeyStoreHistory, changes: EntryChanges) {
+        if (changes.size * maxReloadShare > nofRows) {
+            load(history)
+            return
+        }
+
+        val previousState = this.history.currentState
+        this.history = history
+        val keyStore = history.currentState.keyStore
+
+        val (changed, unsupported) = changes.changed.partition { KeyStoreUtil.isSupportedEntryType(it, keyStore) }
+
+        // bottom up, so the rows still to be removed keep their index
+        (changes.removed + unsupported).mapNotNull { rowsByAlias[it] }.sortedDescending().forEach { row ->
+            removeSlot(slotsByRow[row])
+            aliasesByRow.removeAt(row)
+            slotsByRow.removeAt(row)
+            nofRows--
+            fireTableRowsDeleted(row, row)
+        }
+
+        val comparator = AliasComparator()
+        val loaded = mutableListOf<Pair<Int, String>>()
+
+        changes.added.filter { KeyStoreUtil.isSupportedEntryType(it, keyStore) }.sortedWith(comparator).forEach { alias ->
+            // after all rows sorting the same
+            val index = aliasesByRow.binarySearch { if (comparator.compare(it, alias) <= 0) -1 else 1 }
+            val row = -(index + 1)
+            val slot = nextSlot++
+
+            loadSlot(slot, alias)
+            aliasesByRow.add(row, alias)
+            slotsByRow.add(row, slot)
+            nofRows++
+            loaded.add(Pair(slot, alias))
+            fireTableRowsInserted(row, row)
+        }
+
+        rowsByAlias = aliasesByRow.withIndex().associate { it.value to it.index }
+
+        changed.forEach { alias ->
+            val row = rowsByAlias[alias] ?: return@forEach
+            val slot = nextSlot++
+
+            // background values of the old slot are dropped when they arrive
+            removeSlot(slotsByRow[row])
+            loadSlot(slot, alias)
+            slotsByRow[row] = slot
+            loaded.add(Pair(slot, alias))
+            fireTableRowsUpdated(row, row)
+        }
+
+        loadInBackground(history, loaded, generation)
+        updateSearchIndex(history, history.currentState, aliasesByRow, previousState, changes.changed)
+    }
+
+    private fun loadSlot(slot: Int, alias: String) {
+        aliasesBySlot[slot] = alias
+        columns.forEach { (column, tableColumn) ->
+            if (tableColumn.loadInBackground) {
+                data[Pair(slot, column)] = null
+            } else {
+                tableColumn.accept(slot, column, alias, history, data)
+            }
+        }
+    }
+
+    private fun removeSlot(slot: Int) {
+        aliasesBySlot.remove(slot)
+        columns.keys.forEach { data.remove(Pair(slot, it)) }
+    }
 
-        sortedAliases.entries.withIndex().forEach {
-            val alias: String = it.value.key
+    /**
+     * Get the alias of the entry shown in a row.
+     *
+     * @param rowIndex Row of the model
+     * @return Alias
+     */
+    fun getAlias(rowIndex: Int): String = aliasesByRow[rowIndex]
+
+    /**
+     * Create a filter for the rows of the entries matching a search. Entries
+     * match if each word of the query is the start of a word of their alias,
+     * subject or issuer name, subject alternative names, serial number, key
+     * identifiers or fingerprints. The filter searches the index as it is on
+     * its first use, create it again once the search index listener is
+     * called.
+     *
+     * @param query Search as typed
+     * @return Filter or null if the query has no words and all rows are shown
+     */
+    fun createSearchFilter(query: String): RowFilter<KeyStoreTableModel, Int>? {
+        if (EntrySearchIndex.toQueryWords(query).isEmpty()) {
+            return null
+        }
+
+        return object : RowFilter<KeyStoreTableModel, Int>() {
+            private val result by lazy { searchIndex.search(query)!! }
+
+            override fun include(entry: Entry<out KeyStoreTableModel, out Int>): Boolean {
+                return getAlias(entry.identifier) in result
+            }
+        }
+    }
+
+    /**
+     * Queue an update of the search index.
+     *
+     * @param history       History of the state
+     * @param state         State to index
+     * @param aliases       Aliases of the state
+     * @param reloadedFrom  State of another history the state was reloaded
+     *                      from, if any
+     * @param reloadChanged Aliases of the entries that changed since then
+     */
+    private fun updateSearchIndex(
+        history: KeyStoreHistory,
+        state: KeyStoreState,
+        aliases: List<String>,
+        reloadedFrom: KeyStoreState? = null,
+        reloadChanged: Set<String> = emptySet()
+    ) {
+        val pooledThread = Executor { ApplicationManager.getApplication().executeOnPooledThread(it) }
+        val loadGeneration = generation
+        val aliases = aliases.toList()
+
+        searchIndexUpdate = searchIndexUpdate.thenRunAsync({
+            // a later load is queued, it updates from the indexed state itself
+            if (loadGeneration != generation) {
+                return@thenRunAsync
+            }
+
+            // states of another history share no entries with this one,
+            // unless it was reloaded from the indexed one
+            val reloaded = reloadedFrom != null && indexedState === reloadedFrom
+            val previousState = indexedState.takeIf { indexedHistory === history || reloaded }
+            val current = aliases.toHashSet()
+
+            // the index matches no state until this update is complete
+            indexedState = null
+
+            try {
+                if (previousState == null) {
+                    searchIndex.clear()
+                }
+                searchIndex.aliases().filterNot { it in current }.forEach { searchIndex.remove(it) }
+
+                aliases.forEach { alias ->
+                    if (previousState != null && alias in searchIndex &&
+                        if (reloaded) alias !in reloadChanged else previousState.isEntryUnchanged(state, alias)
+                    ) {
+                        return@forEach
+                    }
+                    val values = EntrySearchValues.of(alias, state.keyStore)
+                    searchIndex.put(alias, values.text, values.hex)
+                }
+
+                indexedHistory = history
+                indexedState = state
+            } catch (e: Exception) {
+                // the next update indexes every entry again
+            }
+
+            SwingUtilities.invokeLater {
+                searchIndexListener?.run()
+            }
+        }, pooledThread)
+    }
+
+    /**
+     * Compute the rows of entries again, e.g. after they have been unlocked.
+     * Columns loaded in the background do not depend on the state of an
+     * entry and are kept.
+     */
+    fun refreshEntries(aliases: Collection<String>) {
+        val rows = mutableListOf<Int>()
+
+        aliases.forEach { alias ->
+            val row = rowsByAlias[alias] ?: return@forEach
             columns.forEach { (column, tableColumn) ->
-                tableColumn.accept(
-                    it.index,
-                    column,
-                    alias,
-                    history,
-                    data
-                )
+                if (!tableColumn.loadInBackground) {
+                    tableColumn.accept(slotsByRow[row], column, alias, history, data)
+                }
             }
+            rows.add(row)
         }
 
-        fireTableDataChanged()
+        if (rows.isNotEmpty()) {
+            fireTableRowsUpdated(rows.min(), rows.max())
+        }
+    }
+
+    private fun loadInBackground(history: KeyStoreHistory, entries: List<Pair<Int, String>>, loadGeneration: Int) {
+        if (backgroundColumns.isEmpty() || entries.isEmpty()) {
+            return
+        }
+
+        // the certificates are resolved here, the state may be changed or
+        // replaced while the pooled thread computes the values
+        val keyStore = history.currentState.keyStore
+        val certificates = entries.map { (slot, alias) ->
+            val certificate = try {
+                if (KeyStoreUtil.isKeyEntry(alias, keyStore)) null else Certificate.getCertificate(alias, keyStore)
+            } catch (e: Exception) {
+                null
+            }
+            Pair(slot, certificate)
+        }
+
+        ApplicationManager.getApplication().executeOnPooledThread {
+            val backgroundData: MutableMap<Pair<Int, Int>, Any?> = mutableMapOf()
+
+            certificates.forEach { (slot, certificate) ->
+                backgroundColumns.forEach { (column, tableColumn) ->
+                    backgroundData[Pair(slot, column)] = try {
+                        certificate?.let { tableColumn.acceptCertificate(it) }
+                    } catch (e: Exception) {
+                        null
+                    }
+                }
+            }
+
+            SwingUtilities.invokeLater {
+                if (loadGeneration == generation && nofRows > 0) {
+                    // entries removed or changed meanwhile lost their slot
+                    data.putAll(backgroundData.filterKeys { it.first in aliasesBySlot })
+                    fireTableRowsUpdated(0, nofRows - 1)
+                }
+            }
+        }
     }
 
     override fun getColumnName(columnIndex: Int): String = columns.getOrDefault(columnIndex, InvalidColumn()).title
@@ -68,7 +348,7 @@ class KeyStoreTableModel(
 
     override fun getColumnCount(): Int = nofColumns
 
-    override fun getValueAt(rowIndex: Int, columnIndex: Int): Any? = data[Pair(rowIndex, columnIndex)]
+    override fun getValueAt(rowIndex: Int, columnIndex: Int): Any? = data[Pair(slotsByRow[rowIndex], columnIndex)]
 
     private class AliasComparator : Comparator<String> {
         override fun compare(name1: String, name2: String): Int {
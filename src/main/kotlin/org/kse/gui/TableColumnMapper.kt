@@ -3,6 +3,7 @@ package org.kse.gui
 import co.anbora.labs.kse.ide.settings.Option
 import co.anbora.labs.kse.ide.settings.OptionType
 import org.kse.gui.column.*
+import java.security.cert.X509Certificate
 import java.util.*
 
 object TableColumnMapper {
@@ -33,6 +34,8 @@ object TableColumnMapper {
             OptionType.SUBJECT_DN -> mapToSubjectDistinguishedName(option, title, width)
             OptionType.SUBJECT_CN -> mapToSubjectCommonName(option, title, width)
             OptionType.SUBJECT_O -> mapToSubjectOrganizationName(option, title, width)
+            OptionType.SHA256_FINGERPRINT -> mapToSha256Fingerprint(option, title, width)
+            OptionType.SPKI_PIN -> mapToSpkiPin(option, title, width)
             else -> throw IllegalArgumentException()
         }
     }
@@ -257,4 +260,33 @@ object TableColumnMapper {
             index = option.index,
             width = width
         )
-}
\ No newline at end of file
+
+    private fun mapToSha256Fingerprint(
+        option: Option,
+        title: String,
+        width: Int
+    ): CertificateDigestColumn =
+        mapToCertificateDigest(option, title, width, Certificate::getCertificateSHA256Fingerprint)
+
+    private fun mapToSpkiPin(
+        option: Option,
+        title: String,
+        width: Int
+    ): CertificateDigestColumn =
+        mapToCertificateDigest(option, title, width, Certificate::getCertificateSpkiPin)
+
+    private fun mapToCertificateDigest(
+        option: Option,
+        title: String,
+        width: Int,
+        digest: (X509Certificate) -> String?
+    ): CertificateDigestColumn =
+        CertificateDigestColumn(
+            tooltip = res.getString(option.keyToolTip),
+            title = title,
+            type = option.typeClass?.type ?: String::class.java,
+            index = option.index,
+            width = width,
+            digest = digest
+        )
+}
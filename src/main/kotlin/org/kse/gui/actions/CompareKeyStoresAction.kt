@@ -0,0 +1,128 @@
+package org.kse.gui.actions
+
+import com.intellij.diff.DiffContentFactory
+import com.intellij.diff.DiffManager
+import com.intellij.diff.requests.SimpleDiffRequest
+import com.intellij.openapi.fileChooser.FileChooser
+import com.intellij.openapi.fileChooser.FileChooserDescriptor
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.Project
+import org.kse.crypto.CryptoException
+import org.kse.crypto.keystore.KeyStoreDiff
+import org.kse.crypto.keystore.KeyStoreUtil
+import org.kse.gui.HistoryKeyStore
+import org.kse.gui.error.DError
+import org.kse.gui.password.DGetPassword
+import org.kse.gui.statusbar.StatusBar
+import org.kse.utilities.history.KeyStoreHistory
+import org.kse.utilities.io.HexUtil
+import java.awt.Toolkit
+import java.text.MessageFormat
+import javax.swing.ImageIcon
+
+/**
+ * Compares the active KeyStore with another KeyStore file and shows the
+ * differences in the diff viewer, one line per entry with its fingerprint.
+ * The entries of both KeyStores are fingerprinted concurrently in the
+ * background.
+ */
+class CompareKeyStoresAction(
+    private val project: Project,
+    private val statusBar: StatusBar,
+    private val historyKeyStore: HistoryKeyStore
+): KeyStoreExplorerAction(project, statusBar) {
+
+    init {
+        putValue(LONG_DESCRIPTION, res.getString("CompareKeyStoresAction.statusbar"))
+        putValue(NAME, res.getString("CompareKeyStoresAction.text"))
+        putValue(SHORT_DESCRIPTION, res.getString("CompareKeyStoresAction.tooltip"))
+        putValue(
+            SMALL_ICON,
+            ImageIcon(Toolkit.getDefaultToolkit().createImage(javaClass.getResource("images/comparecerts.png")))
+        )
+    }
+
+    override fun doAction() {
+        val history = historyKeyStore.getActiveKeyStoreHistory() ?: return
+
+        val title = res.getString("CompareKeyStoresAction.CompareKeyStores.Title")
+        val descriptor = FileChooserDescriptor(true, false, false, false, false, false).withTitle(title)
+        val file = FileChooser.chooseFile(descriptor, project, null)?.toNioPath()?.toFile() ?: return
+
+        val dGetPassword = DGetPassword(project, title)
+        dGetPassword.show()
+        val password = dGetPassword.password ?: return
+
+        // editing the KeyStore meanwhile does not change what is compared
+        val snapshot = history.currentState.snapshotKeyStore()
+
+        object : Task.Backgroundable(project, title, false) {
+            private var other: KeyStoreHistory? = null
+            private lateinit var diff: KeyStoreDiff
+
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = true
+
+                val otherKeyStore = KeyStoreUtil.loadReadOnly(file, password) ?: throw CryptoException(
+                    MessageFormat.format(res.getString("CompareKeyStoresAction.NotKeyStore.message"), file.name)
+                )
+                val other = KeyStoreHistory(otherKeyStore, file, password)
+                this.other = other
+
+                diff = KeyStoreDiff.compare(
+                    snapshot, other.currentState.keyStore, Runtime.getRuntime().availableProcessors()
+                )
+            }
+
+            override fun onSuccess() {
+                val other = other!!
+
+                password.nullPassword()
+                statusBar.setDefaultStatusBarText()
+                showDiff(history, other, diff)
+                other.dispose()
+            }
+
+            override fun onThrowable(error: Throwable) {
+                password.nullPassword()
+                other?.dispose()
+                DError.displayError(project, error)
+            }
+        }.queue()
+    }
+
+    private fun showDiff(history: KeyStoreHistory, other: KeyStoreHistory, diff: KeyStoreDiff) {
+        val title = MessageFormat.format(
+            res.getString("CompareKeyStoresAction.Diff.Title"), history.name, other.name,
+            diff.added.size, diff.removed.size, diff.changed.size, diff.renamed.size
+        )
+
+        val renamedFrom = diff.renamed.entries.associate { it.value to it.key }
+        val contentFactory = DiffContentFactory.getInstance()
+
+        val request = SimpleDiffRequest(
+            title,
+            contentFactory.create(project, describe(diff.fromFingerprints, emptyMap())),
+            contentFactory.create(project, describe(diff.toFingerprints, renamedFrom)),
+            history.name,
+            other.name
+        )
+        DiffManager.getInstance().showDiff(project, request)
+    }
+
+    private fun describe(fingerprints: Map<String, ByteArray>, renamedFrom: Map<String, String>): String {
+        val text = StringBuilder()
+
+        // sorted by alias, so the lines of entries in both KeyStores line up
+        fingerprints.keys.sorted().forEach { alias ->
+            text.append(alias).append("  ").append(HexUtil.toHexString(fingerprints[alias]))
+            renamedFrom[alias]?.let {
+                text.append("  ").append(MessageFormat.format(res.getString("CompareKeyStoresAction.Renamed.text"), it))
+            }
+            text.append('\n')
+        }
+
+        return text.toString()
+    }
+}
@@ -0,0 +1,137 @@
+package org.kse.gui.actions
+
+import com.intellij.openapi.fileChooser.FileChooser
+import com.intellij.openapi.fileChooser.FileChooserDescriptor
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.Messages
+import org.kse.crypto.CryptoException
+import org.kse.crypto.Password
+import org.kse.crypto.keystore.KeyStoreUtil
+import org.kse.gui.HistoryKeyStore
+import org.kse.gui.error.DError
+import org.kse.gui.password.DGetPassword
+import org.kse.gui.statusbar.StatusBar
+import org.kse.utilities.history.HistoryAction
+import org.kse.utilities.history.KeyStoreMerger
+import java.awt.Toolkit
+import java.text.MessageFormat
+import javax.swing.ImageIcon
+
+/**
+ * Merges the entries of other KeyStore files into the active KeyStore as a
+ * single step of its history. The KeyStores share one password, their
+ * entries are read concurrently in the background.
+ */
+class MergeKeyStoresAction(
+    private val project: Project,
+    private val statusBar: StatusBar,
+    private val historyKeyStore: HistoryKeyStore
+): KeyStoreExplorerAction(project, statusBar) {
+
+    init {
+        putValue(LONG_DESCRIPTION, res.getString("MergeKeyStoresAction.statusbar"))
+        putValue(NAME, res.getString("MergeKeyStoresAction.text"))
+        putValue(SHORT_DESCRIPTION, res.getString("MergeKeyStoresAction.tooltip"))
+        putValue(
+            SMALL_ICON,
+            ImageIcon(Toolkit.getDefaultToolkit().createImage(javaClass.getResource("images/importcert.png")))
+        )
+    }
+
+    override fun doAction() {
+        val history = historyKeyStore.getActiveKeyStoreHistory() ?: return
+        val state = history.currentState
+
+        val title = res.getString("MergeKeyStoresAction.MergeKeyStores.Title")
+        val descriptor = FileChooserDescriptor(true, false, false, false, false, true).withTitle(title)
+        val files = FileChooser.chooseFiles(descriptor, project, null).map { it.toNioPath().toFile() }
+        if (files.isEmpty()) {
+            return
+        }
+
+        val policies = KeyStoreMerger.ConflictPolicy.values()
+        val policyNames = policies.map { res.getString("MergeKeyStoresAction.ConflictPolicy.${it.name}") }
+        val policyIndex = Messages.showChooseDialog(
+            project, res.getString("MergeKeyStoresAction.ConflictPolicy.message"), title, null,
+            policyNames.toTypedArray(), policyNames[KeyStoreMerger.ConflictPolicy.DEDUPLICATE.ordinal]
+        )
+        if (policyIndex < 0) {
+            return
+        }
+
+        val dGetPassword = DGetPassword(project, title)
+        dGetPassword.show()
+        val password = dGetPassword.password ?: return
+
+        // the active state cannot change any more once it has a next state, so
+        // the merge reads and changes only what no one else does
+        val nextState = state.createBasisForNextState(HistoryAction { title })
+
+        object : Task.Backgroundable(project, title, false) {
+            private lateinit var result: KeyStoreMerger.Result
+
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = true
+
+                val sources = files.map { file ->
+                    // loading nulls an empty password
+                    val keyStore = KeyStoreUtil.loadReadOnly(file, Password(password)) ?: throw CryptoException(
+                        MessageFormat.format(res.getString("MergeKeyStoresAction.NotKeyStore.message"), file.name)
+                    )
+                    KeyStoreMerger.Source(keyStore, password)
+                }
+
+                result = KeyStoreMerger.merge(
+                    nextState, sources, policies[policyIndex], Runtime.getRuntime().availableProcessors()
+                )
+            }
+
+            override fun onSuccess() {
+                password.nullPassword()
+
+                // the KeyStore was changed or closed meanwhile
+                if (historyKeyStore.getActiveKeyStoreHistory() !== history || history.currentState !== state) {
+                    discard()
+                    return
+                }
+
+                state.append(result.state)
+                historyKeyStore.updateKeyStore()
+                statusBar.setDefaultStatusBarText()
+
+                val message = MessageFormat.format(
+                    res.getString("MergeKeyStoresAction.Merged.message"), result.merged, result.renamed, result.skipped
+                )
+                val problems = listOfNotNull(
+                    describe("MergeKeyStoresAction.Unreadable.message", result.unreadable),
+                    describe("MergeKeyStoresAction.Rejected.message", result.rejected)
+                )
+                if (problems.isEmpty()) {
+                    Messages.showInfoMessage(project, message, title)
+                } else {
+                    Messages.showWarningDialog(project, (listOf(message) + problems).joinToString("\n\n"), title)
+                }
+            }
+
+            override fun onThrowable(error: Throwable) {
+                password.nullPassword()
+                discard()
+                DError.displayError(project, error)
+            }
+
+            private fun discard() {
+                nextState.nullPasswords()
+            }
+        }.queue()
+    }
+
+    private fun describe(key: String, aliases: List<String>): String? {
+        if (aliases.isEmpty()) {
+            return null
+        }
+
+        return MessageFormat.format(res.getString(key), aliases.size, aliases.joinToString(", "))
+    }
+}
@@ -0,0 +1,192 @@
+package org.kse.gui.actions
+
+import co.anbora.labs.kse.ide.vfs.VirtualFileHelper
+import com.intellij.openapi.fileChooser.FileChooser
+import com.intellij.openapi.fileChooser.FileChooserDescriptor
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.InputValidator
+import com.intellij.openapi.ui.Messages
+import com.intellij.openapi.vfs.LocalFileSystem
+import org.kse.crypto.digest.DigestType
+import org.kse.crypto.ecc.EccUtil
+import org.kse.crypto.ecc.EdDSACurves
+import org.kse.crypto.keypair.KeyPairType
+import org.kse.crypto.keypair.KeyPairUtil
+import org.kse.crypto.keystore.KeyStoreUtil
+import org.kse.crypto.signing.JarBatchSigner
+import org.kse.crypto.signing.JarSigningResult
+import org.kse.crypto.signing.SignatureType
+import org.kse.crypto.x509.X509CertUtil
+import org.kse.gui.HistoryKeyStore
+import org.kse.gui.error.DError
+import org.kse.gui.statusbar.StatusBar
+import java.awt.Toolkit
+import java.io.File
+import java.net.URI
+import java.security.PrivateKey
+import java.text.MessageFormat
+import javax.swing.ImageIcon
+
+private const val SIGNER = "KeyStore Explorer"
+
+// every JAR signed at the same time digests its entries on all cores already
+private const val MAX_PARALLEL_JARS = 4
+
+/**
+ * Signs one or more JAR files, or all JAR files found in the chosen
+ * directories, with the selected Key Pair entry. The JARs are signed
+ * concurrently in the background and overwritten with the signed JARs. The
+ * signatures are time-stamped by a TSA if one is given, all time-stamp
+ * requests of a batch share a connection to it.
+ */
+class SignJarAction(
+    private val project: Project,
+    private val statusBar: StatusBar,
+    private val historyKeyStore: HistoryKeyStore
+): KeyStoreExplorerAction(project, statusBar) {
+
+    private var tsaUrl = ""
+
+    init {
+        putValue(LONG_DESCRIPTION, res.getString("SignJarAction.statusbar"))
+        putValue(NAME, res.getString("SignJarAction.text"))
+        putValue(SHORT_DESCRIPTION, res.getString("SignJarAction.tooltip"))
+        putValue(
+            SMALL_ICON,
+            ImageIcon(Toolkit.getDefaultToolkit().createImage(javaClass.getResource("images/signjar.png")))
+        )
+    }
+
+    override fun doAction() {
+        val history = historyKeyStore.getActiveKeyStoreHistory() ?: return
+        val alias = historyKeyStore.getSelectedEntryAliases().singleOrNull() ?: return
+
+        val state = history.currentState
+        val keyStore = state.keyStore
+        if (!KeyStoreUtil.isKeyPairEntry(alias, keyStore)) {
+            return
+        }
+
+        val password = VirtualFileHelper.getEntryPassword(project, alias, state) ?: return
+        val privateKey = state.getKey(alias, password) as PrivateKey
+        val certificateChain = X509CertUtil.orderX509CertChain(
+            X509CertUtil.convertCertificates(keyStore.getCertificateChain(alias))
+        )
+
+        val chosenFiles = chooseFiles()
+        if (chosenFiles.isEmpty()) {
+            return
+        }
+
+        val title = res.getString("SignJarAction.SignJar.Title")
+        val tsaUrl = Messages.showInputDialog(
+            project, res.getString("SignJarAction.TsaUrl.message"), title, null, tsaUrl, TsaUrlValidator
+        )?.trim() ?: return
+        this.tsaUrl = tsaUrl
+
+        // set up the signer once for all JAR files
+        val batchSigner = JarBatchSigner(
+            privateKey, certificateChain, signatureType(privateKey), alias, SIGNER,
+            DigestType.SHA256, tsaUrl.ifEmpty { null }, null
+        )
+
+        object : Task.Backgroundable(project, title, false) {
+            private var jarFiles: List<File> = emptyList()
+            private var results: List<JarSigningResult> = emptyList()
+
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = true
+
+                // walking large directory trees takes a while
+                jarFiles = chosenFiles
+                    .flatMap { if (it.isDirectory) JarBatchSigner.findJarFiles(it) else listOf(it) }
+                    .distinct()
+                results = batchSigner.sign(
+                    jarFiles, minOf(MAX_PARALLEL_JARS, Runtime.getRuntime().availableProcessors())
+                )
+            }
+
+            override fun onSuccess() {
+                LocalFileSystem.getInstance().refreshIoFiles(jarFiles)
+                showResults(title, results)
+            }
+
+            override fun onThrowable(error: Throwable) {
+                DError.displayError(project, error)
+            }
+        }.queue()
+    }
+
+    private fun chooseFiles(): List<File> {
+        val descriptor = FileChooserDescriptor(true, true, true, true, false, true)
+            .withTitle(res.getString("SignJarAction.SignJar.Title"))
+
+        return FileChooser.chooseFiles(descriptor, project, null).map { it.toNioPath().toFile() }
+    }
+
+    /**
+     * Accepts no TSA URL or an HTTP(S) one.
+     */
+    private object TsaUrlValidator: InputValidator {
+
+        override fun checkInput(inputString: String?): Boolean {
+            val url = inputString?.trim() ?: return false
+            if (url.isEmpty()) {
+                return true
+            }
+
+            return try {
+                val uri = URI(url)
+                (uri.scheme.equals("http", true) || uri.scheme.equals("https", true)) && uri.host != null
+            } catch (e: Exception) {
+                false
+            }
+        }
+
+        override fun canClose(inputString: String?): Boolean = checkInput(inputString)
+    }
+
+    private fun signatureType(privateKey: PrivateKey): SignatureType {
+        return when (KeyPairUtil.getKeyPairType(privateKey)) {
+            KeyPairType.DSA -> SignatureType.SHA256_DSA
+            KeyPairType.EC, KeyPairType.ECDSA -> SignatureType.SHA256_ECDSA
+            KeyPairType.EDDSA -> if (EccUtil.detectEdDSACurve(privateKey) == EdDSACurves.ED25519) {
+                SignatureType.ED25519
+            } else {
+                SignatureType.ED448
+            }
+            KeyPairType.ED25519 -> SignatureType.ED25519
+            KeyPairType.ED448 -> SignatureType.ED448
+            else -> SignatureType.SHA256_RSA
+        }
+    }
+
+    private fun showResults(title: String, results: List<JarSigningResult>) {
+        val failed = results.filterNot { it.isSuccessful }
+
+        val details = results.joinToString("\n") {
+            if (it.isSuccessful) {
+                MessageFormat.format(
+                    res.getString("SignJarAction.SignJarResult.message"), it.jarFile.name, it.durationMillis
+                )
+            } else {
+                MessageFormat.format(
+                    res.getString("SignJarAction.SignJarFailed.message"), it.jarFile.name,
+                    it.error?.message ?: it.error?.javaClass?.simpleName
+                )
+            }
+        }
+
+        if (failed.isEmpty()) {
+            val summary = MessageFormat.format(res.getString("SignJarAction.SignJarSuccessful.message"), results.size)
+            Messages.showInfoMessage(project, summary + "\n\n" + details, title)
+        } else {
+            val summary = MessageFormat.format(
+                res.getString("SignJarAction.SignJarError.message"), failed.size, results.size
+            )
+            Messages.showErrorDialog(project, summary + "\n\n" + details, title)
+        }
+    }
+}
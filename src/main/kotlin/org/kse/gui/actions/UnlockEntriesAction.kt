@@ -0,0 +1,116 @@
+package org.kse.gui.actions
+
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.Messages
+import org.kse.crypto.Password
+import org.kse.crypto.keystore.EntryUnlocker
+import org.kse.crypto.keystore.KeyStoreType
+import org.kse.gui.HistoryKeyStore
+import org.kse.gui.error.DError
+import org.kse.gui.password.DGetPassword
+import org.kse.gui.statusbar.StatusBar
+import java.awt.Toolkit
+import java.text.MessageFormat
+import java.util.concurrent.atomic.AtomicInteger
+import javax.swing.ImageIcon
+import javax.swing.SwingUtilities
+
+/**
+ * Tries a password on all locked key entries of the active KeyStore. The
+ * entries are tried concurrently in the background and each entry the
+ * password unlocks is shown as unlocked straight away.
+ */
+class UnlockEntriesAction(
+    private val project: Project,
+    private val statusBar: StatusBar,
+    private val historyKeyStore: HistoryKeyStore
+): KeyStoreExplorerAction(project, statusBar) {
+
+    init {
+        putValue(LONG_DESCRIPTION, res.getString("UnlockEntriesAction.statusbar"))
+        putValue(NAME, res.getString("UnlockEntriesAction.text"))
+        putValue(SHORT_DESCRIPTION, res.getString("UnlockEntriesAction.tooltip"))
+        putValue(
+            SMALL_ICON,
+            ImageIcon(Toolkit.getDefaultToolkit().createImage(javaClass.getResource("images/unlock.png")))
+        )
+    }
+
+    override fun doAction() {
+        val history = historyKeyStore.getActiveKeyStoreHistory() ?: return
+
+        val state = history.currentState
+        val keyStore = state.keyStore
+        if (!KeyStoreType.resolveJce(keyStore.type).hasEntryPasswords()) {
+            return
+        }
+
+        val title = res.getString("UnlockEntriesAction.UnlockEntries.Title")
+
+        val lockedAliases = keyStore.aliases().toList().filter {
+            keyStore.isKeyEntry(it) && state.getEntryPassword(it) == null
+        }
+        if (lockedAliases.isEmpty()) {
+            Messages.showInfoMessage(project, res.getString("UnlockEntriesAction.NoLockedEntries.message"), title)
+            return
+        }
+
+        val dGetPassword = DGetPassword(project, title)
+        dGetPassword.show()
+        val password = dGetPassword.password ?: return
+
+        object : Task.Backgroundable(project, title, true) {
+            private var unlocked: List<String> = emptyList()
+
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = false
+                val tried = AtomicInteger()
+
+                unlocked = EntryUnlocker.unlock(
+                    keyStore, lockedAliases, password, Runtime.getRuntime().availableProcessors()
+                ) { alias, correct ->
+                    // stops the entries not tried yet, those already unlocked stay unlocked
+                    indicator.checkCanceled()
+                    indicator.fraction = tried.incrementAndGet().toDouble() / lockedAliases.size
+
+                    if (correct) {
+                        // every entry gets its own copy, removing an entry's password nulls it
+                        val entryPassword = Password(password)
+                        SwingUtilities.invokeLater {
+                            state.setEntryPassword(alias, entryPassword)
+                            if (history.currentState === state) {
+                                historyKeyStore.updateEntries(listOf(alias))
+                            }
+                        }
+                    }
+                }
+            }
+
+            override fun onSuccess() {
+                password.nullPassword()
+                statusBar.setDefaultStatusBarText()
+
+                val message = MessageFormat.format(
+                    res.getString("UnlockEntriesAction.EntriesUnlocked.message"), unlocked.size, lockedAliases.size
+                )
+                if (unlocked.isEmpty()) {
+                    Messages.showWarningDialog(project, message, title)
+                } else {
+                    Messages.showInfoMessage(project, message, title)
+                }
+            }
+
+            override fun onCancel() {
+                password.nullPassword()
+                statusBar.setDefaultStatusBarText()
+            }
+
+            override fun onThrowable(error: Throwable) {
+                password.nullPassword()
+                DError.displayError(project, error)
+            }
+        }.queue()
+    }
+}
@@ -39,7 +39,7 @@ class OpenKeyStoreImpl(
     private fun loadKeyStore(keyStoreFile: File, password: Password): KeyStore? {
         // try to load keystore
         return try {
-            KeyStoreUtil.load(keyStoreFile, password)
+            KeyStoreUtil.loadReadOnly(keyStoreFile, password)
         } catch (klex: CryptoException) {
             // show icon error
             null
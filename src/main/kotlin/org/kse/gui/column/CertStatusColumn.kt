@@ -1,9 +1,11 @@
 package org.kse.gui.column
 
 import co.anbora.labs.kse.fileTypes.settings.Settings
+import co.anbora.labs.kse.ide.expiry.ExpiryStatus
 import org.kse.gui.Certificate
 import org.kse.utilities.history.KeyStoreHistory
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 class CertStatusColumn(
     tooltip: String,
@@ -24,24 +26,14 @@ class CertStatusColumn(
         val keyStore = currentState.keyStore
         // Expiry status column
         val expiry: Date? = Certificate.getCertificateExpiry(alias, keyStore)
-        val c = Calendar.getInstance()
-        val a = Calendar.getInstance()
-        c.time = Date() // Now use today date.
-        a.time = Date() // Now use today date.
-        a.add(Calendar.DATE, Settings.EXPIRY_WAR_N_DAYS) // Adding warning interval
 
-        if (expiry == null) {
-            data[Pair(rowIndex, Settings.EXPIRY_STATUS)] = null // No expiry - must be a key entry
-        } else {
-            if (expiry.before(c.time)) {
-                data[Pair(rowIndex, Settings.EXPIRY_STATUS)] = 2 // Expired
-            } else {
-                if (expiry.before(a.time)) {
-                    data[Pair(rowIndex, Settings.EXPIRY_STATUS)] = 1 // Almost expired
-                } else {
-                    data[Pair(rowIndex, Settings.EXPIRY_STATUS)] = 0 // Not expired
-                }
-            }
+        // No expiry - must be a key entry
+        data[Pair(rowIndex, Settings.EXPIRY_STATUS)] = expiry?.let {
+            ExpiryStatus.of(it.time, System.currentTimeMillis(), WARN_MILLIS).value
         }
     }
+
+    companion object {
+        private val WARN_MILLIS = TimeUnit.DAYS.toMillis(Settings.EXPIRY_WAR_N_DAYS.toLong())
+    }
 }
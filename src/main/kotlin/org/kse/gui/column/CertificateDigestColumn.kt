@@ -0,0 +1,44 @@
+package org.kse.gui.column
+
+import org.kse.gui.Certificate
+import org.kse.gui.ColumnValues.KEY_ENTRY
+import org.kse.utilities.history.KeyStoreHistory
+import java.security.cert.X509Certificate
+
+/**
+ * Column showing a digest of the certificate of an entry, e.g. its
+ * fingerprint or SPKI pin. Loaded in the background from the certificates
+ * resolved when the table is loaded.
+ */
+class CertificateDigestColumn(
+    tooltip: String,
+    title: String,
+    type: Class<out Any>,
+    index: Int,
+    width: Int,
+    private val digest: (X509Certificate) -> String?
+): TableColumn(tooltip, title, type, index, width) {
+
+    override val loadInBackground: Boolean = true
+
+    override fun accept(
+        rowIndex: Int,
+        colIndex: Int,
+        alias: String,
+        history: KeyStoreHistory,
+        data: MutableMap<Pair<Int, Int>, Any?>
+    ) {
+        val currentState = history.currentState
+        val keyStore = currentState.keyStore
+
+        val entryType: String = Certificate.getEntryType(history, alias)
+
+        if (entryType != KEY_ENTRY) {
+            data[Pair(rowIndex, colIndex)] = Certificate.getCertificate(alias, keyStore)?.let(digest)
+        } else {
+            data[Pair(rowIndex, colIndex)] = null
+        }
+    }
+
+    override fun acceptCertificate(certificate: X509Certificate): Any? = digest(certificate)
+}
@@ -1,6 +1,7 @@
 package org.kse.gui.column
 
 import org.kse.utilities.history.KeyStoreHistory
+import java.security.cert.X509Certificate
 
 sealed class TableColumn(
     val tooltip: String,
@@ -9,6 +10,12 @@ sealed class TableColumn(
     val index: Int,
     val width: Int
 ) {
+    /**
+     * Columns that are expensive to compute are filled in after the table is
+     * shown.
+     */
+    open val loadInBackground: Boolean = false
+
     abstract fun accept(
         rowIndex: Int,
         colIndex: Int,
@@ -16,4 +23,11 @@ sealed class TableColumn(
         history: KeyStoreHistory,
         data: MutableMap<Pair<Int, Int>, Any?>
     )
+
+    /**
+     * Value of a column loaded in the background, computed from the
+     * certificate of the entry only. The certificate is resolved on the
+     * event dispatch thread, so the KeyStore is not read concurrently.
+     */
+    open fun acceptCertificate(certificate: X509Certificate): Any? = null
 }
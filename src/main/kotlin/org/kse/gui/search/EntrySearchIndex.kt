@@ -0,0 +1,303 @@
+package org.kse.gui.search
+
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Inverted index over the searchable values of KeyStore entries. Values are
+ * split into lower case words and every word refers to the entries having it.
+ * A query matches the entries that have, for each word of the query, a word
+ * starting with it, so results narrow down while the query is typed.
+ *
+ * Short query words match the words of a great many entries, so the entries
+ * are also recorded for every word start of up to three characters. Longer
+ * query words look up the range of words starting with them.
+ *
+ * Entries are added, replaced and removed one at a time, the index is never
+ * rebuilt as a whole. The index may be filled on a background thread while
+ * it is queried.
+ */
+class EntrySearchIndex {
+
+    private val words = TreeMap<String, Postings>()
+    private val wordStarts = HashMap<String, Postings>()
+    private val entryIds = ConcurrentHashMap<String, Int>()
+    private val entryWords = ArrayList<Array<String>?>()
+    private val freeIds = ArrayDeque<Int>()
+
+    // Entries of the words of the latest queries, typing only adds a word
+    private val wordMatches = HashMap<String, BitSet>()
+
+    /**
+     * Add an entry or replace the values of an entry.
+     *
+     * @param alias     Alias of the entry
+     * @param values    Searchable values of the entry
+     * @param hexValues Searchable hex values of the entry, e.g. serial
+     *                  numbers or fingerprints
+     */
+    @Synchronized
+    fun put(alias: String, values: Collection<String>, hexValues: Collection<String> = emptyList()) {
+        remove(alias)
+
+        val id = freeIds.pollFirst() ?: entryWords.size.also { entryWords.add(null) }
+        val distinctWords = (values.flatMapTo(HashSet()) { toWords(it) } +
+            hexValues.flatMap { toHexWords(it) }).toTypedArray()
+
+        for (word in distinctWords) {
+            words.getOrPut(word) { Postings() }.add(id, entryWords.size)
+        }
+        for (start in wordStartsOf(distinctWords)) {
+            wordStarts.getOrPut(start) { Postings() }.add(id, entryWords.size)
+        }
+
+        entryWords[id] = distinctWords
+        entryIds[alias] = id
+        wordMatches.clear()
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param alias Alias of the entry
+     */
+    @Synchronized
+    fun remove(alias: String) {
+        val id = entryIds.remove(alias) ?: return
+        val entryWords = this.entryWords[id]!!
+
+        for (word in entryWords) {
+            removePosting(words, word, id)
+        }
+        for (start in wordStartsOf(entryWords)) {
+            removePosting(wordStarts, start, id)
+        }
+
+        this.entryWords[id] = null
+        freeIds.add(id)
+        wordMatches.clear()
+    }
+
+    /**
+     * Remove all entries. Faster than removing them one by one if most of
+     * them are replaced.
+     */
+    @Synchronized
+    fun clear() {
+        words.clear()
+        wordStarts.clear()
+        entryIds.clear()
+        entryWords.clear()
+        freeIds.clear()
+        wordMatches.clear()
+    }
+
+    /**
+     * Is an entry in the index?
+     *
+     * @param alias Alias of the entry
+     * @return True if it was added and not removed since
+     */
+    operator fun contains(alias: String): Boolean = entryIds.containsKey(alias)
+
+    /**
+     * Get the aliases of all entries in the index.
+     *
+     * @return Aliases
+     */
+    fun aliases(): Set<String> = HashSet(entryIds.keys)
+
+    /**
+     * Search the entries.
+     *
+     * @param query Words to search for, separated by blanks or punctuation
+     * @return The matching entries or null if the query has no words
+     */
+    @Synchronized
+    fun search(query: String): Result? {
+        val queryWords = toQueryWords(query).distinct().sortedByDescending { it.length }
+
+        if (queryWords.isEmpty()) {
+            return null
+        }
+
+        // longest word first, it usually matches the fewest entries
+        val matches = matchesOf(queryWords[0]).clone() as BitSet
+
+        for (i in 1 until queryWords.size) {
+            if (matches.isEmpty) {
+                break
+            }
+            matches.and(matchesOf(queryWords[i]))
+        }
+
+        return Result(matches)
+    }
+
+    private fun matchesOf(prefix: String): BitSet {
+        wordMatches[prefix]?.let { return it }
+
+        val matches = BitSet(entryWords.size)
+
+        if (prefix.length <= MAX_WORD_START_LENGTH) {
+            wordStarts[prefix]?.addTo(matches)
+        } else {
+            for (postings in words.subMap(prefix, true, prefix + Char.MAX_VALUE, false).values) {
+                postings.addTo(matches)
+            }
+        }
+
+        if (wordMatches.size >= MAX_CACHED_WORDS) {
+            wordMatches.clear()
+        }
+        wordMatches[prefix] = matches
+
+        return matches
+    }
+
+    private fun removePosting(postingsByWord: MutableMap<String, Postings>, word: String, id: Int) {
+        val postings = postingsByWord[word]!!
+        postings.remove(id)
+
+        if (postings.isEmpty()) {
+            postingsByWord.remove(word)
+        }
+    }
+
+    private fun wordStartsOf(words: Array<String>): Set<String> {
+        val starts = HashSet<String>()
+
+        for (word in words) {
+            for (length in 1..minOf(word.length, MAX_WORD_START_LENGTH)) {
+                starts.add(word.substring(0, length))
+            }
+        }
+
+        return starts
+    }
+
+    /**
+     * Entries matching a query.
+     */
+    inner class Result internal constructor(private val matches: BitSet) {
+
+        /**
+         * Number of matching entries.
+         */
+        val size: Int
+            get() = matches.cardinality()
+
+        /**
+         * Does an entry match? Entries added to the index after the search
+         * do not match.
+         *
+         * @param alias Alias of the entry
+         * @return True if it matches
+         */
+        operator fun contains(alias: String): Boolean {
+            val id = entryIds[alias] ?: return false
+            return matches[id]
+        }
+    }
+
+    /**
+     * Entries having a word. Words of few entries keep their ids in an array,
+     * words of many entries switch to a bit set once it takes less memory, so
+     * entries are removed from them in constant time.
+     */
+    private class Postings {
+        private var ids: IntArray? = IntArray(1)
+        private var size = 0
+        private var bits: BitSet? = null
+
+        fun add(id: Int, nofIds: Int) {
+            bits?.let {
+                it.set(id)
+                return
+            }
+
+            var ids = this.ids!!
+            if (size == ids.size) {
+                if (size * Int.SIZE_BITS >= nofIds) {
+                    val bits = BitSet(nofIds)
+                    ids.forEach { bits.set(it) }
+                    bits.set(id)
+                    this.bits = bits
+                    this.ids = null
+                    return
+                }
+                ids = ids.copyOf(size * 2)
+                this.ids = ids
+            }
+            ids[size++] = id
+        }
+
+        fun remove(id: Int) {
+            bits?.let {
+                it.clear(id)
+                return
+            }
+
+            val ids = this.ids!!
+            for (i in 0 until size) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size]
+                    return
+                }
+            }
+        }
+
+        fun isEmpty(): Boolean = bits?.isEmpty ?: (size == 0)
+
+        fun addTo(matches: BitSet) {
+            bits?.let {
+                matches.or(it)
+                return
+            }
+
+            val ids = this.ids!!
+            for (i in 0 until size) {
+                matches.set(ids[i])
+            }
+        }
+    }
+
+    companion object {
+        private const val MAX_CACHED_WORDS = 64
+        private const val MAX_WORD_START_LENGTH = 3
+
+        private val HEX_PREFIX = Regex("\\b0x(?=[0-9a-f])")
+        private val HEX_GROUP_SEPARATOR = Regex("(?<=\\b[0-9a-f]{2,4})[: ](?=[0-9a-f]{2,4}\\b)")
+        private val HEX_QUERY = Regex("0x[0-9a-f]+( [0-9a-f]+)*|[0-9a-f]{1,4}(:[0-9a-f]{1,4})+:?")
+        private val WORD_SEPARATOR = Regex("[^\\p{L}\\p{N}]+")
+
+        /**
+         * Split a value into the words it is found by.
+         */
+        internal fun toWords(value: String): List<String> =
+            value.lowercase(Locale.ROOT).split(WORD_SEPARATOR).filter { it.isNotEmpty() }
+
+        /**
+         * Split a hex value into the words it is found by. Hex values written
+         * in groups, e.g. "0x1A2B 3C4D" or "1A:2B:3C", are kept as one word so
+         * they can be searched for the way KSE displays them.
+         */
+        internal fun toHexWords(value: String): List<String> {
+            var normalized = value.lowercase(Locale.ROOT)
+            normalized = HEX_PREFIX.replace(normalized, "")
+            normalized = HEX_GROUP_SEPARATOR.replace(normalized, "")
+
+            return toWords(normalized)
+        }
+
+        /**
+         * Split a query into the words to search for. A query that is a hex
+         * value written in groups is searched for as one word.
+         */
+        internal fun toQueryWords(query: String): List<String> {
+            val normalized = query.trim().lowercase(Locale.ROOT)
+
+            return if (HEX_QUERY.matches(normalized)) toHexWords(normalized) else toWords(normalized)
+        }
+    }
+}
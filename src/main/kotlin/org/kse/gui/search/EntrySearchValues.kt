@@ -0,0 +1,81 @@
+package org.kse.gui.search
+
+import org.bouncycastle.asn1.x500.style.IETFUtils
+import org.kse.crypto.digest.DigestType
+import org.kse.crypto.digest.FingerprintCache
+import org.kse.crypto.x509.X500NameUtils
+import org.kse.gui.Certificate
+import org.kse.utilities.io.HexUtil
+import java.security.KeyStore
+import javax.security.auth.x500.X500Principal
+
+/**
+ * Values an entry can be searched by: its alias and, for entries with a
+ * certificate, the subject and issuer name components, subject alternative
+ * names, serial number, key identifiers and fingerprints of the certificate.
+ *
+ * @property text Values split into words as they are
+ * @property hex  Hex values, whose groups are joined into one word
+ */
+class EntrySearchValues private constructor(
+    val text: List<String>,
+    val hex: List<String>
+) {
+
+    companion object {
+
+        /**
+         * Get the searchable values of an entry.
+         *
+         * @param alias    Alias of the entry
+         * @param keyStore KeyStore holding the entry
+         * @return Values, only the alias if the certificate cannot be read
+         */
+        fun of(alias: String, keyStore: KeyStore): EntrySearchValues {
+            val values = mutableListOf(alias)
+            val hexValues = mutableListOf<String>()
+            val cert = try {
+                Certificate.getCertificate(alias, keyStore)
+            } catch (e: Exception) {
+                null
+            } ?: return EntrySearchValues(values, hexValues)
+
+            addNameValues(cert.subjectX500Principal, values)
+            addNameValues(cert.issuerX500Principal, values)
+
+            try {
+                cert.subjectAlternativeNames?.forEach { name ->
+                    (name[1] as? String)?.let { values.add(it) }
+                }
+            } catch (e: Exception) {
+                // malformed extension, the other values are still found
+            }
+
+            values.add(cert.serialNumber.toString())
+            hexValues.add(cert.serialNumber.toString(16))
+
+            keyIdentifier { Certificate.getSubjectKeyIdentifier(cert) }?.let { hexValues.add(it) }
+            keyIdentifier { Certificate.getAuthorityKeyIdentifier(cert) }?.let { hexValues.add(it) }
+
+            val encoded = cert.encoded
+            hexValues.add(HexUtil.toHexString(FingerprintCache.getCertificateFingerprint(encoded, DigestType.SHA256)))
+            hexValues.add(HexUtil.toHexString(FingerprintCache.getCertificateFingerprint(encoded, DigestType.SHA1)))
+
+            return EntrySearchValues(values, hexValues)
+        }
+
+        private fun addNameValues(principal: X500Principal, values: MutableList<String>) {
+            X500NameUtils.x500PrincipalToX500Name(principal).rdNs.forEach { rdn ->
+                rdn.typesAndValues.forEach { values.add(IETFUtils.valueToString(it.value)) }
+            }
+        }
+
+        private fun keyIdentifier(keyIdentifier: () -> ByteArray?): String? {
+            return try {
+                keyIdentifier()?.let { HexUtil.toHexString(it) }
+            } catch (e: Exception) {
+                null
+            }
+        }
+    }
+}